@@ -0,0 +1,337 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.index.Index;
+
+/**
+ * Imports nodes and relationships into a {@link WrappedGraphDatabase} from streams of records, such as the parsed
+ * rows of CSV files, on several threads. The records are read on the calling thread and imported in batches, each
+ * in a transaction of its own, along with the index entries of its nodes.
+ * <p>
+ * Nodes are identified in the records by external ids, which must be unique and not negative, and are mapped to the
+ * ids of the imported nodes in memory. Import the nodes before the relationships between them. The relationships of
+ * each batch lock their nodes in order of their ids before they are created, so that batches that share nodes wait
+ * for each other rather than deadlock.
+ * <p>
+ * If a batch fails, no further batches are started and the batches already queued are skipped, and the import throws
+ * the failure once the batches in flight have finished. The batches committed until then stay in the database.
+ */
+public final class BulkImport
+{
+    public static final class NodeRecord
+    {
+        final long externalId;
+        final Map<String, Object> properties;
+
+        public NodeRecord( long externalId, Map<String, Object> properties )
+        {
+            if ( externalId < 0 ) throw new IllegalArgumentException( "Negative external id: " + externalId );
+            this.externalId = externalId;
+            this.properties = properties == null ? Collections.<String, Object>emptyMap() : properties;
+        }
+    }
+
+    public static final class RelationshipRecord
+    {
+        final long startExternalId, endExternalId;
+        final RelationshipType type;
+        final Map<String, Object> properties;
+
+        public RelationshipRecord( long startExternalId, long endExternalId, RelationshipType type,
+                Map<String, Object> properties )
+        {
+            type.getClass(); // null check
+            this.startExternalId = startExternalId;
+            this.endExternalId = endExternalId;
+            this.type = type;
+            this.properties = properties == null ? Collections.<String, Object>emptyMap() : properties;
+        }
+    }
+
+    /**
+     * Notified on the importing threads each time a batch has been committed.
+     */
+    public interface Monitor
+    {
+        /**
+         * @param phase <code>"nodes"</code> or <code>"relationships"</code>.
+         * @param imported the number of records of the phase committed so far.
+         * @param perSecond the number of records committed per second since the phase started.
+         */
+        void progress( String phase, long imported, double perSecond );
+    }
+
+    private static final long MISSING = -1;
+    private static final long[] SKIPPED = new long[0];
+
+    private final WrappedGraphDatabase graphdb;
+    private final int threads, batchSize;
+    private final LongLongHashMap nodeIds; // guarded by itself
+    private final AtomicLong nodes = new AtomicLong(), relationships = new AtomicLong();
+    private volatile String indexName;
+    private volatile String[] indexedKeys = new String[0];
+    private volatile Monitor monitor;
+
+    /**
+     * @param threads the number of threads to import on.
+     * @param batchSize the number of records to commit in each transaction.
+     * @param expectedNodes the number of nodes expected to be imported, to size the map of their external ids.
+     */
+    public BulkImport( WrappedGraphDatabase graphdb, int threads, int batchSize, int expectedNodes )
+    {
+        graphdb.getClass(); // null check
+        if ( threads <= 0 ) throw new IllegalArgumentException( "Threads must be positive: " + threads );
+        if ( batchSize <= 0 ) throw new IllegalArgumentException( "Batch size must be positive: " + batchSize );
+        this.graphdb = graphdb;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.nodeIds = new LongLongHashMap( expectedNodes );
+    }
+
+    /**
+     * Adds the values of the given properties of each imported node to the node index with the given name.
+     */
+    public void setNodeIndex( String indexName, String... keys )
+    {
+        this.indexedKeys = keys.clone();
+        this.indexName = indexName;
+    }
+
+    public void setMonitor( Monitor monitor )
+    {
+        this.monitor = monitor;
+    }
+
+    public void importNodes( Iterator<NodeRecord> records ) throws InterruptedException
+    {
+        run( new Phase<NodeRecord>( "nodes", nodes )
+        {
+            @Override
+            long[] importBatch( List<NodeRecord> batch )
+            {
+                String indexName = BulkImport.this.indexName;
+                String[] keys = indexedKeys;
+                Index<Node> index = indexName == null ? null : graphdb.index().forNodes( indexName );
+                long[] ids = new long[batch.size() * 2];
+                for ( int i = 0; i < batch.size(); i++ )
+                {
+                    NodeRecord record = batch.get( i );
+                    Node node = graphdb.createNode();
+                    setProperties( node, record.properties );
+                    if ( index != null )
+                    {
+                        for ( String key : keys )
+                        {
+                            Object value = record.properties.get( key );
+                            if ( value != null ) index.add( node, key, value );
+                        }
+                    }
+                    ids[i * 2] = record.externalId;
+                    ids[i * 2 + 1] = node.getId();
+                }
+                return ids;
+            }
+
+            @Override
+            void committed( long[] ids )
+            {
+                synchronized ( nodeIds )
+                {
+                    for ( int i = 0; i < ids.length; i += 2 )
+                        nodeIds.put( ids[i], ids[i + 1], MISSING );
+                }
+            }
+        }, records );
+    }
+
+    public void importRelationships( Iterator<RelationshipRecord> records ) throws InterruptedException
+    {
+        run( new Phase<RelationshipRecord>( "relationships", relationships )
+        {
+            @Override
+            long[] importBatch( List<RelationshipRecord> batch )
+            {
+                long[] ends = new long[batch.size() * 2];
+                synchronized ( nodeIds )
+                {
+                    for ( int i = 0; i < batch.size(); i++ )
+                    {
+                        ends[i * 2] = resolve( batch.get( i ).startExternalId );
+                        ends[i * 2 + 1] = resolve( batch.get( i ).endExternalId );
+                    }
+                }
+                graphdb.lockForWrite( ends );
+                for ( int i = 0; i < batch.size(); i++ )
+                {
+                    RelationshipRecord record = batch.get( i );
+                    Node start = graphdb.getNodeById( ends[i * 2] ), end = graphdb.getNodeById( ends[i * 2 + 1] );
+                    setProperties( start.createRelationshipTo( end, record.type ), record.properties );
+                }
+                return null;
+            }
+
+            @Override
+            void committed( long[] result )
+            {
+                // nothing to publish
+            }
+        }, records );
+    }
+
+    private long resolve( long externalId )
+    {
+        long id = externalId < 0 ? MISSING : nodeIds.get( externalId, MISSING );
+        if ( id == MISSING ) throw new IllegalArgumentException( "No node imported with external id " + externalId );
+        return id;
+    }
+
+    private static void setProperties( PropertyContainer entity, Map<String, Object> properties )
+    {
+        for ( Map.Entry<String, Object> property : properties.entrySet() )
+            entity.setProperty( property.getKey(), property.getValue() );
+    }
+
+    /**
+     * Returns the id of the node imported with the given external id, or <code>-1</code> if there is none.
+     */
+    public long nodeId( long externalId )
+    {
+        if ( externalId < 0 ) return MISSING;
+        synchronized ( nodeIds )
+        {
+            return nodeIds.get( externalId, MISSING );
+        }
+    }
+
+    public long importedNodes()
+    {
+        return nodes.get();
+    }
+
+    public long importedRelationships()
+    {
+        return relationships.get();
+    }
+
+    private abstract class Phase<R>
+    {
+        final String name;
+        final AtomicLong imported;
+        final long started = System.nanoTime();
+
+        Phase( String name, AtomicLong imported )
+        {
+            this.name = name;
+            this.imported = imported;
+        }
+
+        /**
+         * Imports the given records in the transaction of the current thread, returning what to publish once it is
+         * committed.
+         */
+        abstract long[] importBatch( List<R> batch );
+
+        abstract void committed( long[] result );
+
+        void progress( int records )
+        {
+            long total = imported.addAndGet( records );
+            Monitor monitor = BulkImport.this.monitor;
+            if ( monitor == null ) return;
+            double seconds = ( System.nanoTime() - started ) / (double) TimeUnit.SECONDS.toNanos( 1 );
+            monitor.progress( name, total, seconds > 0 ? total / seconds : 0 );
+        }
+    }
+
+    private <R> void run( final Phase<R> phase, Iterator<R> records ) throws InterruptedException
+    {
+        int window = threads * 2;
+        final Semaphore inFlight = new Semaphore( window );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        TransactionExecutor executor = new TransactionExecutor( graphdb, threads, window );
+        try
+        {
+            while ( records.hasNext() && failure.get() == null )
+            {
+                final List<R> batch = new ArrayList<R>( batchSize );
+                while ( batch.size() < batchSize && records.hasNext() )
+                    batch.add( records.next() );
+                inFlight.acquire();
+                executor.submit( new TransactionExecutor.UnitOfWork<long[]>()
+                {
+                    @Override
+                    public long[] execute( GraphDatabaseService graphdb )
+                    {
+                        if ( failure.get() != null ) return SKIPPED; // an earlier batch failed
+                        return phase.importBatch( batch );
+                    }
+                }, new TransactionExecutor.Callback<long[]>()
+                {
+                    @Override
+                    public void completed( long[] result )
+                    {
+                        try
+                        {
+                            if ( result == SKIPPED ) return;
+                            phase.committed( result );
+                            phase.progress( batch.size() );
+                        }
+                        finally
+                        {
+                            inFlight.release();
+                        }
+                    }
+
+                    @Override
+                    public void failed( Throwable cause )
+                    {
+                        failure.compareAndSet( null, cause );
+                        inFlight.release();
+                    }
+                } );
+            }
+            inFlight.acquire( window ); // wait for the batches in flight
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        Throwable cause = failure.get();
+        if ( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+        if ( cause instanceof Error ) throw (Error) cause;
+        if ( cause != null ) throw new RuntimeException( "Import of " + phase.name + " failed", cause );
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops traversals and index queries through a {@link WrappedGraphDatabase} when cancelled or when its deadline has
+ * passed. Operations check the token at each step and fail with an {@link OperationCancelledException}.
+ * <p>
+ * A token is bound to the operations of a thread with {@link WrappedGraphDatabase#bindCancellationToken}, and is
+ * captured by the hits and traversers created while it is bound.
+ */
+public final class CancellationToken
+{
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a token without deadline, that only fires when cancelled.
+     */
+    public CancellationToken()
+    {
+        this( Long.MAX_VALUE );
+    }
+
+    private CancellationToken( long deadline )
+    {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Creates a token that fires when the given time has passed, or when cancelled.
+     */
+    public static CancellationToken withTimeout( long time, TimeUnit unit )
+    {
+        if ( time <= 0 ) throw new IllegalArgumentException( "Timeout must be positive: " + time );
+        return new CancellationToken( System.nanoTime() + unit.toNanos( time ) );
+    }
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled || ( deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0 );
+    }
+
+    /**
+     * Throws an {@link OperationCancelledException} if this token has fired.
+     */
+    public void check()
+    {
+        if ( cancelled ) throw new OperationCancelledException( "Operation cancelled" );
+        if ( deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0 )
+        {
+            throw new OperationCancelledException( "Operation exceeded its time budget" );
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bitmap over non-negative ids that can be marked concurrently. It is allocated in segments as ids are marked, so
+ * sparse ids in a large id space only cost the segments they fall into.
+ */
+class ConcurrentIdBitmap
+{
+    private static final int SEGMENT_BITS = 16, SEGMENT_MASK = ( 1 << SEGMENT_BITS ) - 1;
+
+    private volatile AtomicLongArray[] segments = new AtomicLongArray[16];
+
+    /**
+     * Marks the given id, returning <code>true</code> if this call marked it and <code>false</code> if it was marked
+     * already.
+     */
+    boolean mark( long id )
+    {
+        AtomicLongArray segment = segment( id >>> SEGMENT_BITS );
+        int word = (int) ( id & SEGMENT_MASK ) >>> 6;
+        long bit = 1L << id;
+        for ( ;; )
+        {
+            long bits = segment.get( word );
+            if ( ( bits & bit ) != 0 ) return false;
+            if ( segment.compareAndSet( word, bits, bits | bit ) ) return true;
+        }
+    }
+
+    boolean isMarked( long id )
+    {
+        long index = id >>> SEGMENT_BITS;
+        AtomicLongArray[] segments = this.segments;
+        if ( index >= segments.length ) return false;
+        AtomicLongArray segment = segments[(int) index];
+        return segment != null && ( segment.get( (int) ( id & SEGMENT_MASK ) >>> 6 ) & ( 1L << id ) ) != 0;
+    }
+
+    private AtomicLongArray segment( long index )
+    {
+        AtomicLongArray[] segments = this.segments;
+        if ( index < segments.length )
+        {
+            AtomicLongArray segment = segments[(int) index];
+            if ( segment != null ) return segment;
+        }
+        return allocate( (int) index );
+    }
+
+    private synchronized AtomicLongArray allocate( int index )
+    {
+        AtomicLongArray[] segments = this.segments;
+        if ( index >= segments.length )
+        {
+            segments = Arrays.copyOf( segments, Math.max( index + 1, segments.length * 2 ) );
+        }
+        AtomicLongArray segment = segments[index];
+        if ( segment == null )
+        {
+            segment = segments[index] = new AtomicLongArray( 1 << ( SEGMENT_BITS - 6 ) );
+        }
+        this.segments = segments; // publish the new segment
+        return segment;
+    }
+}
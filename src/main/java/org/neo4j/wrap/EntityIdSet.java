@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+
+import org.neo4j.graphdb.PropertyContainer;
+
+/**
+ * A set of entities that stores only their ids, so that adding and looking up entities never touches the store.
+ * Entities are identified by id alone, and are wrapped by the database of the set when iterated over.
+ */
+abstract class EntityIdSet<T extends PropertyContainer> extends AbstractSet<T>
+{
+    final WrappedGraphDatabase graphdb;
+    private final LongHashSet ids;
+
+    EntityIdSet( WrappedGraphDatabase graphdb, int expectedSize )
+    {
+        graphdb.getClass(); // null check
+        this.graphdb = graphdb;
+        this.ids = new LongHashSet( expectedSize );
+    }
+
+    abstract T wrap( long id );
+
+    /**
+     * Returns the id of the given object if it is an entity of the type of this set, otherwise <code>-1</code>.
+     */
+    abstract long idOf( Object entity );
+
+    public boolean add( long id )
+    {
+        return ids.add( id );
+    }
+
+    public boolean contains( long id )
+    {
+        return ids.contains( id );
+    }
+
+    public boolean remove( long id )
+    {
+        return ids.remove( id );
+    }
+
+    public long[] toIdArray()
+    {
+        return ids.toArray();
+    }
+
+    @Override
+    public boolean add( T entity )
+    {
+        long id = idOf( entity );
+        if ( id < 0 ) throw new IllegalArgumentException( "Not a valid entity: " + entity );
+        return ids.add( id );
+    }
+
+    @Override
+    public boolean contains( Object entity )
+    {
+        long id = idOf( entity );
+        return id >= 0 && ids.contains( id );
+    }
+
+    @Override
+    public boolean remove( Object entity )
+    {
+        long id = idOf( entity );
+        return id >= 0 && ids.remove( id );
+    }
+
+    @Override
+    public int size()
+    {
+        return ids.size();
+    }
+
+    @Override
+    public void clear()
+    {
+        ids.clear();
+    }
+
+    @Override
+    public Iterator<T> iterator()
+    {
+        final LongHashSet.Cursor cursor = ids.cursor();
+        return new Iterator<T>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public T next()
+            {
+                cursor.next();
+                return wrap( cursor.key() );
+            }
+
+            @Override
+            public void remove()
+            {
+                cursor.remove();
+            }
+        };
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Estimates how often each node and relationship is handed out by a {@link WrappedGraphDatabase}, and keeps track of
+ * the most frequently accessed ones. Install it with {@link WrappedGraphDatabase#setHotEntities(HotEntities)}.
+ * <p>
+ * Frequencies are estimated with a count-min sketch of fixed size, halved periodically so that the estimates follow
+ * recent accesses. Concurrent increments of the sketch may occasionally be lost, which only makes estimates lower.
+ * <p>
+ * With pinning enabled, the properties of the hottest entities are loaded into the {@link PropertyCache} installed on
+ * the database and exempted from eviction, so that hub nodes are always served from the cache. Pinned entities whose
+ * properties are invalidated are loaded again on the next access through the database.
+ */
+public class HotEntities implements HotEntitiesMBean
+{
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+            0xD6E8FEB86659FD93L };
+    private static final int AGE_CHECK_INTERVAL = 64; // additions of one thread between checks of the total
+
+    private final int width, resetPeriod;
+    private final int[] counters;
+    private final TopK nodes, relationships;
+    private final StripedCounter additions = new StripedCounter();
+    private long aged; // the additions when the sketch was last halved
+    private volatile boolean pinning;
+    private volatile WrappedGraphDatabase graphdb;
+    private ObjectName objectName;
+
+    /**
+     * @param capacity the number of hottest nodes, and of hottest relationships, to keep track of.
+     * @param width the number of counters in each of the rows of the sketch, rounded up to a power of two.
+     */
+    public HotEntities( int capacity, int width )
+    {
+        if ( capacity <= 0 ) throw new IllegalArgumentException( "Capacity must be positive: " + capacity );
+        this.width = Integer.highestOneBit( Math.max( 64, width - 1 ) ) << 1;
+        this.resetPeriod = this.width * 10;
+        this.counters = new int[DEPTH * this.width];
+        this.nodes = new TopK( capacity );
+        this.relationships = new TopK( capacity );
+    }
+
+    public HotEntities( int capacity )
+    {
+        this( capacity, capacity * 64 );
+    }
+
+    void attach( WrappedGraphDatabase graphdb )
+    {
+        this.graphdb = graphdb;
+        if ( pinning ) pinAll( true );
+    }
+
+    void detach()
+    {
+        if ( pinning ) pinAll( false );
+        this.graphdb = null;
+        unregisterMBean();
+    }
+
+    /**
+     * Registers this tracker with the platform MBean server under the given name.
+     */
+    public synchronized ObjectName registerMBean( String name ) throws JMException
+    {
+        unregisterMBean();
+        ObjectName objectName = new ObjectName( "org.neo4j.wrap:type=HotEntities,name=" + ObjectName.quote( name ) );
+        ManagementFactory.getPlatformMBeanServer().registerMBean( this, objectName );
+        this.objectName = objectName;
+        return objectName;
+    }
+
+    public synchronized void unregisterMBean()
+    {
+        if ( objectName == null ) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            if ( server.isRegistered( objectName ) ) server.unregisterMBean( objectName );
+        }
+        catch ( JMException e )
+        {
+            // already gone
+        }
+        objectName = null;
+    }
+
+    @Override
+    public int getCapacity()
+    {
+        return nodes.ids.length();
+    }
+
+    @Override
+    public long getRecordedAccesses()
+    {
+        return additions.sum();
+    }
+
+    @Override
+    public long[] getHottestNodeIds()
+    {
+        return nodes.hottest();
+    }
+
+    @Override
+    public long[] getHottestRelationshipIds()
+    {
+        return relationships.hottest();
+    }
+
+    @Override
+    public boolean isPinning()
+    {
+        return pinning;
+    }
+
+    @Override
+    public void setPinning( boolean pinning )
+    {
+        if ( this.pinning == pinning ) return;
+        this.pinning = pinning;
+        pinAll( pinning );
+    }
+
+    public int estimateNode( long id )
+    {
+        return estimate( id );
+    }
+
+    public int estimateRelationship( long id )
+    {
+        return estimate( ~id );
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "HotEntities[capacity=%d, width=%d, pinning=%b]", getCapacity(), width, pinning );
+    }
+
+    void record( boolean node, long id )
+    {
+        int estimate = increment( node ? id : ~id );
+        TopK top = node ? nodes : relationships;
+        if ( estimate > top.threshold && !top.raise( id, estimate ) )
+        {
+            long displaced = top.offer( id, estimate );
+            if ( pinning && displaced != TopK.UNCHANGED )
+            {
+                if ( displaced != TopK.ADDED ) pin( node, displaced, false );
+                pin( node, id, true );
+            }
+        }
+        if ( pinning ) loadPinned();
+        if ( additions.increment() % AGE_CHECK_INTERVAL == 0 ) age();
+    }
+
+    private int increment( long key )
+    {
+        int min = Integer.MAX_VALUE;
+        for ( int row = 0; row < DEPTH; row++ )
+        {
+            int index = index( key, row );
+            int count = counters[index];
+            if ( count < Integer.MAX_VALUE ) counters[index] = ++count;
+            min = Math.min( min, count );
+        }
+        return min;
+    }
+
+    private int estimate( long key )
+    {
+        int min = Integer.MAX_VALUE;
+        for ( int row = 0; row < DEPTH; row++ )
+            min = Math.min( min, counters[index( key, row )] );
+        return min;
+    }
+
+    private int index( long key, int row )
+    {
+        long hash = ( key ^ SEEDS[row] ) * 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return row * width + ( (int) hash & ( width - 1 ) );
+    }
+
+    private synchronized void age()
+    {
+        long total = additions.sum();
+        if ( total - aged < resetPeriod ) return;
+        aged = total;
+        for ( int i = 0; i < counters.length; i++ )
+            counters[i] >>>= 1;
+        nodes.halve();
+        relationships.halve();
+    }
+
+    private void pinAll( boolean pin )
+    {
+        for ( long id : nodes.hottest() )
+            pin( true, id, pin );
+        for ( long id : relationships.hottest() )
+            pin( false, id, pin );
+        if ( pin ) loadPinned();
+    }
+
+    private void pin( boolean node, long id, boolean pin )
+    {
+        WrappedGraphDatabase graphdb = this.graphdb;
+        PropertyCache cache = graphdb == null ? null : graphdb.installedPropertyCache();
+        if ( cache == null ) return;
+        if ( pin ) cache.pin( node, id );
+        else cache.unpin( node, id );
+    }
+
+    /**
+     * Loads the properties of the entities pinned or invalidated since the last load, unless the current transaction
+     * has written through the database and would read its own uncommitted state.
+     */
+    private void loadPinned()
+    {
+        WrappedGraphDatabase graphdb = this.graphdb;
+        PropertyCache cache = graphdb == null ? null : graphdb.propertyCache();
+        if ( cache != null ) cache.loadPinned( graphdb.graphdb );
+    }
+
+    /**
+     * The entities with the highest estimates seen, with the estimates they had when they were last offered. Slots
+     * are only replaced while holding the lock, but present entities are found and raised without it, through an
+     * index from id to slot that is copied when a slot is replaced.
+     */
+    private static final class TopK
+    {
+        static final long UNCHANGED = -2, ADDED = -1, EMPTY = -1;
+
+        final AtomicLongArray ids;
+        private final AtomicIntegerArray counts;
+        private volatile LongLongHashMap slots = new LongLongHashMap( 0 );
+        private int size;
+        volatile int threshold;
+
+        TopK( int capacity )
+        {
+            this.ids = new AtomicLongArray( capacity );
+            this.counts = new AtomicIntegerArray( capacity );
+            for ( int i = 0; i < capacity; i++ )
+                ids.set( i, EMPTY );
+        }
+
+        /**
+         * Raises the count of the entity if it is present, returning whether it was. A slot replaced concurrently
+         * may have the count of its new entity raised instead, which only makes that estimate higher.
+         */
+        boolean raise( long id, int count )
+        {
+            int i = (int) slots.get( id, EMPTY );
+            if ( i < 0 || ids.get( i ) != id ) return false;
+            for ( int current = counts.get( i ); count > current; current = counts.get( i ) )
+            {
+                if ( counts.compareAndSet( i, current, count ) ) break;
+            }
+            return true;
+        }
+
+        /**
+         * Returns {@link #UNCHANGED} if the entity was already present or was not hot enough, {@link #ADDED} if it
+         * took a free slot, or the id of the entity it displaced.
+         */
+        synchronized long offer( long id, int count )
+        {
+            if ( raise( id, count ) )
+            {
+                updateThreshold();
+                return UNCHANGED;
+            }
+            int min = 0;
+            for ( int i = 1; i < size; i++ )
+            {
+                if ( counts.get( i ) < counts.get( min ) ) min = i;
+            }
+            long result;
+            if ( size < ids.length() )
+            {
+                min = size++;
+                result = ADDED;
+            }
+            else if ( count > counts.get( min ) )
+            {
+                result = ids.get( min );
+            }
+            else
+            {
+                updateThreshold();
+                return UNCHANGED;
+            }
+            counts.set( min, count );
+            ids.set( min, id );
+            LongLongHashMap slots = new LongLongHashMap( size );
+            for ( int i = 0; i < size; i++ )
+                slots.put( ids.get( i ), i, EMPTY );
+            this.slots = slots;
+            updateThreshold();
+            return result;
+        }
+
+        synchronized void halve()
+        {
+            for ( int i = 0; i < size; i++ )
+                counts.set( i, counts.get( i ) >>> 1 );
+            updateThreshold();
+        }
+
+        synchronized long[] hottest()
+        {
+            Integer[] order = new Integer[size];
+            final int[] snapshot = new int[size]; // counts are raised concurrently, the sort needs stable ones
+            for ( int i = 0; i < size; i++ )
+            {
+                order[i] = i;
+                snapshot[i] = counts.get( i );
+            }
+            Arrays.sort( order, new Comparator<Integer>()
+            {
+                @Override
+                public int compare( Integer a, Integer b )
+                {
+                    return snapshot[b] < snapshot[a] ? -1 : snapshot[b] == snapshot[a] ? 0 : 1;
+                }
+            } );
+            long[] result = new long[size];
+            for ( int i = 0; i < size; i++ )
+                result[i] = ids.get( order[i] );
+            return result;
+        }
+
+        private void updateThreshold()
+        {
+            if ( size < ids.length() )
+            {
+                threshold = 0;
+                return;
+            }
+            int min = Integer.MAX_VALUE;
+            for ( int i = 0; i < size; i++ )
+                min = Math.min( min, counts.get( i ) );
+            threshold = min;
+        }
+    }
+}
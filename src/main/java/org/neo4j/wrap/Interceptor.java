@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+/**
+ * A behaviour that can be added to a {@link WrappedGraphDatabase} without wrapping it in another layer. The
+ * interceptors given to the constructor of the database are invoked in order, before the corresponding hook method
+ * of the database itself, and the entities they see are wrapped once.
+ * <p>
+ * An interceptor that also implements {@link org.neo4j.graphdb.event.TransactionEventHandler} is registered as a
+ * transaction event handler of the database, and sees the data of each transaction through wrapped entities.
+ */
+public abstract class Interceptor
+{
+    protected void onBeginTransaction() throws TransactionNotAllowedException
+    {
+        // default: do nothing
+    }
+
+    protected void onSuccessTransaction()
+    {
+        // default: do nothing
+    }
+
+    protected void onFailureTransaction()
+    {
+        // default: do nothing
+    }
+
+    protected void onFinishTransaction()
+    {
+        // default: do nothing
+    }
+
+    protected void onNodeCreate()
+    {
+        // default: do nothing
+    }
+
+    protected void onRelationshipCreate()
+    {
+        // default: do nothing
+    }
+
+    /**
+     * Invoked when a node creation this interceptor was told about did not happen, because a later interceptor, the
+     * database or the underlying database rejected it.
+     */
+    protected void onNodeCreateFailure()
+    {
+        // default: do nothing
+    }
+
+    /**
+     * Invoked when a relationship creation this interceptor was told about did not happen.
+     */
+    protected void onRelationshipCreateFailure()
+    {
+        // default: do nothing
+    }
+
+    /**
+     * Invoked for each node that the database hands out, other than the ones it creates.
+     */
+    protected void onNodeAccess( long id )
+    {
+        // default: do nothing
+    }
+
+    /**
+     * Invoked for each relationship that the database hands out, other than the ones it creates.
+     */
+    protected void onRelationshipAccess( long id )
+    {
+        // default: do nothing
+    }
+
+    protected void onIndexQuery( String indexName )
+    {
+        // default: do nothing
+    }
+
+    protected void onShutdown()
+    {
+        // default: do nothing
+    }
+}
@@ -0,0 +1,419 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Records a latency histogram for each operation of the wrapped API, and logs the calls that take longer than a
+ * threshold as slow calls, together with the entity, relationship types, index name or query they were made with.
+ * Install it with {@link WrappedGraphDatabase#setLatencyMetrics(LatencyMetrics)}.
+ * <p>
+ * Histograms have four buckets per power of two, so percentiles are accurate to within a quarter of their value. With
+ * a sample interval of <code>n</code> only every <code>n</code>th call of each thread is timed, which keeps the
+ * overhead low on hot paths such as property reads; counts are then of the timed calls only, and slow calls are only
+ * noticed among them.
+ */
+public class LatencyMetrics implements LatencyMetricsMBean
+{
+    public enum Operation
+    {
+        HAS_PROPERTY,
+        GET_PROPERTY,
+        SET_PROPERTY,
+        REMOVE_PROPERTY,
+        GET_PROPERTY_KEYS,
+        GET_PROPERTY_VALUES,
+        GET_RELATIONSHIPS,
+        GET_RELATIONSHIP_PAGE,
+        /**
+         * Each <code>hasNext</code> and <code>next</code> of the relationships of a node, where they are loaded.
+         */
+        RELATIONSHIP_STEP,
+        HAS_RELATIONSHIP,
+        GET_SINGLE_RELATIONSHIP,
+        CREATE_RELATIONSHIP,
+        DELETE_NODE,
+        DELETE_RELATIONSHIP,
+        INDEX_GET,
+        INDEX_QUERY,
+        /**
+         * Each <code>hasNext</code>, <code>next</code> and <code>getSingle</code> of index hits, where the hits of
+         * lazy queries are fetched.
+         */
+        INDEX_HIT_STEP,
+        INDEX_ADD,
+        INDEX_REMOVE,
+        TRAVERSE,
+        /**
+         * Each <code>hasNext</code> and <code>next</code> of the iterator of a traverser, where the traversal does
+         * its work.
+         */
+        TRAVERSAL_STEP
+    }
+
+    static final long NOT_TIMED = Long.MIN_VALUE;
+    private static final Logger log = Logger.getLogger( LatencyMetrics.class.getName() );
+    private static final int BUCKETS = 248, RECENT_SLOW_CALLS = 100;
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final AtomicLongArray buckets = new AtomicLongArray( OPERATIONS.length * BUCKETS );
+    private final AtomicLongArray totals = new AtomicLongArray( OPERATIONS.length );
+    private final AtomicLongArray maxima = new AtomicLongArray( OPERATIONS.length );
+    private final AtomicLongArray slowCounts = new AtomicLongArray( OPERATIONS.length );
+    private final String[] slowCalls = new String[RECENT_SLOW_CALLS];
+    private int slowCallCount;
+    private final ThreadLocal<int[]> calls = new ThreadLocal<int[]>()
+    {
+        @Override
+        protected int[] initialValue()
+        {
+            return new int[1];
+        }
+    };
+    private volatile int sampleInterval = 1;
+    private volatile long slowThreshold = Long.MAX_VALUE;
+    private ObjectName objectName;
+
+    /**
+     * @param sampleInterval time every <code>sampleInterval</code>th call of each thread.
+     * @param slowCallThresholdMillis log the timed calls that take at least this long, or pass <code>0</code> to not
+     *            log slow calls.
+     */
+    public LatencyMetrics( int sampleInterval, long slowCallThresholdMillis )
+    {
+        setSampleInterval( sampleInterval );
+        setSlowCallThresholdMillis( slowCallThresholdMillis );
+    }
+
+    public LatencyMetrics()
+    {
+        this( 1, 0 );
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under the given name.
+     */
+    public synchronized ObjectName registerMBean( String name ) throws JMException
+    {
+        unregisterMBean();
+        ObjectName objectName = new ObjectName( "org.neo4j.wrap:type=LatencyMetrics,name=" + ObjectName.quote( name ) );
+        ManagementFactory.getPlatformMBeanServer().registerMBean( this, objectName );
+        this.objectName = objectName;
+        return objectName;
+    }
+
+    public synchronized void unregisterMBean()
+    {
+        if ( objectName == null ) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            if ( server.isRegistered( objectName ) ) server.unregisterMBean( objectName );
+        }
+        catch ( JMException e )
+        {
+            // already gone
+        }
+        objectName = null;
+    }
+
+    /**
+     * Returns the start time of a call, or {@link #NOT_TIMED} if the call is not sampled.
+     */
+    long start()
+    {
+        int interval = sampleInterval;
+        if ( interval > 1 && ++calls.get()[0] % interval != 0 ) return NOT_TIMED;
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a call that started at the given time. The details of the call are only turned into strings when it
+     * was slow.
+     */
+    void end( Operation operation, long start, Object subject, Object key, Object value )
+    {
+        long nanos = Math.max( 0, System.nanoTime() - start );
+        int op = operation.ordinal();
+        buckets.incrementAndGet( op * BUCKETS + bucket( nanos ) );
+        totals.addAndGet( op, nanos );
+        for ( long max = maxima.get( op ); nanos > max; max = maxima.get( op ) )
+        {
+            if ( maxima.compareAndSet( op, max, nanos ) ) break;
+        }
+        if ( nanos >= slowThreshold ) slowCall( operation, nanos, subject, key, value );
+    }
+
+    private void slowCall( Operation operation, long nanos, Object subject, Object key, Object value )
+    {
+        slowCounts.incrementAndGet( operation.ordinal() );
+        StringBuilder call = new StringBuilder( "Slow " ).append( operation );
+        if ( subject != null ) call.append( ' ' ).append( describe( subject ) );
+        if ( key != null ) call.append( ' ' ).append( describe( key ) );
+        if ( value != null ) call.append( ' ' ).append( describe( value ) );
+        call.append( " took " ).append( TimeUnit.NANOSECONDS.toMillis( nanos ) ).append( " ms" );
+        String message = call.toString();
+        synchronized ( slowCalls )
+        {
+            slowCalls[slowCallCount++ % RECENT_SLOW_CALLS] = message;
+        }
+        log.warning( message );
+    }
+
+    private static String describe( Object detail )
+    {
+        if ( detail instanceof RelationshipType ) return ( (RelationshipType) detail ).name();
+        if ( !( detail instanceof Object[] ) ) return String.valueOf( detail );
+        StringBuilder result = new StringBuilder( "[" );
+        for ( Object element : (Object[]) detail )
+            result.append( result.length() > 1 ? ", " : "" ).append( describe( element ) );
+        return result.append( ']' ).toString();
+    }
+
+    /**
+     * Times each <code>hasNext</code> and <code>next</code> of the given iterator as the given operation, with the
+     * given details for slow calls.
+     */
+    <T> Iterator<T> timed( final Operation operation, final Iterator<T> iterator, final Object subject,
+            final Object key, final Object value )
+    {
+        return new Iterator<T>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                long start = start();
+                try
+                {
+                    return iterator.hasNext();
+                }
+                finally
+                {
+                    if ( start != NOT_TIMED ) end( operation, start, subject, key, value );
+                }
+            }
+
+            @Override
+            public T next()
+            {
+                long start = start();
+                try
+                {
+                    return iterator.next();
+                }
+                finally
+                {
+                    if ( start != NOT_TIMED ) end( operation, start, subject, key, value );
+                }
+            }
+
+            @Override
+            public void remove()
+            {
+                iterator.remove();
+            }
+        };
+    }
+
+    private static int bucket( long nanos )
+    {
+        if ( nanos < 4 ) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros( nanos );
+        return ( ( exponent - 1 ) << 2 ) + (int) ( ( nanos >>> ( exponent - 2 ) ) & 3 );
+    }
+
+    private static long lowerBound( int bucket )
+    {
+        if ( bucket < 4 ) return bucket;
+        return ( 4L + ( bucket & 3 ) ) << ( ( bucket >> 2 ) - 1 );
+    }
+
+    public long count( Operation operation )
+    {
+        long count = 0;
+        int offset = operation.ordinal() * BUCKETS;
+        for ( int i = 0; i < BUCKETS; i++ )
+            count += buckets.get( offset + i );
+        return count;
+    }
+
+    public double meanMicros( Operation operation )
+    {
+        long count = count( operation );
+        return count == 0 ? 0 : totals.get( operation.ordinal() ) / 1000.0 / count;
+    }
+
+    /**
+     * Returns the latency below which the given percentage of the calls of the given operation completed, as the
+     * midpoint of the histogram bucket it falls in.
+     */
+    public double percentileMicros( Operation operation, double percentile )
+    {
+        if ( percentile < 0 || percentile > 100 )
+        {
+            throw new IllegalArgumentException( "Percentile must be between 0 and 100: " + percentile );
+        }
+        long count = count( operation );
+        if ( count == 0 ) return 0;
+        long rank = Math.max( 1, (long) Math.ceil( count * percentile / 100 ) ), seen = 0;
+        int offset = operation.ordinal() * BUCKETS;
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += buckets.get( offset + i );
+            if ( seen >= rank )
+            {
+                long lower = lowerBound( i ), upper = i + 1 < BUCKETS ? lowerBound( i + 1 ) : Long.MAX_VALUE;
+                long mid = lower + ( upper - lower ) / 2;
+                return Math.min( mid, maxima.get( operation.ordinal() ) ) / 1000.0;
+            }
+        }
+        return maxima.get( operation.ordinal() ) / 1000.0;
+    }
+
+    public double maxMicros( Operation operation )
+    {
+        return maxima.get( operation.ordinal() ) / 1000.0;
+    }
+
+    public long slowCallCount( Operation operation )
+    {
+        return slowCounts.get( operation.ordinal() );
+    }
+
+    @Override
+    public String[] getSummary()
+    {
+        String[] summary = new String[OPERATIONS.length];
+        int lines = 0;
+        for ( Operation operation : OPERATIONS )
+        {
+            long count = count( operation );
+            if ( count == 0 ) continue;
+            summary[lines++] = String.format( "%s count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus slow=%d",
+                    operation, count, meanMicros( operation ), percentileMicros( operation, 50 ),
+                    percentileMicros( operation, 99 ), maxMicros( operation ), slowCallCount( operation ) );
+        }
+        return Arrays.copyOf( summary, lines );
+    }
+
+    @Override
+    public String[] getSlowCalls()
+    {
+        synchronized ( slowCalls )
+        {
+            int size = Math.min( slowCallCount, RECENT_SLOW_CALLS );
+            String[] recent = new String[size];
+            for ( int i = 0; i < size; i++ )
+                recent[i] = slowCalls[( slowCallCount - size + i ) % RECENT_SLOW_CALLS];
+            return recent;
+        }
+    }
+
+    @Override
+    public long getSlowCallCount( String operation )
+    {
+        return slowCallCount( Operation.valueOf( operation ) );
+    }
+
+    @Override
+    public long getCount( String operation )
+    {
+        return count( Operation.valueOf( operation ) );
+    }
+
+    @Override
+    public double getMeanMicros( String operation )
+    {
+        return meanMicros( Operation.valueOf( operation ) );
+    }
+
+    @Override
+    public double getPercentileMicros( String operation, double percentile )
+    {
+        return percentileMicros( Operation.valueOf( operation ), percentile );
+    }
+
+    @Override
+    public int getSampleInterval()
+    {
+        return sampleInterval;
+    }
+
+    @Override
+    public void setSampleInterval( int interval )
+    {
+        if ( interval <= 0 ) throw new IllegalArgumentException( "Sample interval must be positive: " + interval );
+        this.sampleInterval = interval;
+    }
+
+    @Override
+    public long getSlowCallThresholdMillis()
+    {
+        long threshold = slowThreshold;
+        return threshold == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis( threshold );
+    }
+
+    @Override
+    public void setSlowCallThresholdMillis( long millis )
+    {
+        if ( millis < 0 ) throw new IllegalArgumentException( "Threshold must not be negative: " + millis );
+        this.slowThreshold = millis == 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos( millis );
+    }
+
+    /**
+     * Clears all histograms and slow calls. Calls recorded concurrently may be partially cleared.
+     */
+    @Override
+    public void reset()
+    {
+        for ( int i = 0; i < buckets.length(); i++ )
+            buckets.set( i, 0 );
+        for ( int i = 0; i < OPERATIONS.length; i++ )
+        {
+            totals.set( i, 0 );
+            maxima.set( i, 0 );
+            slowCounts.set( i, 0 );
+        }
+        synchronized ( slowCalls )
+        {
+            Arrays.fill( slowCalls, null );
+            slowCallCount = 0;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "LatencyMetrics[sampleInterval=%d, slowCallThresholdMillis=%d]", sampleInterval,
+                getSlowCallThresholdMillis() );
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+/**
+ * Management interface of {@link LatencyMetrics}.
+ */
+public interface LatencyMetricsMBean
+{
+    /**
+     * Returns a line per timed operation with its call count, and mean, median, 99th percentile and maximum latency.
+     */
+    String[] getSummary();
+
+    /**
+     * Returns the most recent slow calls, oldest first.
+     */
+    String[] getSlowCalls();
+
+    long getSlowCallCount( String operation );
+
+    long getCount( String operation );
+
+    double getMeanMicros( String operation );
+
+    double getPercentileMicros( String operation, double percentile );
+
+    int getSampleInterval();
+
+    void setSampleInterval( int interval );
+
+    long getSlowCallThresholdMillis();
+
+    void setSlowCallThresholdMillis( long millis );
+
+    void reset();
+}
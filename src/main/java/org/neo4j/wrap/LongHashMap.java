@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+/**
+ * An open addressing hash map from non-negative longs, such as entity ids, to objects.
+ */
+class LongHashMap<V> extends LongHashSet
+{
+    private Object[] values, old;
+
+    LongHashMap( int expectedSize )
+    {
+        super( expectedSize );
+    }
+
+    @Override
+    void allocate( int capacity )
+    {
+        super.allocate( capacity );
+        values = new Object[capacity];
+    }
+
+    @Override
+    void rehash( int capacity )
+    {
+        old = values;
+        try
+        {
+            super.rehash( capacity );
+        }
+        finally
+        {
+            old = null;
+        }
+    }
+
+    @Override
+    void rehashed( int from, int to )
+    {
+        values[to] = old[from];
+    }
+
+    @Override
+    void moved( int from, int to )
+    {
+        values[to] = from < 0 ? null : values[from];
+    }
+
+    @Override
+    void clear()
+    {
+        super.clear();
+        java.util.Arrays.fill( values, null );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    V get( long key )
+    {
+        int index = indexOf( key );
+        return index < 0 ? null : (V) values[index];
+    }
+
+    @SuppressWarnings( "unchecked" )
+    V put( long key, V value )
+    {
+        int index = indexOf( key );
+        if ( index >= 0 )
+        {
+            V previous = (V) values[index];
+            values[index] = value;
+            return previous;
+        }
+        index = -1 - index;
+        values[index] = value;
+        insert( index, key );
+        return null;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    V removeEntry( long key )
+    {
+        int index = indexOf( key );
+        if ( index < 0 ) return null;
+        V previous = (V) values[index];
+        delete( index );
+        return previous;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    V valueAt( int index )
+    {
+        return (V) values[index];
+    }
+
+    void setValueAt( int index, V value )
+    {
+        values[index] = value;
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.NoSuchElementException;
+
+/**
+ * An open addressing hash set of non-negative longs, such as entity ids.
+ */
+class LongHashSet
+{
+    static final long FREE = -1;
+
+    long[] keys;
+    private int size, threshold;
+
+    LongHashSet( int expectedSize )
+    {
+        allocate( capacityFor( expectedSize ) );
+    }
+
+    static int capacityFor( int expectedSize )
+    {
+        int capacity = 8;
+        while ( capacity * 3 / 4 <= expectedSize )
+            capacity <<= 1;
+        return capacity;
+    }
+
+    static int slot( long key, int mask )
+    {
+        return (int) ( ( key * 0x9E3779B97F4A7C15L ) >>> 32 ) & mask;
+    }
+
+    void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        java.util.Arrays.fill( keys, FREE );
+        threshold = capacity * 3 / 4;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean contains( long key )
+    {
+        return indexOf( key ) >= 0;
+    }
+
+    int indexOf( long key )
+    {
+        if ( key < 0 ) throw new IllegalArgumentException( "Negative key: " + key );
+        long[] keys = this.keys;
+        int mask = keys.length - 1;
+        for ( int i = slot( key, mask );; i = ( i + 1 ) & mask )
+        {
+            long candidate = keys[i];
+            if ( candidate == key ) return i;
+            if ( candidate == FREE ) return -1 - i;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the key was added, <code>false</code> if it was already present.
+     */
+    boolean add( long key )
+    {
+        int index = indexOf( key );
+        if ( index >= 0 ) return false;
+        insert( -1 - index, key );
+        return true;
+    }
+
+    void insert( int index, long key )
+    {
+        keys[index] = key;
+        if ( ++size > threshold ) rehash( keys.length << 1 );
+    }
+
+    boolean remove( long key )
+    {
+        int index = indexOf( key );
+        if ( index < 0 ) return false;
+        delete( index );
+        return true;
+    }
+
+    void delete( int index )
+    {
+        delete( index, null );
+    }
+
+    private void delete( int index, Cursor cursor )
+    {
+        long[] keys = this.keys;
+        int mask = keys.length - 1;
+        // backward shift deletion: move later entries of the probe sequence into the hole
+        for ( int next = ( index + 1 ) & mask;; next = ( next + 1 ) & mask )
+        {
+            long key = keys[next];
+            if ( key == FREE ) break;
+            int home = slot( key, mask );
+            if ( index <= next ? ( home <= index || home > next ) : ( home <= index && home > next ) )
+            {
+                keys[index] = key;
+                moved( next, index );
+                // an entry that wraps around from an already visited slot would be visited again
+                if ( cursor != null && next < cursor.index && index >= cursor.index ) cursor.skip( key );
+                index = next;
+            }
+        }
+        keys[index] = FREE;
+        moved( -1, index );
+        size--;
+    }
+
+    /**
+     * Called when the entry at <code>from</code> moves to <code>to</code>, or is cleared if <code>from</code> is
+     * negative. Subclasses with values move them along.
+     */
+    void moved( int from, int to )
+    {
+        // no values
+    }
+
+    void rehash( int capacity )
+    {
+        long[] old = keys;
+        allocate( capacity );
+        int mask = capacity - 1;
+        for ( int i = 0; i < old.length; i++ )
+        {
+            long key = old[i];
+            if ( key == FREE ) continue;
+            int j = slot( key, mask );
+            while ( keys[j] != FREE )
+                j = ( j + 1 ) & mask;
+            keys[j] = key;
+            rehashed( i, j );
+        }
+    }
+
+    /**
+     * Called during rehash when the entry at <code>from</code> in the old table is placed at <code>to</code>.
+     */
+    void rehashed( int from, int to )
+    {
+        // no values
+    }
+
+    void clear()
+    {
+        java.util.Arrays.fill( keys, FREE );
+        size = 0;
+    }
+
+    long[] toArray()
+    {
+        long[] result = new long[size];
+        int n = 0;
+        for ( long key : keys )
+        {
+            if ( key != FREE ) result[n++] = key;
+        }
+        return result;
+    }
+
+    Cursor cursor()
+    {
+        return new Cursor();
+    }
+
+    /**
+     * Iterates over the slots in use. Not safe for modification of the set other than through {@link #remove()}.
+     */
+    class Cursor
+    {
+        private int index = -1, next = -1;
+        private boolean current;
+        private long[] skip;
+        private int skipped;
+
+        boolean hasNext()
+        {
+            if ( next > index ) return true;
+            long[] keys = LongHashSet.this.keys;
+            for ( int i = index + 1; i < keys.length; i++ )
+            {
+                if ( keys[i] != FREE && !skipped( keys[i] ) )
+                {
+                    next = i;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int next()
+        {
+            if ( !hasNext() ) throw new NoSuchElementException();
+            current = true;
+            return index = next;
+        }
+
+        long key()
+        {
+            return keys[index];
+        }
+
+        void remove()
+        {
+            if ( !current ) throw new IllegalStateException();
+            current = false;
+            delete( index, this );
+            // the slot may now hold an entry shifted back from a later slot, visit it next
+            next = --index;
+        }
+
+        private void skip( long key )
+        {
+            if ( skip == null ) skip = new long[4];
+            else if ( skipped == skip.length ) skip = java.util.Arrays.copyOf( skip, skipped * 2 );
+            skip[skipped++] = key;
+        }
+
+        private boolean skipped( long key )
+        {
+            for ( int i = 0; i < skipped; i++ )
+            {
+                if ( skip[i] == key ) return true;
+            }
+            return false;
+        }
+    }
+}
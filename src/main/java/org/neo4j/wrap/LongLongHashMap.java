@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+/**
+ * An open addressing hash map from non-negative longs, such as entity ids, to longs.
+ */
+class LongLongHashMap extends LongHashSet
+{
+    private long[] values, old;
+
+    LongLongHashMap( int expectedSize )
+    {
+        super( expectedSize );
+    }
+
+    @Override
+    void allocate( int capacity )
+    {
+        super.allocate( capacity );
+        values = new long[capacity];
+    }
+
+    @Override
+    void rehash( int capacity )
+    {
+        old = values;
+        try
+        {
+            super.rehash( capacity );
+        }
+        finally
+        {
+            old = null;
+        }
+    }
+
+    @Override
+    void rehashed( int from, int to )
+    {
+        values[to] = old[from];
+    }
+
+    @Override
+    void moved( int from, int to )
+    {
+        if ( from >= 0 ) values[to] = values[from];
+    }
+
+    /**
+     * Returns the value for the given key, or <code>missing</code> if there is none.
+     */
+    long get( long key, long missing )
+    {
+        int index = indexOf( key );
+        return index < 0 ? missing : values[index];
+    }
+
+    /**
+     * Associates the value with the key, returning the previous value or <code>missing</code> if there was none.
+     */
+    long put( long key, long value, long missing )
+    {
+        int index = indexOf( key );
+        if ( index >= 0 )
+        {
+            long previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        index = -1 - index;
+        values[index] = value;
+        insert( index, key );
+        return missing;
+    }
+
+    long valueAt( int index )
+    {
+        return values[index];
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+/**
+ * Remembers a bounded number of node and relationship ids that were recently found missing or deleted, so that
+ * repeated lookups of them do not reach the store. Ids are forgotten when an entity with that id is created, or when
+ * they expire. Entities created without running the transaction event handlers of the database, such as the ones a
+ * highly available database pulls from the other instances of its cluster, may be reported missing until then.
+ * <p>
+ * Like the {@link PropertyCache}, an id is only remembered if no entity was created while it was being looked up.
+ */
+final class MissingIds implements TransactionEventHandler<Void>
+{
+    private final Ring nodes, relationships;
+    private final long expiry;
+    private long generation;
+
+    /**
+     * @param expiry the nanoseconds an id is remembered for.
+     */
+    MissingIds( int capacity, long expiry )
+    {
+        this.nodes = new Ring( capacity );
+        this.relationships = new Ring( capacity );
+        this.expiry = expiry;
+    }
+
+    synchronized long generation()
+    {
+        return generation;
+    }
+
+    synchronized boolean contains( boolean node, long id )
+    {
+        Ring ring = node ? nodes : relationships;
+        ring.expire( System.nanoTime() - expiry );
+        return ring.ids.contains( id );
+    }
+
+    synchronized void add( boolean node, long id, long generation )
+    {
+        if ( generation == this.generation ) ( node ? nodes : relationships ).add( id, System.nanoTime() );
+    }
+
+    // TransactionEventHandler
+
+    @Override
+    public Void beforeCommit( TransactionData data )
+    {
+        return null;
+    }
+
+    @Override
+    public synchronized void afterCommit( TransactionData data, Void state )
+    {
+        for ( Node node : data.createdNodes() )
+        {
+            generation++;
+            nodes.ids.remove( node.getId() );
+        }
+        for ( Relationship relationship : data.createdRelationships() )
+        {
+            generation++;
+            relationships.ids.remove( relationship.getId() );
+        }
+        long now = System.nanoTime();
+        for ( Node node : data.deletedNodes() )
+            nodes.add( node.getId(), now );
+        for ( Relationship relationship : data.deletedRelationships() )
+            relationships.add( relationship.getId(), now );
+    }
+
+    @Override
+    public void afterRollback( TransactionData data, Void state )
+    {
+        // nothing was created or deleted
+    }
+
+    /**
+     * Evicts and expires the oldest ids first. An id removed and added again may be evicted early, which only costs a
+     * lookup.
+     */
+    private static final class Ring
+    {
+        final LongHashSet ids;
+        private final long[] order, added;
+        private int next, used;
+
+        Ring( int capacity )
+        {
+            this.ids = new LongHashSet( capacity );
+            this.order = new long[capacity];
+            this.added = new long[capacity];
+        }
+
+        void add( long id, long now )
+        {
+            if ( !ids.add( id ) ) return;
+            if ( used == order.length )
+            {
+                ids.remove( order[next] );
+                used--;
+            }
+            order[next] = id;
+            added[next] = now;
+            next = ( next + 1 ) % order.length;
+            used++;
+        }
+
+        /**
+         * Forgets the ids added before the given time.
+         */
+        void expire( long before )
+        {
+            while ( used > 0 )
+            {
+                int oldest = ( next - used + order.length ) % order.length;
+                if ( added[oldest] - before >= 0 ) return;
+                ids.remove( order[oldest] );
+                used--;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Node;
+
+/**
+ * A map keyed by nodes that stores only the node ids, so that putting and looking up entries never touches the store.
+ * Keys are wrapped by the database of the map when entries are iterated over.
+ */
+public final class NodeMap<V> extends AbstractMap<Node, V>
+{
+    private final WrappedGraphDatabase graphdb;
+    private final LongHashMap<V> map;
+
+    public NodeMap( WrappedGraphDatabase graphdb )
+    {
+        this( graphdb, 16 );
+    }
+
+    public NodeMap( WrappedGraphDatabase graphdb, int expectedSize )
+    {
+        graphdb.getClass(); // null check
+        this.graphdb = graphdb;
+        this.map = new LongHashMap<V>( expectedSize );
+    }
+
+    private static long idOf( Object key )
+    {
+        return key instanceof Node ? ( (Node) key ).getId() : -1;
+    }
+
+    public V get( long nodeId )
+    {
+        return map.get( nodeId );
+    }
+
+    public V put( long nodeId, V value )
+    {
+        return map.put( nodeId, value );
+    }
+
+    public boolean containsKey( long nodeId )
+    {
+        return map.contains( nodeId );
+    }
+
+    public V remove( long nodeId )
+    {
+        return map.removeEntry( nodeId );
+    }
+
+    public long[] keyIds()
+    {
+        return map.toArray();
+    }
+
+    @Override
+    public V get( Object key )
+    {
+        long id = idOf( key );
+        return id < 0 ? null : map.get( id );
+    }
+
+    @Override
+    public V put( Node key, V value )
+    {
+        return map.put( key.getId(), value );
+    }
+
+    @Override
+    public boolean containsKey( Object key )
+    {
+        long id = idOf( key );
+        return id >= 0 && map.contains( id );
+    }
+
+    @Override
+    public V remove( Object key )
+    {
+        long id = idOf( key );
+        return id < 0 ? null : map.removeEntry( id );
+    }
+
+    @Override
+    public int size()
+    {
+        return map.size();
+    }
+
+    @Override
+    public void clear()
+    {
+        map.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<Node, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<Node, V>>()
+        {
+            @Override
+            public int size()
+            {
+                return map.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<Node, V>> iterator()
+            {
+                final LongHashSet.Cursor cursor = map.cursor();
+                return new Iterator<Map.Entry<Node, V>>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return cursor.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<Node, V> next()
+                    {
+                        final int index = cursor.next();
+                        return new SimpleEntry<Node, V>( graphdb.wrapNode( cursor.key() ), map.valueAt( index ) )
+                        {
+                            @Override
+                            public V setValue( V value )
+                            {
+                                map.setValueAt( index, value );
+                                return super.setValue( value );
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        cursor.remove();
+                    }
+                };
+            }
+        };
+    }
+}
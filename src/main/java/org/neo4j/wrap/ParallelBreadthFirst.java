@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * A level synchronous breadth first expansion from a start node, that expands each level of the frontier on the
+ * threads of an executor. Nodes are visited once, tracked by id in a concurrent bitmap, and are handed to a
+ * {@link Visitor} by id without being wrapped.
+ * <p>
+ * Instances are immutable, the configuration methods return new instances.
+ */
+public final class ParallelBreadthFirst
+{
+    /**
+     * Receives the nodes reached by an expansion. It is called concurrently from the worker threads.
+     */
+    public interface Visitor
+    {
+        /**
+         * Returns <code>true</code> to expand from the given node, <code>false</code> to not go beyond it.
+         */
+        boolean visit( long nodeId, int depth );
+    }
+
+    private static final int CHUNK = 64;
+
+    private final WrappedGraphDatabase graphdb;
+    private final ExecutorService executor;
+    private final int parallelism, maxDepth;
+    private final Direction direction;
+    private final RelationshipType[] types;
+
+    public ParallelBreadthFirst( WrappedGraphDatabase graphdb, ExecutorService executor, int parallelism )
+    {
+        this( graphdb, executor, parallelism, Integer.MAX_VALUE, Direction.BOTH, new RelationshipType[0] );
+    }
+
+    private ParallelBreadthFirst( WrappedGraphDatabase graphdb, ExecutorService executor, int parallelism,
+            int maxDepth, Direction direction, RelationshipType[] types )
+    {
+        if ( parallelism < 1 ) throw new IllegalArgumentException( "Parallelism must be positive: " + parallelism );
+        graphdb.getClass(); // null check
+        executor.getClass(); // null check
+        this.graphdb = graphdb;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.maxDepth = maxDepth;
+        this.direction = direction;
+        this.types = types;
+    }
+
+    public ParallelBreadthFirst maxDepth( int maxDepth )
+    {
+        if ( maxDepth < 0 ) throw new IllegalArgumentException( "Negative depth: " + maxDepth );
+        return new ParallelBreadthFirst( graphdb, executor, parallelism, maxDepth, direction, types );
+    }
+
+    /**
+     * Only expands relationships in the given direction, and of the given types if any are given.
+     */
+    public ParallelBreadthFirst relationships( Direction direction, RelationshipType... types )
+    {
+        direction.getClass(); // null check
+        return new ParallelBreadthFirst( graphdb, executor, parallelism, maxDepth, direction, types.clone() );
+    }
+
+    /**
+     * Expands from the given node, visiting it at depth zero, and returns the number of nodes visited. The
+     * cancellation token of the calling thread, if any, is checked by the workers for each node they expand.
+     */
+    public long expand( Node start, Visitor visitor ) throws InterruptedException
+    {
+        CancellationToken token = graphdb.cancellationToken();
+        ConcurrentIdBitmap visited = new ConcurrentIdBitmap();
+        long startId = start.getId();
+        visited.mark( startId );
+        long count = 1;
+        long[] frontier = visitor.visit( startId, 0 ) ? new long[] { startId } : new long[0];
+        for ( int depth = 1; depth <= maxDepth && frontier.length > 0; depth++ )
+        {
+            Level level = new Level( frontier, depth, visited, visitor, token );
+            int workers = Math.min( parallelism, ( frontier.length + CHUNK - 1 ) / CHUNK );
+            List<long[]> next = new ArrayList<long[]>( workers );
+            if ( workers <= 1 )
+            {
+                next.add( level.call() );
+            }
+            else
+            {
+                List<Future<long[]>> futures = new ArrayList<Future<long[]>>( workers );
+                try
+                {
+                    for ( int i = 0; i < workers; i++ )
+                        futures.add( executor.submit( level ) );
+                    for ( Future<long[]> future : futures )
+                        next.add( future.get() );
+                }
+                catch ( ExecutionException e )
+                {
+                    Throwable cause = e.getCause();
+                    if ( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+                    if ( cause instanceof Error ) throw (Error) cause;
+                    throw new IllegalStateException( cause );
+                }
+                finally
+                {
+                    for ( Future<long[]> future : futures )
+                        future.cancel( true );
+                }
+            }
+            frontier = concat( next );
+            count += level.visited.get();
+        }
+        return count;
+    }
+
+    private static long[] concat( List<long[]> parts )
+    {
+        int size = 0;
+        for ( long[] part : parts )
+            size += part.length;
+        long[] result = new long[size];
+        int offset = 0;
+        for ( long[] part : parts )
+        {
+            System.arraycopy( part, 0, result, offset, part.length );
+            offset += part.length;
+        }
+        return result;
+    }
+
+    private Iterable<Relationship> relationships( Node node )
+    {
+        return types.length == 0 ? node.getRelationships( direction ) : node.getRelationships( direction, types );
+    }
+
+    /**
+     * The expansion of one level, run by each worker. Workers claim chunks of the frontier until it is exhausted.
+     */
+    private class Level implements Callable<long[]>
+    {
+        private final long[] frontier;
+        private final int depth;
+        private final ConcurrentIdBitmap bitmap;
+        private final Visitor visitor;
+        private final CancellationToken token;
+        private final AtomicInteger position = new AtomicInteger();
+        final AtomicInteger visited = new AtomicInteger();
+
+        Level( long[] frontier, int depth, ConcurrentIdBitmap bitmap, Visitor visitor, CancellationToken token )
+        {
+            this.frontier = frontier;
+            this.depth = depth;
+            this.bitmap = bitmap;
+            this.visitor = visitor;
+            this.token = token;
+        }
+
+        @Override
+        public long[] call()
+        {
+            GraphDatabaseService kernel = graphdb.graphdb;
+            long[] next = new long[CHUNK];
+            int size = 0, count = 0;
+            for ( int start; ( start = position.getAndAdd( CHUNK ) ) < frontier.length; )
+            {
+                for ( int i = start, end = Math.min( start + CHUNK, frontier.length ); i < end; i++ )
+                {
+                    long nodeId = frontier[i];
+                    if ( token != null ) token.check();
+                    for ( Relationship relationship : relationships( kernel.getNodeById( nodeId ) ) )
+                    {
+                        long otherId = WrappedRelationship.otherNodeId( relationship, nodeId );
+                        if ( !bitmap.mark( otherId ) ) continue;
+                        count++;
+                        if ( visitor.visit( otherId, depth ) && depth < maxDepth )
+                        {
+                            if ( size == next.length ) next = Arrays.copyOf( next, size * 2 );
+                            next[size++] = otherId;
+                        }
+                    }
+                }
+            }
+            visited.addAndGet( count );
+            return size == next.length ? next : Arrays.copyOf( next, size );
+        }
+    }
+}
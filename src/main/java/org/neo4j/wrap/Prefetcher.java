@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * Loads the relationships and properties of nodes that a traversal is about to reach on a small pool of background
+ * threads, so that the store and the caches of the kernel are warm when the traversal gets there. Install it with
+ * {@link WrappedGraphDatabase#setPrefetcher(Prefetcher)}.
+ * <p>
+ * The nodes reached from one node are prefetched in batches, by one task per batch. Batches beyond the capacity of
+ * the queue are dropped. Recently requested nodes are remembered in a fixed size table without locking, where a node
+ * may push out another one, which may then be prefetched again. A node reached by a traversal counts as a hit if it
+ * had been prefetched by then, and as a miss otherwise.
+ */
+public class Prefetcher
+{
+    private static final int MAX_RELATIONSHIPS = 1000, BATCH_SIZE = 32;
+
+    private final ThreadPoolExecutor executor;
+    /**
+     * The recently requested nodes by hash of their id, each slot holding <code>( id + 1 ) << 1</code> while the
+     * node is pending, with the lowest bit set once it is warm, or zero.
+     */
+    private final AtomicLongArray states;
+    private final int shift;
+    private final AtomicLong requested = new AtomicLong(), dropped = new AtomicLong(), prefetched = new AtomicLong(),
+            failed = new AtomicLong(), hits = new AtomicLong(), misses = new AtomicLong();
+    private volatile GraphDatabaseService graphdb;
+
+    public Prefetcher( int threads, int queueCapacity )
+    {
+        this.executor = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( queueCapacity ), new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, "Prefetcher-" + count.incrementAndGet() );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy() );
+        this.states = new AtomicLongArray( Integer.highestOneBit( Math.max( 1024, queueCapacity * 16 ) - 1 ) << 1 );
+        this.shift = 64 - Integer.numberOfTrailingZeros( states.length() );
+    }
+
+    void attach( GraphDatabaseService graphdb )
+    {
+        this.graphdb = graphdb;
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    public long requested()
+    {
+        return requested.get();
+    }
+
+    public long dropped()
+    {
+        return dropped.get();
+    }
+
+    public long prefetched()
+    {
+        return prefetched.get();
+    }
+
+    public long hits()
+    {
+        return hits.get();
+    }
+
+    public long misses()
+    {
+        return misses.get();
+    }
+
+    public double hitRate()
+    {
+        long hits = this.hits.get(), total = hits + misses.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "Prefetcher[requested=%d, dropped=%d, prefetched=%d, failed=%d, hit rate %.3f]",
+                requested.get(), dropped.get(), prefetched.get(), failed.get(), hitRate() );
+    }
+
+    /**
+     * Records that a traversal has reached the given node.
+     */
+    void touch( long nodeId )
+    {
+        ( states.get( slot( nodeId ) ) == ( pending( nodeId ) | 1 ) ? hits : misses ).incrementAndGet();
+    }
+
+    /**
+     * Returns a batch to collect the nodes reached from one node in. Batches are not thread safe.
+     */
+    Batch batch()
+    {
+        return new Batch();
+    }
+
+    final class Batch
+    {
+        private final long[] nodeIds = new long[BATCH_SIZE];
+        private int size;
+
+        private Batch()
+        {
+        }
+
+        /**
+         * Adds the given node to this batch, unless it has been requested recently.
+         */
+        void add( long nodeId )
+        {
+            if ( !claim( nodeId ) ) return;
+            nodeIds[size++] = nodeId;
+            if ( size == nodeIds.length ) flush();
+        }
+
+        /**
+         * Asks for the nodes added since the last flush to be prefetched.
+         */
+        void flush()
+        {
+            if ( size == 0 ) return;
+            submit( Arrays.copyOf( nodeIds, size ) );
+            size = 0;
+        }
+    }
+
+    private void submit( final long[] nodeIds )
+    {
+        requested.addAndGet( nodeIds.length );
+        try
+        {
+            executor.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for ( long nodeId : nodeIds )
+                        prefetch( nodeId );
+                }
+            } );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            dropped.addAndGet( nodeIds.length );
+            for ( long nodeId : nodeIds )
+                states.compareAndSet( slot( nodeId ), pending( nodeId ), 0 );
+        }
+    }
+
+    /**
+     * Marks the given node as pending in its slot, returning <code>false</code> if it is already pending or warm.
+     */
+    private boolean claim( long nodeId )
+    {
+        int slot = slot( nodeId );
+        long current = states.get( slot ), pending = pending( nodeId );
+        return ( current & ~1L ) != pending && states.compareAndSet( slot, current, pending );
+    }
+
+    private int slot( long nodeId )
+    {
+        return (int) ( ( nodeId * 0x9E3779B97F4A7C15L ) >>> shift ); // the high bits spread consecutive ids
+    }
+
+    private static long pending( long nodeId )
+    {
+        return ( nodeId + 1 ) << 1;
+    }
+
+    private void prefetch( long nodeId )
+    {
+        GraphDatabaseService graphdb = this.graphdb;
+        if ( graphdb == null ) return;
+        try
+        {
+            Node node = graphdb.getNodeById( nodeId );
+            for ( String key : node.getPropertyKeys() )
+                node.getProperty( key, null );
+            Iterator<Relationship> relationships = node.getRelationships().iterator();
+            for ( int count = 0; count < MAX_RELATIONSHIPS && relationships.hasNext(); count++ )
+            {
+                relationships.next();
+            }
+            prefetched.incrementAndGet();
+            states.compareAndSet( slot( nodeId ), pending( nodeId ), pending( nodeId ) | 1 );
+        }
+        catch ( RuntimeException e )
+        {
+            // the node may have been deleted, or the database shut down, this is only an optimization
+            failed.incrementAndGet();
+        }
+    }
+}
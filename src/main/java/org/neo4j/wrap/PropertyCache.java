@@ -0,0 +1,453 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+/**
+ * A least recently used cache of committed property values, keyed by entity id and property key and bounded by an
+ * estimated size in bytes. Install it with {@link WrappedGraphDatabase#setPropertyCache(PropertyCache)}; entries are
+ * invalidated by writes through the wrapper and by the data of the transactions that the underlying database
+ * commits with its transaction event handlers.
+ * <p>
+ * Transactions applied without those handlers are not seen, such as the ones a highly available database pulls from
+ * the other instances of its cluster. Give the cache a time to live to bound how long their changes may be missed.
+ * <p>
+ * Values read by a thread are only cached if no invalidation happened while they were being read, so a value that
+ * was read just before a concurrent commit never outlives that commit in the cache.
+ */
+public class PropertyCache implements TransactionEventHandler<Void>
+{
+    static final Object NO_VALUE = new Object();
+
+    private static final long RECORD_OVERHEAD = 96, ENTRY_OVERHEAD = 48;
+
+    private final long byteBudget, timeToLive;
+    private final LinkedHashMap<Key, Record> records = new LinkedHashMap<Key, Record>( 1024, 0.75f, true );
+    private final Set<Key> unloaded = new HashSet<Key>();
+    private final Object loading = new Object();
+    private volatile boolean pinsUnloaded;
+    private long bytes, generation, hits, misses, evictions;
+
+    public PropertyCache( long byteBudget )
+    {
+        this( byteBudget, 0, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * @param timeToLive how long the entries of an entity may be served after they were first cached, or zero to
+     *            serve them until they are invalidated or evicted.
+     */
+    public PropertyCache( long byteBudget, long timeToLive, TimeUnit unit )
+    {
+        if ( byteBudget <= 0 ) throw new IllegalArgumentException( "Byte budget must be positive: " + byteBudget );
+        if ( timeToLive < 0 ) throw new IllegalArgumentException( "Negative time to live: " + timeToLive );
+        this.byteBudget = byteBudget;
+        this.timeToLive = unit.toNanos( timeToLive );
+    }
+
+    public long byteBudget()
+    {
+        return byteBudget;
+    }
+
+    public synchronized long bytes()
+    {
+        return bytes;
+    }
+
+    public synchronized long hits()
+    {
+        return hits;
+    }
+
+    public synchronized long misses()
+    {
+        return misses;
+    }
+
+    public synchronized long evictions()
+    {
+        return evictions;
+    }
+
+    public synchronized double hitRate()
+    {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public synchronized void clear()
+    {
+        records.clear();
+        unloaded.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    @Override
+    public String toString()
+    {
+        synchronized ( this )
+        {
+            return String.format( "PropertyCache[%d/%d bytes, %d entities, hit rate %.3f]", bytes, byteBudget,
+                    records.size(), hitRate() );
+        }
+    }
+
+    /**
+     * Returns a stamp to pass to the <code>put</code> methods for values read after this call.
+     */
+    synchronized long generation()
+    {
+        return generation;
+    }
+
+    /**
+     * Returns the cached value, {@link #NO_VALUE} if the entity is known not to have the property, or
+     * <code>null</code> if the cache cannot tell.
+     */
+    synchronized Object get( boolean node, long id, String key )
+    {
+        Record record = live( new Key( node, id ) );
+        if ( record != null )
+        {
+            Object value = record.values.get( key );
+            if ( value == null && record.keys != null && !contains( record.keys, key ) ) value = NO_VALUE;
+            if ( value != null )
+            {
+                hits++;
+                return value;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    synchronized String[] keys( boolean node, long id )
+    {
+        Record record = live( new Key( node, id ) );
+        if ( record != null && record.keys != null )
+        {
+            hits++;
+            return record.keys;
+        }
+        misses++;
+        return null;
+    }
+
+    synchronized void put( boolean node, long id, String key, Object value, long generation )
+    {
+        if ( generation != this.generation ) return;
+        store( record( new Key( node, id ) ), key, value );
+        evict();
+    }
+
+    synchronized void putKeys( boolean node, long id, String[] keys, long generation )
+    {
+        if ( generation != this.generation ) return;
+        storeKeys( record( new Key( node, id ) ), keys );
+        evict();
+    }
+
+    synchronized void invalidate( boolean node, long id, String key )
+    {
+        generation++;
+        Key recordKey = new Key( node, id );
+        Record record = records.get( recordKey );
+        if ( record == null ) return;
+        if ( record.pinned ) markUnloaded( recordKey );
+        Object previous = record.values.remove( key );
+        if ( previous != null ) resize( record, -( ENTRY_OVERHEAD + sizeOf( key ) + sizeOf( previous ) ) );
+        if ( record.keys != null )
+        {
+            resize( record, -sizeOf( record.keys ) );
+            record.keys = null;
+        }
+    }
+
+    synchronized void invalidate( boolean node, long id )
+    {
+        generation++;
+        Key key = new Key( node, id );
+        Record record = records.remove( key );
+        if ( record == null ) return;
+        bytes -= record.bytes;
+        if ( !record.pinned ) return;
+        record( key ).pinned = true;
+        markUnloaded( key );
+    }
+
+    /**
+     * Exempts the entries of the given entity from eviction until it is unpinned. Invalidation still applies, but
+     * the properties of a pinned entity are loaded again by the next call to {@link #loadPinned}.
+     */
+    synchronized void pin( boolean node, long id )
+    {
+        Key key = new Key( node, id );
+        record( key ).pinned = true;
+        markUnloaded( key );
+    }
+
+    synchronized void unpin( boolean node, long id )
+    {
+        Key key = new Key( node, id );
+        unloaded.remove( key );
+        Record record = records.get( key );
+        if ( record == null ) return;
+        record.pinned = false;
+        evict();
+    }
+
+    /**
+     * Loads all properties of the pinned entities that were pinned or invalidated since the last call. The given
+     * database must show committed state. A property invalidated again while it is being loaded is not stored, the
+     * entity is loaded again by the next call instead.
+     */
+    void loadPinned( GraphDatabaseService graphdb )
+    {
+        if ( !pinsUnloaded ) return;
+        synchronized ( loading ) // one loader at a time, so that older values never overwrite newer ones
+        {
+            Key[] keys;
+            synchronized ( this )
+            {
+                keys = unloaded.toArray( new Key[unloaded.size()] );
+                unloaded.clear();
+                pinsUnloaded = false;
+            }
+            for ( Key key : keys )
+            {
+                Map<String, Object> values = new HashMap<String, Object>();
+                try
+                {
+                    PropertyContainer entity = key.node ? graphdb.getNodeById( key.id )
+                            : graphdb.getRelationshipById( key.id );
+                    for ( String property : entity.getPropertyKeys() )
+                        values.put( property, entity.getProperty( property ) );
+                }
+                catch ( NotFoundException e )
+                {
+                    continue; // deleted, it will fall out of the hottest entities
+                }
+                load( key, values );
+            }
+        }
+    }
+
+    private synchronized void load( Key key, Map<String, Object> values )
+    {
+        Record record = records.get( key );
+        if ( record == null || !record.pinned || unloaded.contains( key ) ) return;
+        for ( Map.Entry<String, Object> value : values.entrySet() )
+            store( record, value.getKey(), value.getValue() );
+        storeKeys( record, values.keySet().toArray( new String[values.size()] ) );
+        evict();
+    }
+
+    private void markUnloaded( Key key )
+    {
+        unloaded.add( key );
+        pinsUnloaded = true;
+    }
+
+    private void store( Record record, String key, Object value )
+    {
+        Object previous = record.values.put( key, value );
+        if ( previous != null ) resize( record, -( ENTRY_OVERHEAD + sizeOf( key ) + sizeOf( previous ) ) );
+        resize( record, ENTRY_OVERHEAD + sizeOf( key ) + sizeOf( value ) );
+    }
+
+    private void storeKeys( Record record, String[] keys )
+    {
+        if ( record.keys != null ) resize( record, -sizeOf( record.keys ) );
+        record.keys = keys;
+        resize( record, sizeOf( keys ) );
+    }
+
+    private Record record( Key key )
+    {
+        Record record = live( key );
+        if ( record == null )
+        {
+            records.put( key, record = new Record() );
+            if ( timeToLive != 0 ) record.cached = System.nanoTime();
+            bytes += record.bytes;
+        }
+        return record;
+    }
+
+    /**
+     * Returns the record of the given entity, if any, dropping its entries if they have outlived the time to live.
+     * The record of a pinned entity is kept, and loaded again by the next call to {@link #loadPinned}.
+     */
+    private Record live( Key key )
+    {
+        Record record = records.get( key );
+        if ( record == null || timeToLive == 0 ) return record;
+        long now = System.nanoTime();
+        if ( now - record.cached <= timeToLive ) return record;
+        if ( !record.pinned )
+        {
+            records.remove( key );
+            bytes -= record.bytes;
+            return null;
+        }
+        record.values.clear();
+        record.keys = null;
+        resize( record, RECORD_OVERHEAD - record.bytes );
+        record.cached = now;
+        markUnloaded( key );
+        return record;
+    }
+
+    private void resize( Record record, long delta )
+    {
+        record.bytes += delta;
+        bytes += delta;
+    }
+
+    private void evict()
+    {
+        for ( Iterator<Record> eldest = records.values().iterator(); bytes > byteBudget && eldest.hasNext(); )
+        {
+            Record record = eldest.next();
+            if ( record.pinned ) continue;
+            bytes -= record.bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private static boolean contains( String[] keys, String key )
+    {
+        for ( String candidate : keys )
+        {
+            if ( candidate.equals( key ) ) return true;
+        }
+        return false;
+    }
+
+    static long sizeOf( Object value )
+    {
+        if ( value instanceof String ) return 40 + 2 * ( (String) value ).length();
+        if ( value == null || !value.getClass().isArray() ) return 16;
+        int length = Array.getLength( value );
+        if ( value instanceof Object[] )
+        {
+            long size = 16 + 4 * length;
+            for ( Object element : (Object[]) value )
+                size += sizeOf( element );
+            return size;
+        }
+        return 16 + 8 * length;
+    }
+
+    // TransactionEventHandler
+
+    @Override
+    public Void beforeCommit( TransactionData data )
+    {
+        return null;
+    }
+
+    @Override
+    public void afterCommit( TransactionData data, Void state )
+    {
+        invalidate( true, data.assignedNodeProperties() );
+        invalidate( true, data.removedNodeProperties() );
+        invalidate( false, data.assignedRelationshipProperties() );
+        invalidate( false, data.removedRelationshipProperties() );
+        for ( Node node : data.deletedNodes() )
+            invalidate( true, node.getId() );
+        for ( Relationship relationship : data.deletedRelationships() )
+            invalidate( false, relationship.getId() );
+    }
+
+    @Override
+    public void afterRollback( TransactionData data, Void state )
+    {
+        // nothing was committed, nothing to invalidate
+    }
+
+    private <T extends PropertyContainer> void invalidate( boolean node, Iterable<PropertyEntry<T>> entries )
+    {
+        for ( PropertyEntry<T> entry : entries )
+        {
+            T entity = entry.entity();
+            invalidate( node, node ? ( (Node) entity ).getId() : ( (Relationship) entity ).getId(), entry.key() );
+        }
+    }
+
+    private static final class Key
+    {
+        private final boolean node;
+        private final long id;
+
+        Key( boolean node, long id )
+        {
+            this.node = node;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = (int) ( ( id >>> 32 ) ^ id );
+            return node ? hash : ~hash;
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj ) return true;
+            if ( obj instanceof Key )
+            {
+                Key that = (Key) obj;
+                return this.id == that.id && this.node == that.node;
+            }
+            return false;
+        }
+    }
+
+    private static final class Record
+    {
+        final Map<String, Object> values = new HashMap<String, Object>( 8 );
+        String[] keys;
+        long bytes = RECORD_OVERHEAD, cached;
+        boolean pinned;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+/**
+ * Thrown when a tenant has used up its quota of entity creations. It has no stack trace, so that rejecting is cheap.
+ */
+public class QuotaExceededException extends RuntimeException
+{
+    private final String tenant;
+
+    public QuotaExceededException( String tenant )
+    {
+        super( "Creation quota exceeded for tenant " + tenant );
+        this.tenant = tenant;
+    }
+
+    public String getTenant()
+    {
+        return tenant;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace()
+    {
+        return this; // no stack trace
+    }
+}
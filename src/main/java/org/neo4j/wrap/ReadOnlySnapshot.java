@@ -0,0 +1,629 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * A read-only view of a database for long running reads. The properties and relationships of each entity are copied
+ * into compact immutable records on the first visit, and later visits are served from those records, so that a walk
+ * over the graph sees each entity as it was when first visited and does not compete for the caches of the kernel.
+ * <p>
+ * The records are bounded by an estimated size in bytes, and the least recently used ones are evicted. An evicted
+ * entity is copied again from the underlying database when it is visited next, and a record larger than the whole
+ * budget, such as the relationships of a supernode, is copied on every visit instead of being kept. Traversals and
+ * relationship pages still read the underlying database. All mutating operations throw
+ * {@link UnsupportedOperationException}.
+ * <p>
+ * Shutting down a snapshot shuts down the underlying database, a snapshot that is no longer needed should just be
+ * dropped.
+ */
+public class ReadOnlySnapshot extends WrappedGraphDatabase
+{
+    private static final long RECORD_OVERHEAD = 64;
+    private static final byte OUTGOING = 1, INCOMING = 2;
+
+    private final long byteBudget;
+    private final LinkedHashMap<Key, Object> records = new LinkedHashMap<Key, Object>( 1024, 0.75f, true );
+    private final Map<String, String> keys = new HashMap<String, String>();
+    private long bytes, hits, misses, evictions;
+
+    public ReadOnlySnapshot( GraphDatabaseService graphdb, long byteBudget )
+    {
+        super( graphdb );
+        if ( byteBudget <= 0 ) throw new IllegalArgumentException( "Byte budget must be positive: " + byteBudget );
+        this.byteBudget = byteBudget;
+    }
+
+    public long byteBudget()
+    {
+        return byteBudget;
+    }
+
+    public synchronized long bytes()
+    {
+        return bytes;
+    }
+
+    public synchronized long hits()
+    {
+        return hits;
+    }
+
+    public synchronized long misses()
+    {
+        return misses;
+    }
+
+    public synchronized long evictions()
+    {
+        return evictions;
+    }
+
+    @Override
+    protected WrappedNode<? extends WrappedGraphDatabase> node( Node node, boolean created )
+    {
+        return new SnapshotNode( this, node.getId() );
+    }
+
+    @Override
+    protected WrappedRelationship<? extends WrappedGraphDatabase> relationship( Relationship relationship,
+            boolean created )
+    {
+        return new SnapshotRelationship( this, relationship.getId() );
+    }
+
+    @Override
+    protected WrappedNode<? extends WrappedGraphDatabase> node( long id )
+    {
+        return new SnapshotNode( this, id );
+    }
+
+    @Override
+    protected WrappedRelationship<? extends WrappedGraphDatabase> relationship( long id )
+    {
+        return new SnapshotRelationship( this, id );
+    }
+
+    @Override
+    protected void onBeginTransaction() throws TransactionNotAllowedException
+    {
+        throw new TransactionNotAllowedException( readOnly() );
+    }
+
+    @Override
+    protected void onNodeCreate()
+    {
+        throw readOnly();
+    }
+
+    @Override
+    protected void onIndexChange()
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean isReadOnly()
+    {
+        return true;
+    }
+
+    static UnsupportedOperationException readOnly()
+    {
+        return new UnsupportedOperationException( "Read only snapshot" );
+    }
+
+    // records
+
+    private Properties properties( boolean node, long id )
+    {
+        Key key = new Key( node ? Key.NODE : Key.RELATIONSHIP, id );
+        Properties properties = (Properties) get( key );
+        if ( properties != null ) return properties;
+        PropertyContainer entity = node ? graphdb.getNodeById( id ) : graphdb.getRelationshipById( id );
+        List<String> keys = new ArrayList<String>();
+        List<Object> values = new ArrayList<Object>();
+        for ( String name : entity.getPropertyKeys() )
+        {
+            keys.add( name );
+            values.add( entity.getProperty( name ) );
+        }
+        properties = new Properties( intern( keys ), values.toArray() );
+        return (Properties) put( key, properties, properties.size() );
+    }
+
+    private Adjacency adjacency( long id )
+    {
+        Key key = new Key( Key.ADJACENCY, id );
+        Adjacency adjacency = (Adjacency) get( key );
+        if ( adjacency != null ) return adjacency;
+        List<Relationship> all = new ArrayList<Relationship>();
+        for ( Relationship relationship : graphdb.getNodeById( id ).getRelationships() )
+            all.add( relationship );
+        adjacency = new Adjacency( all.size() );
+        RelationshipTypeDictionary dictionary = typeDictionary();
+        for ( int i = 0; i < all.size(); i++ )
+        {
+            Relationship relationship = all.get( i );
+            long start = relationship.getStartNode().getId(), end = relationship.getEndNode().getId();
+            adjacency.relationships[i] = relationship.getId();
+            adjacency.others[i] = start == id ? end : start;
+            adjacency.types[i] = dictionary.id( relationship.getType() );
+            adjacency.directions[i] = (byte) ( ( start == id ? OUTGOING : 0 ) | ( end == id ? INCOMING : 0 ) );
+        }
+        return (Adjacency) put( key, adjacency, adjacency.size() );
+    }
+
+    private synchronized Object get( Key key )
+    {
+        Object record = records.get( key );
+        if ( record != null ) hits++;
+        else misses++;
+        return record;
+    }
+
+    /**
+     * Keeps the record that was stored first if two threads copied the same entity, so that every visit sees the
+     * same copy.
+     */
+    private synchronized Object put( Key key, Object record, long size )
+    {
+        if ( size > byteBudget ) return record;
+        Object existing = records.get( key );
+        if ( existing != null ) return existing;
+        records.put( key, record );
+        bytes += size;
+        for ( Iterator<Map.Entry<Key, Object>> eldest = records.entrySet().iterator(); bytes > byteBudget
+                                                                                      && eldest.hasNext(); )
+        {
+            Map.Entry<Key, Object> entry = eldest.next();
+            if ( entry.getValue() == record ) break;
+            bytes -= entry.getValue() instanceof Properties ? ( (Properties) entry.getValue() ).size()
+                    : ( (Adjacency) entry.getValue() ).size();
+            eldest.remove();
+            evictions++;
+        }
+        return record;
+    }
+
+    private String[] intern( List<String> names )
+    {
+        String[] result = new String[names.size()];
+        synchronized ( keys )
+        {
+            for ( int i = 0; i < result.length; i++ )
+            {
+                String name = names.get( i ), interned = keys.get( name );
+                if ( interned == null ) keys.put( name, interned = name );
+                result[i] = interned;
+            }
+        }
+        return result;
+    }
+
+    private static Object copy( Object value )
+    {
+        if ( value == null || !value.getClass().isArray() ) return value;
+        int length = Array.getLength( value );
+        Object copy = Array.newInstance( value.getClass().getComponentType(), length );
+        System.arraycopy( value, 0, copy, 0, length );
+        return copy;
+    }
+
+    private static final class Key
+    {
+        static final byte NODE = 0, RELATIONSHIP = 1, ADJACENCY = 2;
+
+        private final byte kind;
+        private final long id;
+
+        Key( byte kind, long id )
+        {
+            this.kind = kind;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (int) ( ( id >>> 32 ) ^ id ) * 31 + kind;
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj ) return true;
+            if ( obj instanceof Key )
+            {
+                Key that = (Key) obj;
+                return this.id == that.id && this.kind == that.kind;
+            }
+            return false;
+        }
+    }
+
+    private static final class Properties
+    {
+        final String[] keys;
+        final Object[] values;
+
+        Properties( String[] keys, Object[] values )
+        {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        Object value( String key, Object missing )
+        {
+            int index = indexOf( key );
+            return index < 0 ? missing : copy( values[index] );
+        }
+
+        List<Object> copyOfValues()
+        {
+            List<Object> copies = new ArrayList<Object>( values.length );
+            for ( Object value : values )
+                copies.add( copy( value ) );
+            return copies;
+        }
+
+        int indexOf( String key )
+        {
+            for ( int i = 0; i < keys.length; i++ )
+            {
+                if ( keys[i].equals( key ) ) return i;
+            }
+            return -1;
+        }
+
+        long size()
+        {
+            long size = RECORD_OVERHEAD + 8 * keys.length;
+            for ( Object value : values )
+                size += PropertyCache.sizeOf( value );
+            return size;
+        }
+    }
+
+    private static final class Adjacency
+    {
+        final long[] relationships, others;
+        final int[] types;
+        final byte[] directions;
+
+        Adjacency( int degree )
+        {
+            this.relationships = new long[degree];
+            this.others = new long[degree];
+            this.types = new int[degree];
+            this.directions = new byte[degree];
+        }
+
+        long size()
+        {
+            return RECORD_OVERHEAD + 21L * relationships.length;
+        }
+    }
+
+    private static final class SnapshotNode extends WrappedNode<ReadOnlySnapshot>
+    {
+        private final long id;
+
+        SnapshotNode( ReadOnlySnapshot graphdb, long id )
+        {
+            super( graphdb );
+            this.id = id;
+        }
+
+        @Override
+        protected Node actual()
+        {
+            return graphdb.graphdb.getNodeById( id );
+        }
+
+        @Override
+        public long getId()
+        {
+            return id;
+        }
+
+        @Override
+        public boolean hasProperty( String key )
+        {
+            return graphdb.properties( true, id ).indexOf( key ) >= 0;
+        }
+
+        @Override
+        public Object getProperty( String key )
+        {
+            Object value = graphdb.properties( true, id ).value( key, null );
+            if ( value == null ) throw new NotFoundException( "'" + key + "' property not found for Node[" + id + "]" );
+            return value;
+        }
+
+        @Override
+        public Object getProperty( String key, Object defaultValue )
+        {
+            return graphdb.properties( true, id ).value( key, defaultValue );
+        }
+
+        @Override
+        public Iterable<String> getPropertyKeys()
+        {
+            return Collections.unmodifiableList( Arrays.asList( graphdb.properties( true, id ).keys ) );
+        }
+
+        @SuppressWarnings( "deprecation" )
+        @Override
+        public Iterable<Object> getPropertyValues()
+        {
+            return graphdb.properties( true, id ).copyOfValues();
+        }
+
+        @Override
+        public void setProperty( String key, Object value )
+        {
+            throw readOnly();
+        }
+
+        @Override
+        public Object removeProperty( String key )
+        {
+            throw readOnly();
+        }
+
+        @Override
+        public void delete()
+        {
+            throw readOnly();
+        }
+
+        @Override
+        public Relationship createRelationshipTo( Node otherNode, RelationshipType type )
+        {
+            throw readOnly();
+        }
+
+        @Override
+        public Iterable<Relationship> getRelationships()
+        {
+            return relationships( Direction.BOTH );
+        }
+
+        @Override
+        public Iterable<Relationship> getRelationships( RelationshipType... types )
+        {
+            return relationships( Direction.BOTH, types );
+        }
+
+        @Override
+        public Iterable<Relationship> getRelationships( Direction direction, RelationshipType... types )
+        {
+            return relationships( direction, types );
+        }
+
+        @Override
+        public Iterable<Relationship> getRelationships( Direction dir )
+        {
+            return relationships( dir );
+        }
+
+        @Override
+        public Iterable<Relationship> getRelationships( RelationshipType type, Direction dir )
+        {
+            return relationships( dir, type );
+        }
+
+        @Override
+        public boolean hasRelationship()
+        {
+            return relationships( Direction.BOTH ).iterator().hasNext();
+        }
+
+        @Override
+        public boolean hasRelationship( RelationshipType... types )
+        {
+            return relationships( Direction.BOTH, types ).iterator().hasNext();
+        }
+
+        @Override
+        public boolean hasRelationship( Direction direction, RelationshipType... types )
+        {
+            return relationships( direction, types ).iterator().hasNext();
+        }
+
+        @Override
+        public boolean hasRelationship( Direction dir )
+        {
+            return relationships( dir ).iterator().hasNext();
+        }
+
+        @Override
+        public boolean hasRelationship( RelationshipType type, Direction dir )
+        {
+            return relationships( dir, type ).iterator().hasNext();
+        }
+
+        @Override
+        public Relationship getSingleRelationship( RelationshipType type, Direction dir )
+        {
+            Iterator<Relationship> relationships = relationships( dir, type ).iterator();
+            if ( !relationships.hasNext() ) return null;
+            Relationship single = relationships.next();
+            if ( relationships.hasNext() )
+            {
+                throw new NotFoundException( "More than one relationship[" + type + ", " + dir + "] found for "
+                                             + this );
+            }
+            return single;
+        }
+
+        private Iterable<Relationship> relationships( final Direction direction, RelationshipType... types )
+        {
+            final Adjacency adjacency = graphdb.adjacency( id );
+            final RelationshipTypeDictionary.TypeSet typeSet = types.length == 0 ? null
+                    : graphdb.typeDictionary().typeSet( types );
+            final int mask = direction == Direction.OUTGOING ? OUTGOING : direction == Direction.INCOMING ? INCOMING
+                    : OUTGOING | INCOMING;
+            return new Iterable<Relationship>()
+            {
+                @Override
+                public Iterator<Relationship> iterator()
+                {
+                    return new Iterator<Relationship>()
+                    {
+                        private int next = advance( 0 );
+
+                        private int advance( int index )
+                        {
+                            for ( ; index < adjacency.relationships.length; index++ )
+                            {
+                                if ( ( adjacency.directions[index] & mask ) == 0 ) continue;
+                                if ( typeSet == null || typeSet.contains( adjacency.types[index] ) ) break;
+                            }
+                            return index;
+                        }
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return next < adjacency.relationships.length;
+                        }
+
+                        @Override
+                        public Relationship next()
+                        {
+                            if ( !hasNext() ) throw new NoSuchElementException();
+                            int index = next;
+                            next = advance( index + 1 );
+                            WrappedRelationship<?> relationship = graphdb.wrapRelationship(
+                                    adjacency.relationships[index] );
+                            boolean outgoing = ( adjacency.directions[index] & OUTGOING ) != 0;
+                            relationship.resolved( outgoing ? id : adjacency.others[index],
+                                    outgoing ? adjacency.others[index] : id, adjacency.types[index] );
+                            return relationship;
+                        }
+
+                        @Override
+                        public void remove()
+                        {
+                            throw readOnly();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private static final class SnapshotRelationship extends WrappedRelationship<ReadOnlySnapshot>
+    {
+        private final long id;
+
+        SnapshotRelationship( ReadOnlySnapshot graphdb, long id )
+        {
+            super( graphdb );
+            this.id = id;
+        }
+
+        @Override
+        protected Relationship actual()
+        {
+            return graphdb.graphdb.getRelationshipById( id );
+        }
+
+        @Override
+        public long getId()
+        {
+            return id;
+        }
+
+        @Override
+        public boolean hasProperty( String key )
+        {
+            return graphdb.properties( false, id ).indexOf( key ) >= 0;
+        }
+
+        @Override
+        public Object getProperty( String key )
+        {
+            Object value = graphdb.properties( false, id ).value( key, null );
+            if ( value == null )
+            {
+                throw new NotFoundException( "'" + key + "' property not found for Relationship[" + id + "]" );
+            }
+            return value;
+        }
+
+        @Override
+        public Object getProperty( String key, Object defaultValue )
+        {
+            return graphdb.properties( false, id ).value( key, defaultValue );
+        }
+
+        @Override
+        public Iterable<String> getPropertyKeys()
+        {
+            return Collections.unmodifiableList( Arrays.asList( graphdb.properties( false, id ).keys ) );
+        }
+
+        @SuppressWarnings( "deprecation" )
+        @Override
+        public Iterable<Object> getPropertyValues()
+        {
+            return graphdb.properties( false, id ).copyOfValues();
+        }
+
+        @Override
+        public void setProperty( String key, Object value )
+        {
+            throw readOnly();
+        }
+
+        @Override
+        public Object removeProperty( String key )
+        {
+            throw readOnly();
+        }
+
+        @Override
+        public void delete()
+        {
+            throw readOnly();
+        }
+    }
+}
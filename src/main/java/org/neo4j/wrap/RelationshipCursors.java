@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Keeps the relationship iterators of paged reads open between pages, so that the next page continues the iteration
+ * instead of scanning the relationships of the node again. Open cursors are bounded in number and idle time; when a
+ * cursor is gone, the next page is found by skipping to the last relationship seen.
+ * <p>
+ * The iterators of the underlying database load relationships lazily, against the transaction state of the thread
+ * iterating, so a cursor only continues on the thread and in the transaction that opened it. A page read anywhere
+ * else scans from the last relationship seen.
+ */
+class RelationshipCursors
+{
+    private static final int MAX_CURSORS = 1024;
+    private static final long MAX_IDLE = TimeUnit.MINUTES.toNanos( 5 );
+
+    private final WrappedGraphDatabase graphdb;
+    private final AtomicLong ids = new AtomicLong();
+    private final LinkedHashMap<Long, Cursor> open = new LinkedHashMap<Long, Cursor>( 64, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Long, Cursor> eldest )
+        {
+            return size() > MAX_CURSORS;
+        }
+    };
+
+    RelationshipCursors( WrappedGraphDatabase graphdb )
+    {
+        this.graphdb = graphdb;
+    }
+
+    RelationshipPage page( long nodeId, int pageSize, String continuation, Direction direction,
+            RelationshipType[] types )
+    {
+        if ( pageSize < 1 ) throw new IllegalArgumentException( "Page size must be positive: " + pageSize );
+        String filter = filter( direction, types );
+        Cursor cursor;
+        if ( continuation == null )
+        {
+            cursor = open( ids.incrementAndGet(), nodeId, filter, direction, types );
+        }
+        else
+        {
+            Token token = Token.parse( continuation );
+            if ( token.nodeId != nodeId || token.filter != filter.hashCode() )
+            {
+                throw new IllegalArgumentException( "Continuation does not belong to this node and filter" );
+            }
+            cursor = take( token.cursorId );
+            if ( cursor == null || cursor.position != token.position )
+            {
+                // a page further on may still continue from the open cursor
+                if ( cursor != null ) release( cursor );
+                // find the last relationship seen, or if it has been deleted the position
+                long id = ids.incrementAndGet();
+                cursor = open( id, nodeId, filter, direction, types );
+                if ( !cursor.skipPast( token.lastId ) )
+                {
+                    cursor = open( id, nodeId, filter, direction, types );
+                    cursor.skip( token.position );
+                }
+            }
+        }
+        List<Relationship> page = new ArrayList<Relationship>( pageSize );
+        while ( page.size() < pageSize && cursor.relationships.hasNext() )
+        {
+            Relationship relationship = cursor.relationships.next();
+            cursor.lastId = relationship.getId();
+            cursor.position++;
+            page.add( graphdb.wrapRelationship( relationship ) );
+        }
+        page = Collections.unmodifiableList( page );
+        if ( !cursor.relationships.hasNext() ) return new RelationshipPage( page, null );
+        release( cursor );
+        return new RelationshipPage( page, new Token( cursor ).toString() );
+    }
+
+    private Cursor open( long id, long nodeId, String filter, Direction direction, RelationshipType[] types )
+    {
+        Node node = graphdb.graphdb.getNodeById( nodeId );
+        Iterable<Relationship> relationships = types.length == 0 ? node.getRelationships( direction )
+                : node.getRelationships( direction, types );
+        return new Cursor( id, nodeId, filter, relationships.iterator(), graphdb.currentTransaction() );
+    }
+
+    private static String filter( Direction direction, RelationshipType[] types )
+    {
+        String[] names = new String[types.length];
+        for ( int i = 0; i < names.length; i++ )
+            names[i] = types[i].name();
+        Arrays.sort( names );
+        return direction.name() + Arrays.toString( names );
+    }
+
+    /**
+     * Removes the cursor from the open cursors while a page is read from it, iterators are not thread safe. The
+     * cursors of other threads are left to them.
+     */
+    private synchronized Cursor take( long cursorId )
+    {
+        Cursor cursor = open.get( cursorId );
+        if ( cursor == null || cursor.thread != Thread.currentThread() ) return null;
+        open.remove( cursorId );
+        if ( cursor.transaction != graphdb.currentTransaction() ) return null;
+        return System.nanoTime() - cursor.released < MAX_IDLE ? cursor : null;
+    }
+
+    private synchronized void release( Cursor cursor )
+    {
+        cursor.released = System.nanoTime();
+        open.put( cursor.id, cursor );
+        for ( Iterator<Cursor> eldest = open.values().iterator(); eldest.hasNext(); )
+        {
+            if ( cursor.released - eldest.next().released < MAX_IDLE ) break;
+            eldest.remove();
+        }
+    }
+
+    private static class Cursor
+    {
+        final long id, nodeId;
+        final String filter;
+        final Iterator<Relationship> relationships;
+        final Thread thread;
+        final Object transaction;
+        long lastId = -1, position, released;
+
+        Cursor( long id, long nodeId, String filter, Iterator<Relationship> relationships, Object transaction )
+        {
+            this.id = id;
+            this.nodeId = nodeId;
+            this.filter = filter;
+            this.relationships = relationships;
+            this.thread = Thread.currentThread();
+            this.transaction = transaction;
+        }
+
+        /**
+         * Advances this fresh cursor past the relationship with the given id, returning <code>false</code> if it was
+         * not found.
+         */
+        boolean skipPast( long lastId )
+        {
+            while ( relationships.hasNext() )
+            {
+                position++;
+                if ( ( this.lastId = relationships.next().getId() ) == lastId ) return true;
+            }
+            return false;
+        }
+
+        void skip( long count )
+        {
+            while ( position < count && relationships.hasNext() )
+            {
+                position++;
+                lastId = relationships.next().getId();
+            }
+        }
+    }
+
+    private static class Token
+    {
+        final long cursorId, nodeId, lastId, position;
+        final int filter;
+
+        Token( Cursor cursor )
+        {
+            this( cursor.id, cursor.nodeId, cursor.lastId, cursor.position, cursor.filter.hashCode() );
+        }
+
+        private Token( long cursorId, long nodeId, long lastId, long position, int filter )
+        {
+            this.cursorId = cursorId;
+            this.nodeId = nodeId;
+            this.lastId = lastId;
+            this.position = position;
+            this.filter = filter;
+        }
+
+        static Token parse( String continuation )
+        {
+            String[] parts = continuation.split( "\\." );
+            if ( parts.length != 5 ) throw new IllegalArgumentException( "Not a continuation: " + continuation );
+            try
+            {
+                return new Token( Long.parseLong( parts[0], 36 ), Long.parseLong( parts[1], 36 ), Long.parseLong(
+                        parts[2], 36 ), Long.parseLong( parts[3], 36 ), Integer.parseInt( parts[4], 36 ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                throw new IllegalArgumentException( "Not a continuation: " + continuation, e );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return Long.toString( cursorId, 36 ) + "." + Long.toString( nodeId, 36 ) + "."
+                   + Long.toString( lastId, 36 ) + "." + Long.toString( position, 36 ) + "."
+                   + Integer.toString( filter, 36 );
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.List;
+
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * A page of the relationships of a node, with the token to continue from where it ended.
+ *
+ * @see WrappedNode#getRelationshipPage(int, String, org.neo4j.graphdb.Direction, org.neo4j.graphdb.RelationshipType...)
+ */
+public final class RelationshipPage
+{
+    private final List<Relationship> relationships;
+    private final String continuation;
+
+    RelationshipPage( List<Relationship> relationships, String continuation )
+    {
+        this.relationships = relationships;
+        this.continuation = continuation;
+    }
+
+    public List<Relationship> getRelationships()
+    {
+        return relationships;
+    }
+
+    /**
+     * Returns the opaque token to pass to get the next page, or <code>null</code> if this is the last page.
+     */
+    public String getContinuation()
+    {
+        return continuation;
+    }
+
+    public boolean hasMore()
+    {
+        return continuation != null;
+    }
+}
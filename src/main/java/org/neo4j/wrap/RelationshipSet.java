@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * A set of relationships backed by a primitive set of relationship ids.
+ */
+public final class RelationshipSet extends EntityIdSet<Relationship>
+{
+    public RelationshipSet( WrappedGraphDatabase graphdb )
+    {
+        this( graphdb, 16 );
+    }
+
+    public RelationshipSet( WrappedGraphDatabase graphdb, int expectedSize )
+    {
+        super( graphdb, expectedSize );
+    }
+
+    @Override
+    Relationship wrap( long id )
+    {
+        return graphdb.wrapRelationship( id );
+    }
+
+    @Override
+    long idOf( Object entity )
+    {
+        return entity instanceof Relationship ? ( (Relationship) entity ).getId() : -1;
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+/**
+ * Interns the relationship types of a {@link WrappedGraphDatabase} and numbers them with dense int ids, so that type
+ * checks can compare ints instead of names. The ids are local to this dictionary and not persisted.
+ */
+public final class RelationshipTypeDictionary
+{
+    private final WrappedGraphDatabase graphdb;
+    private final ConcurrentMap<String, Type> byName = new ConcurrentHashMap<String, Type>();
+    private volatile Type[] byId = new Type[0];
+    private volatile List<RelationshipType> all;
+    private boolean listening;
+    private long version;
+
+    RelationshipTypeDictionary( WrappedGraphDatabase graphdb )
+    {
+        this.graphdb = graphdb;
+    }
+
+    /**
+     * Returns the canonical instance for the type with the name of the given type, assigning it an id if it has not
+     * been seen before.
+     */
+    public RelationshipType intern( RelationshipType type )
+    {
+        if ( type instanceof Type && ( (Type) type ).dictionary == this ) return type;
+        return intern( type.name() );
+    }
+
+    public RelationshipType intern( String name )
+    {
+        Type type = byName.get( name );
+        return type != null ? type : add( name );
+    }
+
+    /**
+     * Returns the id of the given type, assigning one if it has not been seen before.
+     */
+    public int id( RelationshipType type )
+    {
+        return ( (Type) intern( type ) ).id;
+    }
+
+    /**
+     * Returns the id of the type with the given name, or <code>-1</code> if no such type has been seen.
+     */
+    public int lookup( String name )
+    {
+        Type type = byName.get( name );
+        return type == null ? -1 : type.id;
+    }
+
+    int lookup( RelationshipType type )
+    {
+        if ( type instanceof Type && ( (Type) type ).dictionary == this ) return ( (Type) type ).id;
+        return lookup( type.name() );
+    }
+
+    public RelationshipType type( int id )
+    {
+        Type[] types = byId;
+        if ( id < 0 || id >= types.length ) throw new IllegalArgumentException( "Unknown relationship type id: " + id );
+        return types[id];
+    }
+
+    public int size()
+    {
+        return byId.length;
+    }
+
+    /**
+     * Returns the set of the given types, for checking the type ids of many relationships against.
+     */
+    public TypeSet typeSet( RelationshipType... types )
+    {
+        int[] ids = new int[types.length];
+        for ( int i = 0; i < ids.length; i++ )
+            ids[i] = id( types[i] );
+        return new TypeSet( this, ids );
+    }
+
+    private synchronized Type add( String name )
+    {
+        Type type = byName.get( name );
+        if ( type == null )
+        {
+            Type[] types = Arrays.copyOf( byId, byId.length + 1 );
+            type = types[byId.length] = new Type( this, byId.length, name );
+            byId = types;
+            byName.put( name, type );
+            all = null;
+            version++;
+        }
+        return type;
+    }
+
+    /**
+     * Returns the relationship types of the underlying database. The list is cached, and refreshed when a type that
+     * has not been seen before is interned or appears in committed data.
+     */
+    List<RelationshipType> relationshipTypes()
+    {
+        List<RelationshipType> types = all;
+        while ( types == null )
+        {
+            // a fetch that interns types not seen before is not cached, the next one usually is
+            long version = listen();
+            List<RelationshipType> fetched = new ArrayList<RelationshipType>();
+            for ( RelationshipType type : graphdb.graphdb.getRelationshipTypes() )
+                fetched.add( intern( type ) );
+            synchronized ( this )
+            {
+                if ( this.version == version ) all = Collections.unmodifiableList( fetched );
+                types = all;
+            }
+        }
+        return types;
+    }
+
+    private synchronized long listen()
+    {
+        if ( listening ) return version;
+        graphdb.graphdb.registerTransactionEventHandler( new TransactionEventHandler<Void>()
+        {
+            @Override
+            public Void beforeCommit( TransactionData data )
+            {
+                return null;
+            }
+
+            @Override
+            public void afterCommit( TransactionData data, Void state )
+            {
+                for ( Relationship relationship : data.createdRelationships() )
+                    intern( relationship.getType() );
+            }
+
+            @Override
+            public void afterRollback( TransactionData data, Void state )
+            {
+                // types are created in their own transaction, they are seen on the next commit or lookup
+            }
+        } );
+        listening = true;
+        return version;
+    }
+
+    private static final class Type implements RelationshipType
+    {
+        final RelationshipTypeDictionary dictionary;
+        final int id;
+        private final String name;
+
+        Type( RelationshipTypeDictionary dictionary, int id, String name )
+        {
+            this.dictionary = dictionary;
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public String name()
+        {
+            return name;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return name.hashCode();
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj ) return true;
+            return obj instanceof RelationshipType && name.equals( ( (RelationshipType) obj ).name() );
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    /**
+     * A set of relationship types as a bitmap over type ids.
+     */
+    public static final class TypeSet
+    {
+        private final RelationshipTypeDictionary dictionary;
+        private final long[] bits;
+
+        TypeSet( RelationshipTypeDictionary dictionary, int[] ids )
+        {
+            this.dictionary = dictionary;
+            int max = -1;
+            for ( int id : ids )
+                max = Math.max( max, id );
+            this.bits = new long[( max >> 6 ) + 1];
+            for ( int id : ids )
+                bits[id >> 6] |= 1L << id;
+        }
+
+        public boolean contains( int typeId )
+        {
+            int word = typeId >> 6;
+            return typeId >= 0 && word < bits.length && ( bits[word] & ( 1L << typeId ) ) != 0;
+        }
+
+        public boolean contains( RelationshipType type )
+        {
+            return contains( dictionary.lookup( type ) );
+        }
+
+        public boolean contains( Relationship relationship )
+        {
+            if ( relationship instanceof WrappedRelationship<?>
+                 && ( (WrappedRelationship<?>) relationship ).graphdb.typeDictionary() == dictionary )
+            {
+                return contains( ( (WrappedRelationship<?>) relationship ).getTypeId() );
+            }
+            return contains( relationship.getType() );
+        }
+    }
+}
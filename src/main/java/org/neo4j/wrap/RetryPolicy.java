@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.neo4j.kernel.DeadlockDetectedException;
+
+/**
+ * Decides whether a unit of work run with
+ * {@link WrappedGraphDatabase#execute(TransactionExecutor.UnitOfWork, RetryPolicy)} is retried after a failure,
+ * waits before each retry, and counts the outcomes.
+ * <p>
+ * Deadlocks, and failures to reach the master of a highly available cluster, are retried. The wait before each retry
+ * is drawn at random up to a bound that doubles with each attempt, so that transactions that deadlocked on each other
+ * do not retry in lockstep. Retries also draw on a budget that each successful execution adds a fraction of a retry
+ * to, so that under sustained contention the retries cannot multiply the load on the database.
+ * <p>
+ * A policy is meant to be shared by the executions it applies to, its counts and budget are across all of them.
+ */
+public class RetryPolicy implements RetryPolicyMBean
+{
+    private static final String COM_EXCEPTION = "org.neo4j.com.ComException";
+    private static final double MAX_BUDGET = 100;
+
+    private final int maxAttempts;
+    private final long initialBackoff, maxBackoff;
+    private final double budgetRatio;
+    private double budget = MAX_BUDGET;
+    private final Random random = new Random();
+    private final AtomicLong executions = new AtomicLong(), successes = new AtomicLong(), retries = new AtomicLong(),
+            deadlocks = new AtomicLong(), aborts = new AtomicLong(), failures = new AtomicLong();
+    private ObjectName objectName;
+
+    /**
+     * @param maxAttempts the number of times to run a unit of work at most.
+     * @param initialBackoffMillis the bound of the wait before the first retry.
+     * @param maxBackoffMillis the bound the waits grow to at most.
+     * @param budgetRatio the fraction of a retry each successful execution adds to the retry budget, which is at
+     *            most a hundred retries.
+     */
+    public RetryPolicy( int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, double budgetRatio )
+    {
+        if ( maxAttempts <= 0 ) throw new IllegalArgumentException( "Attempts must be positive: " + maxAttempts );
+        if ( initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis )
+        {
+            throw new IllegalArgumentException( "Invalid backoff, initial=" + initialBackoffMillis + ", max="
+                                                + maxBackoffMillis );
+        }
+        if ( budgetRatio < 0 )
+        {
+            throw new IllegalArgumentException( "Budget ratio must not be negative: " + budgetRatio );
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoffMillis;
+        this.maxBackoff = maxBackoffMillis;
+        this.budgetRatio = budgetRatio;
+    }
+
+    public RetryPolicy()
+    {
+        this( 5, 10, 1000, 0.2 );
+    }
+
+    /**
+     * Registers this policy with the platform MBean server under the given name.
+     */
+    public synchronized ObjectName registerMBean( String name ) throws JMException
+    {
+        unregisterMBean();
+        ObjectName objectName = new ObjectName( "org.neo4j.wrap:type=RetryPolicy,name=" + ObjectName.quote( name ) );
+        ManagementFactory.getPlatformMBeanServer().registerMBean( this, objectName );
+        this.objectName = objectName;
+        return objectName;
+    }
+
+    public synchronized void unregisterMBean()
+    {
+        if ( objectName == null ) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            if ( server.isRegistered( objectName ) ) server.unregisterMBean( objectName );
+        }
+        catch ( JMException e )
+        {
+            // already gone
+        }
+        objectName = null;
+    }
+
+    /**
+     * Returns whether the given failure of a unit of work may succeed if the unit of work is run again. Override this
+     * to retry other failures that are known to be transient in an application.
+     */
+    protected boolean isRetryable( Throwable failure )
+    {
+        if ( isDeadlock( failure ) ) return true;
+        for ( Throwable cause = failure; cause != null && cause.getCause() != cause; cause = cause.getCause() )
+        {
+            // the communication layer of HA is not a dependency of the wrapper
+            if ( cause.getClass().getName().equals( COM_EXCEPTION ) ) return true;
+        }
+        return false;
+    }
+
+    void started()
+    {
+        executions.incrementAndGet();
+    }
+
+    void succeeded()
+    {
+        successes.incrementAndGet();
+        synchronized ( this )
+        {
+            budget = Math.min( MAX_BUDGET, budget + budgetRatio );
+        }
+    }
+
+    /**
+     * Decides whether to retry after the given attempt failed, and waits before returning if so.
+     */
+    boolean retry( Throwable failure, int attempt )
+    {
+        if ( !isRetryable( failure ) )
+        {
+            failures.incrementAndGet();
+            return false;
+        }
+        if ( isDeadlock( failure ) ) deadlocks.incrementAndGet();
+        long backoff;
+        synchronized ( this )
+        {
+            if ( attempt >= maxAttempts || budget < 1 )
+            {
+                aborts.incrementAndGet();
+                return false;
+            }
+            budget -= 1;
+            long bound = Math.min( maxBackoff, initialBackoff << Math.min( attempt - 1, 30 ) );
+            backoff = bound == 0 ? 0 : (long) ( random.nextDouble() * bound );
+        }
+        retries.incrementAndGet();
+        if ( backoff > 0 )
+        {
+            try
+            {
+                Thread.sleep( backoff );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                aborts.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDeadlock( Throwable failure )
+    {
+        for ( Throwable cause = failure; cause != null && cause.getCause() != cause; cause = cause.getCause() )
+        {
+            if ( cause instanceof DeadlockDetectedException ) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long getExecutions()
+    {
+        return executions.get();
+    }
+
+    @Override
+    public long getSuccesses()
+    {
+        return successes.get();
+    }
+
+    @Override
+    public long getRetries()
+    {
+        return retries.get();
+    }
+
+    @Override
+    public long getDeadlocks()
+    {
+        return deadlocks.get();
+    }
+
+    @Override
+    public long getAborts()
+    {
+        return aborts.get();
+    }
+
+    @Override
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    @Override
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "RetryPolicy[maxAttempts=%d, initialBackoff=%dms, maxBackoff=%dms, budgetRatio=%s]",
+                maxAttempts, initialBackoff, maxBackoff, budgetRatio );
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+/**
+ * Management interface of {@link RetryPolicy}.
+ */
+public interface RetryPolicyMBean
+{
+    long getExecutions();
+
+    long getSuccesses();
+
+    long getRetries();
+
+    long getDeadlocks();
+
+    /**
+     * Returns the number of executions given up on after a retryable failure, because the attempts or the retry
+     * budget were used up.
+     */
+    long getAborts();
+
+    /**
+     * Returns the number of executions that failed with a failure that is not retried.
+     */
+    long getFailures();
+
+    int getMaxAttempts();
+}
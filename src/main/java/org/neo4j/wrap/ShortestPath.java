@@ -0,0 +1,291 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Finds shortest paths between two nodes by breadth first expansion from both ends, always expanding the side with
+ * the smaller frontier. All bookkeeping is kept in primitive maps keyed by node id, and the resulting paths are
+ * {@link WrappedPath}s that wrap entities only when accessed.
+ * <p>
+ * Instances are immutable, the configuration methods return new instances.
+ */
+public final class ShortestPath
+{
+    private static final int CHECK_INTERVAL = 256;
+
+    private final WrappedGraphDatabase graphdb;
+    private final int maxDepth;
+    private final Direction direction;
+    private final RelationshipType[] types;
+    private final long timeBudgetNanos;
+
+    public ShortestPath( WrappedGraphDatabase graphdb )
+    {
+        this( graphdb, Integer.MAX_VALUE, Direction.BOTH, new RelationshipType[0], Long.MAX_VALUE );
+    }
+
+    private ShortestPath( WrappedGraphDatabase graphdb, int maxDepth, Direction direction, RelationshipType[] types,
+            long timeBudgetNanos )
+    {
+        graphdb.getClass(); // null check
+        this.graphdb = graphdb;
+        this.maxDepth = maxDepth;
+        this.direction = direction;
+        this.types = types;
+        this.timeBudgetNanos = timeBudgetNanos;
+    }
+
+    public ShortestPath maxDepth( int maxDepth )
+    {
+        if ( maxDepth < 0 ) throw new IllegalArgumentException( "Negative depth: " + maxDepth );
+        return new ShortestPath( graphdb, maxDepth, direction, types, timeBudgetNanos );
+    }
+
+    /**
+     * Only follows relationships in the given direction, as seen from the start node, and of the given types if any
+     * are given.
+     */
+    public ShortestPath relationships( Direction direction, RelationshipType... types )
+    {
+        direction.getClass(); // null check
+        return new ShortestPath( graphdb, maxDepth, direction, types.clone(), timeBudgetNanos );
+    }
+
+    /**
+     * Gives up searching after the given time, with an {@link OperationCancelledException}.
+     */
+    public ShortestPath timeBudget( long time, TimeUnit unit )
+    {
+        if ( time <= 0 ) throw new IllegalArgumentException( "Time budget must be positive: " + time );
+        return new ShortestPath( graphdb, maxDepth, direction, types, unit.toNanos( time ) );
+    }
+
+    /**
+     * Returns a shortest path from start to end, or <code>null</code> if there is none within the maximum depth. The
+     * cancellation token of the calling thread, if any, is checked while searching.
+     *
+     * @throws OperationCancelledException if the search runs out of its time budget or is cancelled.
+     */
+    public WrappedPath findSinglePath( Node start, Node end )
+    {
+        List<WrappedPath> paths = find( start.getId(), end.getId(), false );
+        return paths.isEmpty() ? null : paths.get( 0 );
+    }
+
+    /**
+     * Returns all shortest paths from start to end, or an empty list if there are none within the maximum depth.
+     *
+     * @throws OperationCancelledException if the search runs out of its time budget or is cancelled.
+     */
+    public List<WrappedPath> findAllPaths( Node start, Node end )
+    {
+        return find( start.getId(), end.getId(), true );
+    }
+
+    private List<WrappedPath> find( long startId, long endId, boolean all )
+    {
+        if ( startId == endId )
+        {
+            return Collections.singletonList( new WrappedPath( graphdb, new long[] { startId }, new long[0] ) );
+        }
+        long deadline = timeBudgetNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + timeBudgetNanos;
+        Side forward = new Side( startId, direction ), backward = new Side( endId, direction.reverse() );
+        GraphDatabaseService kernel = graphdb.graphdb;
+        CancellationToken token = graphdb.cancellationToken();
+        int checks = 0;
+        while ( forward.depth + backward.depth < maxDepth && forward.size > 0 && backward.size > 0 )
+        {
+            Side side = forward.size <= backward.size ? forward : backward;
+            Side other = side == forward ? backward : forward;
+            int depth = side.depth + 1;
+            long[] next = new long[Math.max( 16, side.size )];
+            int size = 0;
+            LongHashSet meetings = new LongHashSet( 4 );
+            expansion: for ( int i = 0; i < side.size; i++ )
+            {
+                long nodeId = side.frontier[i];
+                for ( Relationship relationship : side.relationships( kernel.getNodeById( nodeId ) ) )
+                {
+                    if ( ++checks % CHECK_INTERVAL == 0 )
+                    {
+                        if ( token != null ) token.check();
+                        if ( deadline != Long.MAX_VALUE && System.nanoTime() > deadline )
+                        {
+                            throw new OperationCancelledException( "Shortest path search exceeded its time budget" );
+                        }
+                    }
+                    long otherId = WrappedRelationship.otherNodeId( relationship, nodeId );
+                    int entry = side.entry( otherId );
+                    if ( entry < 0 )
+                    {
+                        side.addParent( side.add( otherId, depth ), relationship.getId(), nodeId );
+                        if ( size == next.length ) next = Arrays.copyOf( next, size * 2 );
+                        next[size++] = otherId;
+                        if ( other.entry( otherId ) >= 0 )
+                        {
+                            meetings.add( otherId );
+                            if ( !all ) break expansion;
+                        }
+                    }
+                    else if ( all && side.depths[entry] == depth )
+                    {
+                        side.addParent( entry, relationship.getId(), nodeId );
+                    }
+                }
+            }
+            side.advance( next, size );
+            if ( meetings.size() > 0 ) return paths( forward, backward, meetings, all );
+        }
+        return Collections.emptyList();
+    }
+
+    private List<WrappedPath> paths( Side forward, Side backward, LongHashSet meetings, boolean all )
+    {
+        List<WrappedPath> paths = new ArrayList<WrappedPath>();
+        for ( long meeting : meetings.toArray() )
+        {
+            for ( long[][] head : forward.chains( meeting, all ) )
+            {
+                for ( long[][] tail : backward.chains( meeting, all ) )
+                {
+                    long[] nodes = Arrays.copyOf( head[0], head[0].length + tail[0].length - 1 );
+                    long[] relationships = Arrays.copyOf( head[1], head[1].length + tail[1].length );
+                    for ( int i = tail[0].length - 2, n = head[0].length; i >= 0; i-- )
+                        nodes[n++] = tail[0][i];
+                    for ( int i = tail[1].length - 1, n = head[1].length; i >= 0; i-- )
+                        relationships[n++] = tail[1][i];
+                    paths.add( new WrappedPath( graphdb, nodes, relationships ) );
+                    if ( !all ) return paths;
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * The state of the expansion from one end. Every reached node has an entry with its depth and a linked list of the
+     * relationships it was reached through, all in primitive arrays.
+     */
+    private class Side
+    {
+        private final Direction direction;
+        private final LongLongHashMap entries = new LongLongHashMap( 64 );
+        int[] depths = new int[64], firstParents = new int[64];
+        private long[] parentRelationships = new long[64], parentNodes = new long[64];
+        private int[] nextParents = new int[64];
+        private int entryCount, parentCount;
+        long[] frontier;
+        int size, depth;
+
+        Side( long root, Direction direction )
+        {
+            this.direction = direction;
+            add( root, 0 );
+            frontier = new long[] { root };
+            size = 1;
+        }
+
+        Iterable<Relationship> relationships( Node node )
+        {
+            return types.length == 0 ? node.getRelationships( direction ) : node.getRelationships( direction, types );
+        }
+
+        int entry( long nodeId )
+        {
+            return (int) entries.get( nodeId, -1 );
+        }
+
+        int add( long nodeId, int depth )
+        {
+            int entry = entryCount++;
+            if ( entry == depths.length )
+            {
+                depths = Arrays.copyOf( depths, entry * 2 );
+                firstParents = Arrays.copyOf( firstParents, entry * 2 );
+            }
+            depths[entry] = depth;
+            firstParents[entry] = -1;
+            entries.put( nodeId, entry, -1 );
+            return entry;
+        }
+
+        void addParent( int entry, long relationshipId, long nodeId )
+        {
+            int parent = parentCount++;
+            if ( parent == nextParents.length )
+            {
+                parentRelationships = Arrays.copyOf( parentRelationships, parent * 2 );
+                parentNodes = Arrays.copyOf( parentNodes, parent * 2 );
+                nextParents = Arrays.copyOf( nextParents, parent * 2 );
+            }
+            parentRelationships[parent] = relationshipId;
+            parentNodes[parent] = nodeId;
+            nextParents[parent] = firstParents[entry];
+            firstParents[entry] = parent;
+        }
+
+        void advance( long[] next, int size )
+        {
+            this.frontier = next;
+            this.size = size;
+            this.depth++;
+        }
+
+        /**
+         * Returns the node and relationship ids of the chains from the root of this side to the given node.
+         */
+        List<long[][]> chains( long nodeId, boolean all )
+        {
+            int length = depths[entry( nodeId )];
+            List<long[][]> chains = new ArrayList<long[][]>( 1 );
+            walk( nodeId, length, new long[length + 1], new long[length], chains, all );
+            return chains;
+        }
+
+        private void walk( long nodeId, int position, long[] nodes, long[] relationships, List<long[][]> chains,
+                boolean all )
+        {
+            nodes[position] = nodeId;
+            if ( position == 0 )
+            {
+                chains.add( new long[][] { nodes.clone(), relationships.clone() } );
+                return;
+            }
+            for ( int parent = firstParents[entry( nodeId )]; parent >= 0; parent = nextParents[parent] )
+            {
+                relationships[position - 1] = parentRelationships[parent];
+                walk( parentNodes[parent], position - 1, nodes, relationships, chains, all );
+                if ( !all ) return;
+            }
+        }
+    }
+}
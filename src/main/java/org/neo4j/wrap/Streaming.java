@@ -0,0 +1,299 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.index.IndexHits;
+
+/**
+ * Streams index hits, relationships, traversals or any other iterable to subscribers that signal how many items they
+ * are ready to receive. Items are pulled from the source on a worker, in chunks bounded by the demand of the
+ * subscriber and by a chunk size, after which the worker is handed back to the executor. Signals to a subscriber are
+ * never concurrent.
+ * <p>
+ * The interfaces follow the reactive streams specification, and map one to one onto those of
+ * <code>java.util.concurrent.Flow</code>. Reads do not need a transaction in this version of the kernel, so a stream
+ * holds none, and does not see changes made by uncommitted transactions.
+ */
+public final class Streaming
+{
+    public interface Publisher<T>
+    {
+        void subscribe( Subscriber<? super T> subscriber );
+    }
+
+    public interface Subscriber<T>
+    {
+        void onSubscribe( Subscription subscription );
+
+        void onNext( T item );
+
+        void onError( Throwable failure );
+
+        void onComplete();
+    }
+
+    public interface Subscription
+    {
+        void request( long n );
+
+        void cancel();
+    }
+
+    private Streaming()
+    {
+        // no instances
+    }
+
+    /**
+     * Publishes the items of the given iterable, each subscriber iterating it anew.
+     */
+    public static <T> Publisher<T> publisher( final Iterable<T> source, final Executor worker, final int chunkSize )
+    {
+        source.getClass(); // null check
+        worker.getClass(); // null check
+        if ( chunkSize <= 0 ) throw new IllegalArgumentException( "Chunk size must be positive: " + chunkSize );
+        return new Publisher<T>()
+        {
+            @Override
+            public void subscribe( Subscriber<? super T> subscriber )
+            {
+                new Stream<T>( subscriber, source, null, worker, chunkSize ).start();
+            }
+        };
+    }
+
+    /**
+     * Publishes the given hits to a single subscriber. The hits are closed when the stream completes, fails or is
+     * cancelled.
+     */
+    public static <T> Publisher<T> publisher( final IndexHits<T> hits, final Executor worker, final int chunkSize )
+    {
+        hits.getClass(); // null check
+        worker.getClass(); // null check
+        if ( chunkSize <= 0 ) throw new IllegalArgumentException( "Chunk size must be positive: " + chunkSize );
+        final AtomicBoolean subscribed = new AtomicBoolean();
+        return new Publisher<T>()
+        {
+            @Override
+            public void subscribe( Subscriber<? super T> subscriber )
+            {
+                if ( subscribed.compareAndSet( false, true ) )
+                {
+                    new Stream<T>( subscriber, hits, hits, worker, chunkSize ).start();
+                }
+                else
+                {
+                    subscriber.onSubscribe( new Subscription()
+                    {
+                        @Override
+                        public void request( long n )
+                        {
+                            // nothing to deliver
+                        }
+
+                        @Override
+                        public void cancel()
+                        {
+                            // nothing to release
+                        }
+                    } );
+                    subscriber.onError( new IllegalStateException( "Index hits can only be subscribed to once" ) );
+                }
+            }
+        };
+    }
+
+    private static final class Stream<T> implements Subscription, Runnable
+    {
+        private final Subscriber<? super T> subscriber;
+        private final Iterable<T> source;
+        private final IndexHits<T> hits;
+        private final Executor worker;
+        private final int chunkSize;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger scheduled = new AtomicInteger();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        // only accessed by the worker, which is serialized by the scheduled counter
+        private Iterator<T> iterator;
+        private boolean done;
+
+        Stream( Subscriber<? super T> subscriber, Iterable<T> source, IndexHits<T> hits, Executor worker,
+                int chunkSize )
+        {
+            this.subscriber = subscriber;
+            this.source = source;
+            this.hits = hits;
+            this.worker = worker;
+            this.chunkSize = chunkSize;
+        }
+
+        void start()
+        {
+            subscriber.onSubscribe( this );
+            schedule(); // completes empty sources without demand
+        }
+
+        @Override
+        public void request( long n )
+        {
+            if ( n <= 0 )
+            {
+                invalidRequest = new IllegalArgumentException( "Non-positive request: " + n );
+            }
+            else
+            {
+                for ( long current; ; )
+                {
+                    current = demand.get();
+                    long updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                    if ( demand.compareAndSet( current, updated ) ) break;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule()
+        {
+            if ( scheduled.getAndIncrement() != 0 ) return;
+            try
+            {
+                worker.execute( this );
+            }
+            catch ( RuntimeException e )
+            {
+                fail( e );
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            int emitted = 0;
+            do
+            {
+                if ( !done ) emitted = drain( emitted );
+                if ( emitted < 0 )
+                {
+                    // the chunk is full, let other work run before continuing
+                    scheduled.set( 1 );
+                    try
+                    {
+                        worker.execute( this );
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        fail( e ); // leaves the counter raised, nothing is scheduled after a failure
+                    }
+                    return;
+                }
+            }
+            while ( scheduled.decrementAndGet() != 0 );
+        }
+
+        /**
+         * Returns the number of items emitted in this run so far, or -1 if more could be emitted after the chunk.
+         */
+        private int drain( int emitted )
+        {
+            if ( cancelled )
+            {
+                finish( null, false );
+                return emitted;
+            }
+            if ( invalidRequest != null )
+            {
+                finish( invalidRequest, true );
+                return emitted;
+            }
+            while ( true )
+            {
+                T item;
+                try
+                {
+                    if ( iterator == null ) iterator = source.iterator();
+                    if ( !iterator.hasNext() )
+                    {
+                        finish( null, true );
+                        return emitted;
+                    }
+                    if ( cancelled || demand.get() == 0 ) return emitted;
+                    if ( emitted == chunkSize ) return -1;
+                    item = iterator.next();
+                }
+                catch ( RuntimeException e )
+                {
+                    finish( e, true );
+                    return emitted;
+                }
+                if ( demand.get() != Long.MAX_VALUE ) demand.decrementAndGet();
+                emitted++;
+                try
+                {
+                    subscriber.onNext( item );
+                }
+                catch ( RuntimeException e )
+                {
+                    fail( e );
+                    return emitted;
+                }
+            }
+        }
+
+        private void finish( Throwable failure, boolean signal )
+        {
+            done = true;
+            release();
+            if ( !signal || cancelled ) return;
+            if ( failure != null ) subscriber.onError( failure );
+            else subscriber.onComplete();
+        }
+
+        /**
+         * Ends the stream on a failure outside of the source, such as a rejected execution or a throwing subscriber.
+         */
+        private void fail( RuntimeException failure )
+        {
+            done = true;
+            cancelled = true;
+            release();
+            subscriber.onError( failure );
+        }
+
+        private void release()
+        {
+            if ( hits != null && released.compareAndSet( false, true ) ) hits.close();
+        }
+    }
+}
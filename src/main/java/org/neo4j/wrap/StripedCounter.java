@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads concurrent increments over several cells, so that threads counting at the same time rarely
+ * contend on the same one.
+ */
+final class StripedCounter
+{
+    private static final int STRIPES = 16, PADDING = 8; // cells a cache line apart
+
+    private final AtomicLongArray cells = new AtomicLongArray( STRIPES * PADDING );
+
+    /**
+     * Returns the new count of the cell of the calling thread, a cheap way to act on every so many increments.
+     */
+    long increment()
+    {
+        int stripe = (int) ( Thread.currentThread().getId() & ( STRIPES - 1 ) );
+        return cells.incrementAndGet( stripe * PADDING );
+    }
+
+    void decrement()
+    {
+        int stripe = (int) ( Thread.currentThread().getId() & ( STRIPES - 1 ) );
+        cells.decrementAndGet( stripe * PADDING );
+    }
+
+    long sum()
+    {
+        long sum = 0;
+        for ( int stripe = 0; stripe < STRIPES; stripe++ )
+            sum += cells.get( stripe * PADDING );
+        return sum;
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Limits the rate at which each tenant can create nodes and relationships. The tenant is bound to the creating
+ * thread with {@link #bindTenant(String)}, creations on threads without a tenant are not limited. Each tenant has a
+ * token bucket, refilled at a steady rate up to a burst size, and a creation without a token is rejected with a
+ * {@link QuotaExceededException} before it reaches the underlying database. A creation that fails after it was
+ * charged, in a later interceptor or in the underlying database, is refunded.
+ * <p>
+ * The counts are of creation attempts that were not rejected, not of committed creations: a creation whose
+ * transaction rolls back stays counted and charged.
+ * <p>
+ * Pass an instance to the constructor of the database as an {@link Interceptor}.
+ */
+public final class TenantQuotas extends Interceptor
+{
+    private final ThreadLocal<String> tenant = new ThreadLocal<String>();
+    private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<String, Tenant>();
+    private final double defaultRate;
+    private final long defaultBurst;
+
+    /**
+     * @param creationsPerSecond the default rate for tenants without a limit of their own.
+     * @param burst the default number of creations a tenant can make at once after being idle.
+     */
+    public TenantQuotas( double creationsPerSecond, long burst )
+    {
+        checkLimit( creationsPerSecond, burst );
+        this.defaultRate = creationsPerSecond;
+        this.defaultBurst = burst;
+    }
+
+    /**
+     * Binds the tenant to charge creations on the current thread to, returning the tenant bound before so that it
+     * can be restored. Pass <code>null</code> to unbind.
+     */
+    public String bindTenant( String tenant )
+    {
+        String previous = this.tenant.get();
+        if ( tenant == null ) this.tenant.remove();
+        else this.tenant.set( tenant );
+        return previous;
+    }
+
+    /**
+     * Sets the limit of the given tenant, keeping its counts.
+     */
+    public void setLimit( String tenant, double creationsPerSecond, long burst )
+    {
+        checkLimit( creationsPerSecond, burst );
+        Tenant state = tenants.get( tenant );
+        if ( state == null )
+        {
+            Tenant created = new Tenant( creationsPerSecond, burst );
+            state = tenants.putIfAbsent( tenant, created );
+            if ( state == null ) return;
+        }
+        state.setLimit( creationsPerSecond, burst );
+    }
+
+    public long createdNodes( String tenant )
+    {
+        Tenant state = tenants.get( tenant );
+        return state == null ? 0 : state.nodes.sum();
+    }
+
+    public long createdRelationships( String tenant )
+    {
+        Tenant state = tenants.get( tenant );
+        return state == null ? 0 : state.relationships.sum();
+    }
+
+    public long rejected( String tenant )
+    {
+        Tenant state = tenants.get( tenant );
+        return state == null ? 0 : state.rejections.sum();
+    }
+
+    @Override
+    protected void onNodeCreate()
+    {
+        Tenant state = charge();
+        if ( state != null ) state.nodes.increment();
+    }
+
+    @Override
+    protected void onRelationshipCreate()
+    {
+        Tenant state = charge();
+        if ( state != null ) state.relationships.increment();
+    }
+
+    @Override
+    protected void onNodeCreateFailure()
+    {
+        Tenant state = refund();
+        if ( state != null ) state.nodes.decrement();
+    }
+
+    @Override
+    protected void onRelationshipCreateFailure()
+    {
+        Tenant state = refund();
+        if ( state != null ) state.relationships.decrement();
+    }
+
+    private Tenant charge()
+    {
+        String name = tenant.get();
+        if ( name == null ) return null;
+        Tenant state = tenants.get( name );
+        if ( state == null )
+        {
+            Tenant created = new Tenant( defaultRate, defaultBurst );
+            state = tenants.putIfAbsent( name, created );
+            if ( state == null ) state = created;
+        }
+        if ( !state.tryAcquire( System.nanoTime() ) )
+        {
+            state.rejections.increment();
+            throw new QuotaExceededException( name );
+        }
+        return state;
+    }
+
+    private Tenant refund()
+    {
+        String name = tenant.get();
+        if ( name == null ) return null;
+        Tenant state = tenants.get( name );
+        if ( state != null ) state.release();
+        return state;
+    }
+
+    private static void checkLimit( double creationsPerSecond, long burst )
+    {
+        if ( !( creationsPerSecond > 0 ) || burst <= 0 )
+        {
+            throw new IllegalArgumentException( "Rate and burst must be positive: " + creationsPerSecond + ", "
+                                                + burst );
+        }
+    }
+
+    private static final class Tenant
+    {
+        final StripedCounter nodes = new StripedCounter(), relationships = new StripedCounter(),
+                rejections = new StripedCounter();
+        private double tokensPerNano;
+        private long burst;
+        private double tokens;
+        private long refilled;
+
+        Tenant( double creationsPerSecond, long burst )
+        {
+            this.tokensPerNano = creationsPerSecond / 1e9;
+            this.burst = burst;
+            this.tokens = burst;
+            this.refilled = System.nanoTime();
+        }
+
+        synchronized boolean tryAcquire( long now )
+        {
+            refill( now );
+            if ( tokens < 1 ) return false;
+            tokens--;
+            return true;
+        }
+
+        synchronized void release()
+        {
+            tokens = Math.min( burst, tokens + 1 );
+        }
+
+        synchronized void setLimit( double creationsPerSecond, long burst )
+        {
+            refill( System.nanoTime() ); // the time so far accrues at the old rate
+            this.tokensPerNano = creationsPerSecond / 1e9;
+            this.burst = burst;
+            this.tokens = Math.min( burst, tokens );
+        }
+
+        /**
+         * Adds the tokens accrued since the last refill, so that idle time is credited even while tokens remain.
+         */
+        private void refill( long now )
+        {
+            if ( now <= refilled ) return; // a caller that read the clock before the last refill
+            tokens = Math.min( burst, tokens + ( now - refilled ) * tokensPerNano );
+            refilled = now;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Runs units of work against a {@link WrappedGraphDatabase} on a fixed pool of worker threads, so that the thread
+ * bound transactions of the kernel do not tie up the threads that submit the work. Each unit of work runs in a
+ * transaction of its own, which is committed if the work returns normally and rolled back if it throws.
+ * <p>
+ * The number of queued units of work is bounded, submitting more throws {@link RejectedExecutionException} so that
+ * callers can back off instead of blocking.
+ */
+public final class TransactionExecutor
+{
+    public interface UnitOfWork<T>
+    {
+        T execute( GraphDatabaseService graphdb ) throws Exception;
+    }
+
+    /**
+     * Notified on the worker thread when a unit of work completes.
+     */
+    public interface Callback<T>
+    {
+        void completed( T result );
+
+        void failed( Throwable failure );
+    }
+
+    private final WrappedGraphDatabase graphdb;
+    private final ThreadPoolExecutor executor;
+
+    public TransactionExecutor( WrappedGraphDatabase graphdb, int threads, int queueCapacity )
+    {
+        graphdb.getClass(); // null check
+        this.graphdb = graphdb;
+        this.executor = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( queueCapacity ), new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, "TransactionExecutor-" + count.incrementAndGet() );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy() );
+    }
+
+    /**
+     * Runs the given work in a transaction.
+     */
+    public <T> Future<T> submit( UnitOfWork<T> work )
+    {
+        return submit( work, true, null );
+    }
+
+    public <T> Future<T> submit( UnitOfWork<T> work, Callback<? super T> callback )
+    {
+        return submit( work, true, callback );
+    }
+
+    /**
+     * Runs the given work without a transaction. Reads do not need one in this version of the kernel, which saves
+     * the cost of beginning and finishing it.
+     */
+    public <T> Future<T> submitRead( UnitOfWork<T> work )
+    {
+        return submit( work, false, null );
+    }
+
+    public <T> Future<T> submitRead( UnitOfWork<T> work, Callback<? super T> callback )
+    {
+        return submit( work, false, callback );
+    }
+
+    public int queueDepth()
+    {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination( long timeout, TimeUnit unit ) throws InterruptedException
+    {
+        return executor.awaitTermination( timeout, unit );
+    }
+
+    private <T> Future<T> submit( final UnitOfWork<T> work, final boolean transactional,
+            final Callback<? super T> callback )
+    {
+        work.getClass(); // null check
+        Task<T> task = new Task<T>( new Callable<T>()
+        {
+            @Override
+            public T call() throws Exception
+            {
+                return transactional ? inTransaction( work ) : work.execute( graphdb );
+            }
+        }, callback );
+        executor.execute( task );
+        return task;
+    }
+
+    private <T> T inTransaction( UnitOfWork<T> work ) throws Exception
+    {
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            T result = work.execute( graphdb );
+            tx.success();
+            return result;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private static final class Task<T> extends FutureTask<T>
+    {
+        private final Callback<? super T> callback;
+
+        Task( Callable<T> callable, Callback<? super T> callback )
+        {
+            super( callable );
+            this.callback = callback;
+        }
+
+        @Override
+        protected void done()
+        {
+            if ( callback == null || isCancelled() ) return;
+            T result;
+            try
+            {
+                result = get();
+            }
+            catch ( ExecutionException e )
+            {
+                callback.failed( e.getCause() );
+                return;
+            }
+            catch ( InterruptedException e )
+            {
+                // cannot happen, the task is done
+                Thread.currentThread().interrupt();
+                return;
+            }
+            callback.completed( result );
+        }
+    }
+}
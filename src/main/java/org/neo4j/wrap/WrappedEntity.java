@@ -19,8 +19,19 @@
  */
 package org.neo4j.wrap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.wrap.LatencyMetrics.Operation;
 
 abstract class WrappedEntity<G extends WrappedGraphDatabase, T extends PropertyContainer> implements PropertyContainer
 {
@@ -33,20 +44,25 @@ abstract class WrappedEntity<G extends WrappedGraphDatabase, T extends PropertyC
 
     protected abstract T actual();
 
+    /**
+     * Wrapped entities hash and compare by id, so that putting them into collections never looks up the entity.
+     */
     @Override
-    public int hashCode()
+    public final int hashCode()
     {
-        return actual().hashCode();
+        long id = getId();
+        return (int) ( ( id >>> 32 ) ^ id );
     }
 
     @Override
-    public boolean equals( Object obj )
+    public final boolean equals( Object obj )
     {
         if ( this == obj ) return true;
-        if ( getClass().isInstance( obj ) )
+        if ( obj instanceof WrappedEntity<?, ?> )
         {
             WrappedEntity<?, ?> other = (WrappedEntity<?, ?>) obj;
-            return actual().equals( other.actual() ) && graphdb.equals( other.graphdb );
+            return getId() == other.getId() && ( this instanceof Node ) == ( other instanceof Node )
+                   && ( graphdb == other.graphdb || graphdb.equals( other.graphdb ) );
         }
         return false;
     }
@@ -76,46 +92,216 @@ abstract class WrappedEntity<G extends WrappedGraphDatabase, T extends PropertyC
         return graphdb;
     }
 
+    public abstract long getId();
+
     @Override
     public boolean hasProperty( String key )
     {
-        return actual().hasProperty( key );
+        long start = graphdb.startCall();
+        try
+        {
+            WriteBuffer buffer = graphdb.writeBuffer();
+            if ( buffer != null )
+            {
+                Object value = buffer.get( this, key );
+                if ( value != null ) return value != WriteBuffer.REMOVED;
+            }
+            PropertyCache cache = graphdb.propertyCache();
+            if ( cache == null ) return actual().hasProperty( key );
+            return cachedProperty( cache, key ) != PropertyCache.NO_VALUE;
+        }
+        finally
+        {
+            graphdb.endCall( Operation.HAS_PROPERTY, start, this, key );
+        }
     }
 
     @Override
     public Object getProperty( String key )
     {
-        return actual().getProperty( key );
+        long start = graphdb.startCall();
+        try
+        {
+            WriteBuffer buffer = graphdb.writeBuffer();
+            if ( buffer != null )
+            {
+                Object value = buffer.get( this, key );
+                if ( value == WriteBuffer.REMOVED )
+                {
+                    throw new NotFoundException( "'" + key + "' property not found for " + this );
+                }
+                if ( value != null ) return value;
+            }
+            PropertyCache cache = graphdb.propertyCache();
+            if ( cache == null ) return actual().getProperty( key );
+            Object value = cachedProperty( cache, key );
+            if ( value == PropertyCache.NO_VALUE ) return actual().getProperty( key ); // throws NotFoundException
+            return value;
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_PROPERTY, start, this, key );
+        }
     }
 
     @Override
     public Object getProperty( String key, Object defaultValue )
     {
-        return actual().getProperty( key, defaultValue );
+        long start = graphdb.startCall();
+        try
+        {
+            WriteBuffer buffer = graphdb.writeBuffer();
+            if ( buffer != null )
+            {
+                Object value = buffer.get( this, key );
+                if ( value != null ) return value == WriteBuffer.REMOVED ? defaultValue : value;
+            }
+            PropertyCache cache = graphdb.propertyCache();
+            if ( cache == null ) return actual().getProperty( key, defaultValue );
+            Object value = cachedProperty( cache, key );
+            return value == PropertyCache.NO_VALUE ? defaultValue : value;
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_PROPERTY, start, this, key );
+        }
+    }
+
+    private Object cachedProperty( PropertyCache cache, String key )
+    {
+        boolean node = this instanceof Node;
+        long id = getId();
+        Object value = cache.get( node, id, key );
+        if ( value == null )
+        {
+            long generation = cache.generation();
+            value = actual().getProperty( key, PropertyCache.NO_VALUE );
+            cache.put( node, id, key, value, generation );
+        }
+        return value;
     }
 
     @Override
     public void setProperty( String key, Object value )
     {
-        actual().setProperty( key, value );
+        long start = graphdb.startCall();
+        try
+        {
+            WriteBuffer buffer = graphdb.writeBuffer();
+            if ( buffer == null )
+            {
+                graphdb.changing( WrappedGraphDatabase.PROPERTY_CHANGE );
+                actual().setProperty( key, value );
+            }
+            else
+            {
+                WriteBuffer.check( key, value );
+                // setting a property again only replaces its buffered change
+                if ( buffer.get( this, key ) == null ) graphdb.changing( WrappedGraphDatabase.PROPERTY_CHANGE );
+                buffer.set( this, key, value );
+            }
+            graphdb.propertyWritten( this, key );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.SET_PROPERTY, start, this, key );
+        }
     }
 
     @Override
     public Object removeProperty( String key )
     {
-        return actual().removeProperty( key );
+        long start = graphdb.startCall();
+        try
+        {
+            WriteBuffer buffer = graphdb.writeBuffer();
+            Object value;
+            if ( buffer == null )
+            {
+                graphdb.changing( WrappedGraphDatabase.PROPERTY_CHANGE );
+                value = actual().removeProperty( key );
+            }
+            else
+            {
+                Object buffered = buffer.get( this, key );
+                Object stored = actual().getProperty( key, PropertyCache.NO_VALUE );
+                // only a stored property without a buffered change adds a change, the others replace or cancel one
+                if ( buffered == null && stored != PropertyCache.NO_VALUE )
+                {
+                    graphdb.changing( WrappedGraphDatabase.PROPERTY_CHANGE );
+                }
+                if ( buffered == null ) value = stored == PropertyCache.NO_VALUE ? null : stored;
+                else value = buffered == WriteBuffer.REMOVED ? null : buffered;
+                buffer.remove( this, key, stored != PropertyCache.NO_VALUE );
+            }
+            graphdb.propertyWritten( this, key );
+            return value;
+        }
+        finally
+        {
+            graphdb.endCall( Operation.REMOVE_PROPERTY, start, this, key );
+        }
     }
 
     @Override
     public Iterable<String> getPropertyKeys()
     {
-        return actual().getPropertyKeys();
+        long start = graphdb.startCall();
+        try
+        {
+            WriteBuffer buffer = graphdb.writeBuffer();
+            Map<String, Object> changes = buffer == null ? null : buffer.changes( this );
+            if ( changes != null )
+            {
+                Set<String> keys = new LinkedHashSet<String>();
+                for ( String key : actual().getPropertyKeys() )
+                    keys.add( key );
+                for ( Map.Entry<String, Object> change : changes.entrySet() )
+                {
+                    if ( change.getValue() == WriteBuffer.REMOVED ) keys.remove( change.getKey() );
+                    else keys.add( change.getKey() );
+                }
+                return Collections.unmodifiableSet( keys );
+            }
+            PropertyCache cache = graphdb.propertyCache();
+            if ( cache == null ) return actual().getPropertyKeys();
+            boolean node = this instanceof Node;
+            long id = getId();
+            String[] keys = cache.keys( node, id );
+            if ( keys == null )
+            {
+                long generation = cache.generation();
+                List<String> all = new ArrayList<String>();
+                for ( String key : actual().getPropertyKeys() )
+                    all.add( key );
+                keys = all.toArray( new String[all.size()] );
+                cache.putKeys( node, id, keys, generation );
+            }
+            return Collections.unmodifiableList( Arrays.asList( keys ) );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_PROPERTY_KEYS, start, this, null );
+        }
     }
 
     @SuppressWarnings( "deprecation" )
     @Override
     public Iterable<Object> getPropertyValues()
     {
-        return actual().getPropertyValues();
+        long start = graphdb.startCall();
+        try
+        {
+            WriteBuffer buffer = graphdb.writeBuffer();
+            if ( buffer == null || buffer.changes( this ) == null ) return actual().getPropertyValues();
+            List<Object> values = new ArrayList<Object>();
+            for ( String key : getPropertyKeys() )
+                values.add( getProperty( key ) );
+            return values;
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_PROPERTY_VALUES, start, this, null );
+        }
     }
 }
@@ -167,7 +167,7 @@ class WrappedEventHandler<T> extends WrappedObject<TransactionEventHandler<T>> i
         @Override
         public Node entity()
         {
-            return graphdb.node( wrapped.entity(), false );
+            return graphdb.wrapNode( wrapped.entity() );
         }
     }
 
@@ -181,7 +181,7 @@ class WrappedEventHandler<T> extends WrappedObject<TransactionEventHandler<T>> i
         @Override
         public Relationship entity()
         {
-            return graphdb.relationship( wrapped.entity(), false );
+            return graphdb.wrapRelationship( wrapped.entity() );
         }
     }
 
@@ -19,13 +19,19 @@
  */
 package org.neo4j.wrap;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.PropertyContainer;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
@@ -40,17 +46,32 @@ import org.neo4j.graphdb.index.ReadableRelationshipIndex;
 import org.neo4j.graphdb.index.RelationshipAutoIndexer;
 import org.neo4j.graphdb.index.RelationshipIndex;
 import org.neo4j.helpers.collection.IterableWrapper;
+import org.neo4j.helpers.collection.IteratorWrapper;
 import org.neo4j.kernel.AbstractGraphDatabase;
 import org.neo4j.kernel.Config;
+import org.neo4j.kernel.Traversal;
 
 public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
 {
+    private static final Logger log = Logger.getLogger( WrappedGraphDatabase.class.getName() );
+
     protected final GraphDatabaseService graphdb;
+    private final Interceptor[] interceptors;
 
-    public WrappedGraphDatabase( GraphDatabaseService graphdb )
+    @SuppressWarnings( "unchecked" )
+    public WrappedGraphDatabase( GraphDatabaseService graphdb, Interceptor... interceptors )
     {
         graphdb.getClass(); // null check
         this.graphdb = graphdb;
+        this.interceptors = interceptors.clone();
+        for ( Interceptor interceptor : this.interceptors )
+        {
+            interceptor.getClass(); // null check
+            if ( interceptor instanceof TransactionEventHandler<?> )
+            {
+                register( (TransactionEventHandler<Object>) interceptor );
+            }
+        }
     }
 
     @Override
@@ -76,6 +97,78 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
     protected abstract WrappedRelationship<? extends WrappedGraphDatabase> relationship( Relationship relationship,
             boolean created );
 
+    /**
+     * Creates a wrapper for the node with the given id, which is known to exist. The default implementation looks the
+     * node up in the underlying database, subclasses that wrap by id can avoid that.
+     */
+    protected WrappedNode<? extends WrappedGraphDatabase> node( long id )
+    {
+        return node( graphdb.getNodeById( id ), false );
+    }
+
+    /**
+     * Creates a wrapper for the relationship with the given id, which is known to exist.
+     */
+    protected WrappedRelationship<? extends WrappedGraphDatabase> relationship( long id )
+    {
+        return relationship( graphdb.getRelationshipById( id ), false );
+    }
+
+    /**
+     * Wraps a node read from the underlying database, recording the access if {@link HotEntities} are tracked.
+     */
+    final WrappedNode<? extends WrappedGraphDatabase> wrapNode( Node node )
+    {
+        long id = node.getId();
+        HotEntities hot = hotEntities;
+        if ( hot != null ) hot.record( true, id );
+        for ( Interceptor interceptor : interceptors )
+            interceptor.onNodeAccess( id );
+        return node( node, false );
+    }
+
+    final WrappedNode<? extends WrappedGraphDatabase> wrapNode( long id )
+    {
+        HotEntities hot = hotEntities;
+        if ( hot != null ) hot.record( true, id );
+        for ( Interceptor interceptor : interceptors )
+            interceptor.onNodeAccess( id );
+        return node( id );
+    }
+
+    final WrappedRelationship<? extends WrappedGraphDatabase> wrapRelationship( Relationship relationship )
+    {
+        long id = relationship.getId();
+        HotEntities hot = hotEntities;
+        if ( hot != null ) hot.record( false, id );
+        for ( Interceptor interceptor : interceptors )
+            interceptor.onRelationshipAccess( id );
+        return relationship( relationship, false );
+    }
+
+    final WrappedRelationship<? extends WrappedGraphDatabase> wrapRelationship( long id )
+    {
+        HotEntities hot = hotEntities;
+        if ( hot != null ) hot.record( false, id );
+        for ( Interceptor interceptor : interceptors )
+            interceptor.onRelationshipAccess( id );
+        return relationship( id );
+    }
+
+    private volatile HotEntities hotEntities;
+
+    /**
+     * Feeds every node and relationship handed out by this wrapper to the given tracker, replacing any previous one.
+     * Pass <code>null</code> to stop tracking.
+     */
+    public final void setHotEntities( HotEntities hotEntities )
+    {
+        HotEntities previous = this.hotEntities;
+        if ( hotEntities != null ) hotEntities.attach( this );
+        this.hotEntities = hotEntities;
+        if ( previous != null && previous != hotEntities ) previous.detach();
+    }
+
     Iterable<Node> nodes( final Iterable<Node> nodes )
     {
         return new IterableWrapper<Node, Node>( nodes )
@@ -83,7 +176,7 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
             @Override
             protected Node underlyingObjectToObject( Node object )
             {
-                return node( object, false );
+                return wrapNode( object );
             }
         };
     }
@@ -95,7 +188,111 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
             @Override
             protected Relationship underlyingObjectToObject( Relationship object )
             {
-                return relationship( object, false );
+                return wrapRelationship( object );
+            }
+        };
+    }
+
+    /**
+     * Wraps the relationships of the node with the given id, prefetching the nodes at their other ends in batches if
+     * a {@link Prefetcher} is installed.
+     */
+    Iterable<Relationship> relationships( final long nodeId, final Iterable<Relationship> relationships )
+    {
+        final Prefetcher prefetcher = this.prefetcher;
+        if ( prefetcher == null ) return relationships( relationships );
+        prefetcher.touch( nodeId );
+        return new Iterable<Relationship>()
+        {
+            @Override
+            public Iterator<Relationship> iterator()
+            {
+                final Prefetcher.Batch batch = prefetcher.batch();
+                return new IteratorWrapper<Relationship, Relationship>( relationships.iterator() )
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        boolean hasNext = super.hasNext();
+                        if ( !hasNext ) batch.flush();
+                        return hasNext;
+                    }
+
+                    @Override
+                    protected Relationship underlyingObjectToObject( Relationship object )
+                    {
+                        batch.add( WrappedRelationship.otherNodeId( object, nodeId ) );
+                        return wrapRelationship( object );
+                    }
+                };
+            }
+        };
+    }
+
+    volatile Prefetcher prefetcher;
+
+    /**
+     * Installs a prefetcher for the nodes that traversals and relationship iterations through this wrapper are
+     * about to reach, shutting down any previous one. Pass <code>null</code> to disable prefetching. The prefetcher
+     * is shut down with this database.
+     */
+    public final synchronized void setPrefetcher( Prefetcher prefetcher )
+    {
+        if ( prefetcher != null ) prefetcher.attach( graphdb );
+        Prefetcher previous = this.prefetcher;
+        this.prefetcher = prefetcher;
+        if ( previous != null && previous != prefetcher ) previous.shutdown();
+    }
+
+    private volatile LatencyMetrics latencyMetrics;
+
+    /**
+     * Times the calls made through the entities, indexes and traversers of this wrapper with the given metrics,
+     * replacing any previous ones. Pass <code>null</code> to stop timing.
+     */
+    public final void setLatencyMetrics( LatencyMetrics latencyMetrics )
+    {
+        this.latencyMetrics = latencyMetrics;
+    }
+
+    final long startCall()
+    {
+        LatencyMetrics metrics = latencyMetrics;
+        return metrics == null ? LatencyMetrics.NOT_TIMED : metrics.start();
+    }
+
+    final void endCall( LatencyMetrics.Operation operation, long start, Object subject, Object key )
+    {
+        endCall( operation, start, subject, key, null );
+    }
+
+    final void endCall( LatencyMetrics.Operation operation, long start, Object subject, Object key, Object value )
+    {
+        if ( start == LatencyMetrics.NOT_TIMED ) return;
+        LatencyMetrics metrics = latencyMetrics;
+        if ( metrics != null ) metrics.end( operation, start, subject, key, value );
+    }
+
+    final <T> Iterator<T> timed( LatencyMetrics.Operation operation, Iterator<T> iterator, Object subject, Object key,
+            Object value )
+    {
+        LatencyMetrics metrics = latencyMetrics;
+        return metrics == null ? iterator : metrics.timed( operation, iterator, subject, key, value );
+    }
+
+    /**
+     * Times the iteration of the given iterable, if latency metrics are installed when this is called.
+     */
+    final <T> Iterable<T> timed( final LatencyMetrics.Operation operation, final Iterable<T> iterable,
+            final Object subject, final Object key, final Object value )
+    {
+        if ( latencyMetrics == null ) return iterable;
+        return new Iterable<T>()
+        {
+            @Override
+            public Iterator<T> iterator()
+            {
+                return timed( operation, iterable.iterator(), subject, key, value );
             }
         };
     }
@@ -126,6 +323,12 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         return new WrappedIndex.WrappedRelationshipIndex( this, index );
     }
 
+    void indexQueried( String indexName )
+    {
+        for ( Interceptor interceptor : interceptors )
+            interceptor.onIndexQuery( indexName );
+    }
+
     protected void onBeginTransaction() throws TransactionNotAllowedException
     {
         // default: do nothing
@@ -146,11 +349,89 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         // default: do nothing
     }
 
+    /**
+     * Called once a transaction is open, after the begin hooks ran and the underlying database began its transaction,
+     * and paired with exactly one call to {@link #onTransactionClosed()} when it is finished. Unlike the begin and
+     * finish hooks the calls are paired even when a begin hook does not allow the transaction, or the underlying
+     * database fails to begin it. Nested transactions are included.
+     */
+    protected void onTransactionOpened()
+    {
+        // default: do nothing
+    }
+
+    /**
+     * Called after the underlying transaction is finished, once for each call to {@link #onTransactionOpened()}.
+     */
+    protected void onTransactionClosed()
+    {
+        // default: do nothing
+    }
+
     protected void onNodeCreate()
     {
         // default: do nothing
     }
 
+    protected void onRelationshipCreate()
+    {
+        // default: do nothing
+    }
+
+    /**
+     * Invoked before index entries are added or removed, before an index is created, deleted or reconfigured, and
+     * before an auto indexer is reconfigured through this wrapper.
+     */
+    protected void onIndexChange()
+    {
+        // default: do nothing
+    }
+
+    void relationshipCreate()
+    {
+        entityCreate( false );
+    }
+
+    void relationshipCreateFailed()
+    {
+        entityCreateFailed( false, interceptors.length );
+    }
+
+    /**
+     * Tells the interceptors and this database about a creation. If one of them rejects it, the interceptors told
+     * before are told that it failed.
+     */
+    private void entityCreate( boolean node )
+    {
+        int told = 0;
+        try
+        {
+            for ( ; told < interceptors.length; told++ )
+            {
+                if ( node ) interceptors[told].onNodeCreate();
+                else interceptors[told].onRelationshipCreate();
+            }
+            if ( node ) onNodeCreate();
+            else onRelationshipCreate();
+            changing( ENTITY_CHANGE );
+        }
+        catch ( RuntimeException e )
+        {
+            entityCreateFailed( node, told );
+            throw e;
+        }
+        entityCreated();
+    }
+
+    private void entityCreateFailed( boolean node, int told )
+    {
+        for ( int i = 0; i < told; i++ )
+        {
+            if ( node ) interceptors[i].onNodeCreateFailure();
+            else interceptors[i].onRelationshipCreateFailure();
+        }
+    }
+
     protected void onShutdown()
     {
         // default: do nothing
@@ -162,6 +443,8 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         boolean openTx;
         try
         {
+            for ( Interceptor interceptor : interceptors )
+                interceptor.onBeginTransaction();
             onBeginTransaction();
             openTx = true;
         }
@@ -170,44 +453,492 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
             exception.throwCause();
             openTx = false;
         }
-        return new WrappedTransaction( this, openTx ? graphdb.beginTx() : null );
+        Transaction underlying = null;
+        if ( openTx )
+        {
+            try
+            {
+                underlying = graphdb.beginTx();
+            }
+            catch ( RuntimeException e )
+            {
+                undoBegin();
+                throw e;
+            }
+        }
+        WrappedTransaction outer = transaction.get();
+        WrappedTransaction tx = new WrappedTransaction( this, underlying, outer );
+        if ( outer == null )
+        {
+            if ( openTx && writeBehind )
+            {
+                tx.buffer = new WriteBuffer();
+                bufferedTransactions.incrementAndGet();
+            }
+            transaction.set( tx );
+        }
+        onTransactionOpened();
+        return tx;
+    }
+
+    /**
+     * Runs the finish hooks for a transaction the underlying database failed to begin, since no transaction will.
+     */
+    private void undoBegin()
+    {
+        try
+        {
+            for ( Interceptor interceptor : interceptors )
+                interceptor.onFinishTransaction();
+            onFinishTransaction();
+        }
+        catch ( RuntimeException e )
+        {
+            // the failure to begin is the one to report
+        }
+    }
+
+    /**
+     * Runs the given work in a transaction of its own, and runs it again in a new transaction when it fails in a way
+     * the given policy retries, such as a deadlock. The work must not have effects outside of the database that
+     * cannot be repeated. Returns what the successful attempt returned, or throws the failure of the last attempt.
+     * It cannot be called within an open transaction, since the work could then not be rolled back on its own.
+     */
+    public final <T> T execute( TransactionExecutor.UnitOfWork<T> work, RetryPolicy policy ) throws Exception
+    {
+        if ( transaction.get() != null )
+        {
+            throw new IllegalStateException( "Cannot retry work within an open transaction" );
+        }
+        policy.started();
+        for ( int attempt = 1;; attempt++ )
+        {
+            try
+            {
+                T result;
+                Transaction tx = beginTx();
+                try
+                {
+                    result = work.execute( this );
+                    tx.success();
+                }
+                finally
+                {
+                    tx.finish();
+                }
+                policy.succeeded();
+                return result;
+            }
+            catch ( Exception failure )
+            {
+                if ( !policy.retry( failure, attempt ) ) throw failure;
+            }
+        }
+    }
+
+    private static final String LOCK_KEY = "__org.neo4j.wrap.lock__";
+
+    /**
+     * Takes the write locks of the given nodes in the current transaction, in order of their ids, and holds them
+     * until the transaction finishes. Transactions that lock all the nodes they are going to write this way, before
+     * writing any of them, cannot deadlock on each other whatever order they write the nodes in.
+     */
+    public final void lockForWrite( Node... nodes )
+    {
+        long[] ids = new long[nodes.length];
+        for ( int i = 0; i < ids.length; i++ )
+            ids[i] = nodes[i].getId();
+        lockForWrite( ids );
+    }
+
+    public final void lockForWrite( long[] nodeIds )
+    {
+        long[] ids = nodeIds.clone();
+        Arrays.sort( ids );
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            if ( i > 0 && ids[i] == ids[i - 1] ) continue;
+            // the lock manager of the kernel locks its internal node objects, which are not reachable from here, but
+            // removing a property takes the write lock of the node first, and removing one it does not have changes
+            // nothing
+            graphdb.getNodeById( ids[i] ).removeProperty( LOCK_KEY );
+        }
+    }
+
+    /**
+     * Begins a transaction for bulk operations, that is committed and reopened whenever it reaches the soft limit set
+     * with {@link #setTransactionLimits(long, long)}, so that its state in memory stays bounded. The parts committed
+     * this way stay committed even if the transaction is rolled back later. A bulk transaction begun within another
+     * transaction is part of it, and is only split if the outer transaction is a bulk transaction.
+     */
+    public final Transaction beginBulkTx()
+    {
+        WrappedTransaction tx = beginTx();
+        if ( tx.outer == null ) tx.bulk = true;
+        return tx;
+    }
+
+    /**
+     * Returns a {@link BulkImport} into this database, that imports on the given number of threads and commits the
+     * given number of records in each transaction.
+     */
+    public final BulkImport bulkImport( int threads, int batchSize, int expectedNodes )
+    {
+        return new BulkImport( this, threads, batchSize, expectedNodes );
+    }
+
+    static final int ENTITY_CHANGE = 0, PROPERTY_CHANGE = 1, INDEX_CHANGE = 2;
+    private volatile boolean limited;
+    private volatile long softLimit = Long.MAX_VALUE, hardLimit = Long.MAX_VALUE;
+
+    /**
+     * Limits the number of changes a transaction begun through this wrapper may make, counting the entities created
+     * or deleted, the properties set or removed and the index entries added or removed. With write behind, a property
+     * changed repeatedly within a transaction counts as the one change that is applied. A transaction that reaches
+     * the soft limit is logged, or split if it is a bulk transaction. A change past the hard limit fails with a
+     * {@link TransactionTooLargeException} and marks the transaction for rollback. Pass {@link Long#MAX_VALUE} for
+     * no limit.
+     */
+    public final void setTransactionLimits( long softLimit, long hardLimit )
+    {
+        if ( softLimit <= 0 || hardLimit < softLimit )
+        {
+            throw new IllegalArgumentException( "Invalid limits, soft=" + softLimit + ", hard=" + hardLimit );
+        }
+        this.softLimit = softLimit;
+        this.hardLimit = hardLimit;
+        this.limited = softLimit != Long.MAX_VALUE;
+    }
+
+    /**
+     * Counts a change of the given kind against the limits of the current transaction, before it is made.
+     */
+    final void changing( int kind )
+    {
+        if ( !limited ) return;
+        WrappedTransaction tx = transaction.get();
+        if ( tx != null ) tx.changing( kind, softLimit, hardLimit );
+    }
+
+    private volatile boolean writeBehind;
+    private final AtomicInteger bufferedTransactions = new AtomicInteger();
+
+    /**
+     * Makes property changes through the entities of this wrapper be buffered by the transactions begun afterwards,
+     * and applied to the underlying database when the transaction is marked successful. Repeated changes of the same
+     * property are coalesced, and reads within the transaction see the buffered changes.
+     * <p>
+     * Buffered changes take their write locks, and are validated by the underlying database, only when they are
+     * applied.
+     */
+    public final void setWriteBehind( boolean writeBehind )
+    {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * Returns the write buffer of the current transaction, or <code>null</code> if writes are not buffered.
+     */
+    WriteBuffer writeBuffer()
+    {
+        // transactions begun before write behind was turned off may still buffer
+        if ( !writeBehind && bufferedTransactions.get() == 0 ) return null;
+        WrappedTransaction tx = transaction.get();
+        return tx == null ? null : tx.buffer;
+    }
+
+    private final ThreadLocal<WrappedTransaction> transaction = new ThreadLocal<WrappedTransaction>();
+
+    /**
+     * Returns the outermost transaction opened through this wrapper on the current thread, or <code>null</code>.
+     */
+    WrappedTransaction currentTransaction()
+    {
+        return transaction.get();
+    }
+
+    private volatile PropertyCache propertyCache;
+
+    /**
+     * Installs a cache for property reads through the entities of this wrapper, replacing any previous one. Pass
+     * <code>null</code> to disable caching. If the underlying database is an instance of a highly available cluster,
+     * the cache should have a time to live, since the transactions pulled from the other instances do not invalidate
+     * it.
+     */
+    public final void setPropertyCache( PropertyCache cache )
+    {
+        PropertyCache previous;
+        synchronized ( this )
+        {
+            previous = propertyCache;
+            if ( cache != null ) graphdb.registerTransactionEventHandler( cache );
+            propertyCache = cache;
+        }
+        if ( previous != null && previous != cache )
+        {
+            graphdb.unregisterTransactionEventHandler( previous );
+            previous.clear();
+        }
+    }
+
+    /**
+     * Returns the installed property cache regardless of what the current transaction has written.
+     */
+    PropertyCache installedPropertyCache()
+    {
+        return propertyCache;
+    }
+
+    /**
+     * Returns the property cache readers on the current thread may use, or <code>null</code> if there is none or if
+     * the current transaction has written through this wrapper, in which case reads must see uncommitted state.
+     */
+    PropertyCache propertyCache()
+    {
+        PropertyCache cache = propertyCache;
+        if ( cache == null ) return null;
+        WrappedTransaction tx = transaction.get();
+        return tx != null && tx.written ? null : cache;
+    }
+
+    void propertyWritten( WrappedEntity<?, ?> entity, String key )
+    {
+        WrappedTransaction tx = transaction.get();
+        if ( tx != null ) tx.written = true;
+        PropertyCache cache = propertyCache;
+        if ( cache != null ) cache.invalidate( entity instanceof Node, entity.getId(), key );
+    }
+
+    /**
+     * A created entity may reuse the id of one that was found missing, so the current transaction must no longer be
+     * answered from the ids remembered as missing.
+     */
+    private void entityCreated()
+    {
+        WrappedTransaction tx = transaction.get();
+        if ( tx != null ) tx.written = true;
+    }
+
+    void entityDeleted( WrappedEntity<?, ?> entity )
+    {
+        WrappedTransaction tx = transaction.get();
+        if ( tx != null )
+        {
+            tx.written = true;
+            if ( tx.buffer != null ) tx.buffer.discard( entity );
+        }
+        PropertyCache cache = propertyCache;
+        if ( cache != null ) cache.invalidate( entity instanceof Node, entity.getId() );
     }
 
     @Override
     public final Node createNode()
     {
-        onNodeCreate();
-        return node( graphdb.createNode(), true );
+        entityCreate( true );
+        Node node;
+        try
+        {
+            node = graphdb.createNode();
+        }
+        catch ( RuntimeException e )
+        {
+            entityCreateFailed( true, interceptors.length );
+            throw e;
+        }
+        return node( node, true );
     }
 
     @Override
     public final Node getNodeById( long id )
     {
-        return node( graphdb.getNodeById( id ), false );
+        return wrapNode( graphdb.getNodeById( id ) );
     }
 
     @Override
     public final Relationship getRelationshipById( long id )
     {
-        return relationship( graphdb.getRelationshipById( id ), false );
+        return wrapRelationship( graphdb.getRelationshipById( id ) );
+    }
+
+    /**
+     * Returns the node with the given id, or <code>null</code> if there is none. Ids found missing or deleted are
+     * remembered for a second, so that looking them up again does not reach the store. Entities created by the other
+     * instances of a highly available cluster may be reported missing for that long.
+     */
+    public final Node findNodeById( long id )
+    {
+        MissingIds missing = missingIds();
+        boolean cacheable = cacheable();
+        if ( id < 0 || cacheable && missing.contains( true, id ) || id > highestPossibleIdInUse( Node.class ) )
+        {
+            return null;
+        }
+        long generation = missing.generation();
+        try
+        {
+            return wrapNode( graphdb.getNodeById( id ) );
+        }
+        catch ( NotFoundException e )
+        {
+            if ( cacheable ) missing.add( true, id, generation );
+            return null;
+        }
+    }
+
+    /**
+     * Returns the relationship with the given id, or <code>null</code> if there is none.
+     */
+    public final Relationship findRelationshipById( long id )
+    {
+        MissingIds missing = missingIds();
+        boolean cacheable = cacheable();
+        if ( id < 0 || cacheable && missing.contains( false, id )
+             || id > highestPossibleIdInUse( Relationship.class ) )
+        {
+            return null;
+        }
+        long generation = missing.generation();
+        try
+        {
+            return wrapRelationship( graphdb.getRelationshipById( id ) );
+        }
+        catch ( NotFoundException e )
+        {
+            if ( cacheable ) missing.add( false, id, generation );
+            return null;
+        }
+    }
+
+    private static final int MISSING_IDS = 10000;
+    private static final long MISSING_ID_EXPIRY = TimeUnit.SECONDS.toNanos( 1 );
+    private final Object missingIdsLock = new Object();
+    private volatile MissingIds missingIds;
+
+    private MissingIds missingIds()
+    {
+        MissingIds missing = missingIds;
+        if ( missing == null )
+        {
+            synchronized ( missingIdsLock )
+            {
+                if ( ( missing = missingIds ) == null )
+                {
+                    missing = new MissingIds( MISSING_IDS, MISSING_ID_EXPIRY );
+                    graphdb.registerTransactionEventHandler( missing );
+                    missingIds = missing;
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Lookups may only be remembered if the current transaction has not deleted anything, since it may roll back.
+     */
+    private boolean cacheable()
+    {
+        WrappedTransaction tx = transaction.get();
+        return tx == null || !tx.written;
+    }
+
+    private long highestPossibleIdInUse( Class<?> type )
+    {
+        if ( !( graphdb instanceof AbstractGraphDatabase ) ) return Long.MAX_VALUE;
+        return ( (AbstractGraphDatabase) graphdb ).getConfig().getGraphDbModule().getNodeManager()
+                .getHighestPossibleIdInUse( type );
     }
 
     @Override
     public final Node getReferenceNode()
     {
-        return node( graphdb.getReferenceNode(), false );
+        return wrapNode( graphdb.getReferenceNode() );
     }
 
+    /**
+     * The returned nodes are checked against the cancellation token bound, or the default time budget set, when
+     * their iteration starts.
+     */
     @Override
     public final Iterable<Node> getAllNodes()
     {
-        return nodes( graphdb.getAllNodes() );
+        final Iterable<Node> nodes = graphdb.getAllNodes();
+        return new Iterable<Node>()
+        {
+            @Override
+            public Iterator<Node> iterator()
+            {
+                final CancellationToken token = cancellationToken();
+                return new IteratorWrapper<Node, Node>( nodes.iterator() )
+                {
+                    @Override
+                    protected Node underlyingObjectToObject( Node object )
+                    {
+                        if ( token != null ) token.check();
+                        return wrapNode( object );
+                    }
+                };
+            }
+        };
+    }
+
+    private final ThreadLocal<CancellationToken> cancellation = new ThreadLocal<CancellationToken>();
+    private volatile long defaultTimeBudget;
+
+    /**
+     * Binds a cancellation token to the traversals and index queries started by the current thread, replacing any
+     * token bound before, which is returned so that it can be restored. Pass <code>null</code> to unbind.
+     */
+    public final CancellationToken bindCancellationToken( CancellationToken token )
+    {
+        CancellationToken previous = cancellation.get();
+        if ( token == null ) cancellation.remove();
+        else cancellation.set( token );
+        return previous;
+    }
+
+    /**
+     * Sets the time budget of traversals and index queries started while no cancellation token is bound. A time of
+     * zero removes the default budget.
+     */
+    public final void setDefaultTimeBudget( long time, TimeUnit unit )
+    {
+        if ( time < 0 ) throw new IllegalArgumentException( "Negative time budget: " + time );
+        defaultTimeBudget = unit.toNanos( time );
+    }
+
+    /**
+     * Returns the token for an operation started now on the current thread, or <code>null</code> if it may run
+     * unchecked.
+     */
+    CancellationToken cancellationToken()
+    {
+        CancellationToken token = cancellation.get();
+        if ( token != null ) return token;
+        long budget = defaultTimeBudget;
+        return budget == 0 ? null : CancellationToken.withTimeout( budget, TimeUnit.NANOSECONDS );
     }
 
     @Override
     public final Iterable<RelationshipType> getRelationshipTypes()
     {
-        return graphdb.getRelationshipTypes();
+        return typeDictionary.relationshipTypes();
+    }
+
+    final RelationshipCursors relationshipCursors = new RelationshipCursors( this );
+
+    private final RelationshipTypeDictionary typeDictionary = new RelationshipTypeDictionary( this );
+
+    public final RelationshipTypeDictionary typeDictionary()
+    {
+        return typeDictionary;
+    }
+
+    /**
+     * Returns a traversal description of the traversal framework whose paths and entities are wrapped by this database.
+     */
+    public WrappedTraversalDescription traversalDescription()
+    {
+        return new WrappedTraversalDescription( this, Traversal.description() );
     }
 
     @Override
@@ -215,10 +946,15 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
     {
         try
         {
+            for ( Interceptor interceptor : interceptors )
+                interceptor.onShutdown();
             onShutdown();
         }
         finally
         {
+            Prefetcher prefetcher = this.prefetcher;
+            if ( prefetcher != null ) prefetcher.shutdown();
+            setHotEntities( null );
             graphdb.shutdown();
         }
     }
@@ -228,6 +964,16 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
 
     @Override
     public <T> TransactionEventHandler<T> registerTransactionEventHandler( TransactionEventHandler<T> handler )
+    {
+        register( handler );
+        return handler;
+    }
+
+    /**
+     * Registers the handler with the underlying database, also for the constructor, where subclasses that override
+     * {@link #registerTransactionEventHandler(TransactionEventHandler)} are not initialized yet.
+     */
+    private <T> void register( TransactionEventHandler<T> handler )
     {
         TransactionEventHandler<?> wrapped;
         synchronized ( handlers )
@@ -236,7 +982,6 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
             if ( wrapped == null ) handlers.put( handler, wrapped = new WrappedEventHandler<T>( this, handler ) );
         }
         graphdb.registerTransactionEventHandler( wrapped );
-        return handler;
     }
 
     @Override
@@ -269,12 +1014,14 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         @Override
         public String setConfiguration( Index<? extends PropertyContainer> index, String key, String value )
         {
+            onIndexChange();
             return graphdb.index().setConfiguration( WrappedIndex.unwrapIndex( index ), key, value );
         }
 
         @Override
         public String removeConfiguration( Index<? extends PropertyContainer> index, String key )
         {
+            onIndexChange();
             return graphdb.index().removeConfiguration( WrappedIndex.unwrapIndex( index ), key );
         }
 
@@ -299,6 +1046,7 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         @Override
         public RelationshipIndex forRelationships( String indexName, Map<String, String> customConfiguration )
         {
+            if ( !existsForRelationships( indexName ) ) onIndexChange();
             return relationshipIndex( graphdb.index().forRelationships( indexName, customConfiguration ) );
         }
 
@@ -306,6 +1054,7 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         @Override
         public RelationshipIndex forRelationships( String indexName )
         {
+            if ( !existsForRelationships( indexName ) ) onIndexChange();
             return relationshipIndex( graphdb.index().forRelationships( indexName ) );
         }
 
@@ -313,6 +1062,7 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         @Override
         public Index<Node> forNodes( String indexName, Map<String, String> customConfiguration )
         {
+            if ( !existsForNodes( indexName ) ) onIndexChange();
             return nodeIndex( graphdb.index().forNodes( indexName, customConfiguration ) );
         }
 
@@ -320,6 +1070,7 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         @Override
         public Index<Node> forNodes( String indexName )
         {
+            if ( !existsForNodes( indexName ) ) onIndexChange();
             return nodeIndex( graphdb.index().forNodes( indexName ) );
         }
 
@@ -371,6 +1122,7 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         @Override
         public void setEnabled( boolean enabled )
         {
+            onIndexChange();
             actual().setEnabled( enabled );
         }
 
@@ -383,12 +1135,14 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         @Override
         public void startAutoIndexingProperty( String propName )
         {
+            onIndexChange();
             actual().startAutoIndexingProperty( propName );
         }
 
         @Override
         public void stopAutoIndexingProperty( String propName )
         {
+            onIndexChange();
             actual().stopAutoIndexingProperty( propName );
         }
 
@@ -423,34 +1177,101 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
 
     private static class WrappedTransaction extends WrappedObject<Transaction> implements Transaction
     {
-        WrappedTransaction( WrappedGraphDatabase graphdb, Transaction tx )
+        private final WrappedTransaction outer;
+        boolean written, bulk;
+        WriteBuffer buffer;
+        private boolean succeeded, failed, warned;
+        private Transaction current; // the underlying transaction, replaced when a bulk transaction is split
+        private final long[] changes = new long[3];
+        private long changeCount;
+
+        WrappedTransaction( WrappedGraphDatabase graphdb, Transaction tx, WrappedTransaction outer )
         {
             super( graphdb, tx );
+            this.outer = outer;
+            this.current = tx;
+        }
+
+        void changing( int kind, long softLimit, long hardLimit )
+        {
+            if ( changeCount >= softLimit )
+            {
+                if ( bulk && current != null && !failed ) split();
+                else if ( !warned )
+                {
+                    warned = true;
+                    log.warning( "Transaction reached the soft limit of " + softLimit + " changes: " + changes() );
+                }
+            }
+            if ( changeCount >= hardLimit )
+            {
+                failure();
+                throw new TransactionTooLargeException( hardLimit, changes() );
+            }
+            changes[kind]++;
+            changeCount++;
+        }
+
+        private String changes()
+        {
+            return changes[ENTITY_CHANGE] + " entities, " + changes[PROPERTY_CHANGE] + " properties, "
+                   + changes[INDEX_CHANGE] + " index entries";
+        }
+
+        /**
+         * Commits the changes so far and continues in a new underlying transaction.
+         */
+        private void split()
+        {
+            if ( buffer != null ) flush();
+            Transaction committed = current;
+            current = null;
+            try
+            {
+                committed.success();
+                committed.finish();
+            }
+            catch ( RuntimeException e )
+            {
+                failed = true;
+                throw e;
+            }
+            current = graphdb.graphdb.beginTx();
+            Arrays.fill( changes, 0 );
+            changeCount = 0;
         }
 
         @Override
         public void success()
         {
+            if ( buffer != null ) flush();
+            succeeded = true;
             try
             {
+                for ( Interceptor interceptor : graphdb.interceptors )
+                    interceptor.onSuccessTransaction();
                 graphdb.onSuccessTransaction();
             }
             finally
             {
-                if ( wrapped != null ) wrapped.success();
+                if ( current != null ) current.success();
             }
         }
 
         @Override
         public void failure()
         {
+            failed = true;
+            if ( buffer != null ) buffer.clear();
             try
             {
+                for ( Interceptor interceptor : graphdb.interceptors )
+                    interceptor.onFailureTransaction();
                 graphdb.onFailureTransaction();
             }
             finally
             {
-                if ( wrapped != null ) wrapped.failure();
+                if ( current != null ) current.failure();
             }
         }
 
@@ -459,11 +1280,36 @@ public abstract class WrappedGraphDatabase extends AbstractGraphDatabase
         {
             try
             {
+                if ( buffer != null && succeeded && !failed ) flush();
+                for ( Interceptor interceptor : graphdb.interceptors )
+                    interceptor.onFinishTransaction();
                 graphdb.onFinishTransaction();
             }
             finally
             {
-                if ( wrapped != null ) wrapped.finish();
+                try
+                {
+                    if ( current != null ) current.finish();
+                }
+                finally
+                {
+                    if ( outer == null ) graphdb.transaction.remove();
+                    if ( buffer != null ) graphdb.bufferedTransactions.decrementAndGet();
+                    graphdb.onTransactionClosed();
+                }
+            }
+        }
+
+        private void flush()
+        {
+            try
+            {
+                buffer.apply();
+            }
+            catch ( RuntimeException e )
+            {
+                failure();
+                throw e;
             }
         }
     }
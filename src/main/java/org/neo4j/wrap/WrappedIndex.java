@@ -29,6 +29,7 @@ import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.graphdb.index.ReadableIndex;
 import org.neo4j.graphdb.index.ReadableRelationshipIndex;
 import org.neo4j.graphdb.index.RelationshipIndex;
+import org.neo4j.wrap.LatencyMetrics.Operation;
 
 import static org.neo4j.wrap.WrappedEntity.unwrap;
 
@@ -70,52 +71,92 @@ public abstract class WrappedIndex<T extends PropertyContainer, I extends Readab
     @Override
     public void add( T entity, String key, Object value )
     {
-        if ( wrapped instanceof Index<?> )
+        long start = graphdb.startCall();
+        try
         {
-            ( (Index<T>) wrapped ).add( unwrap( entity ), key, value );
+            if ( wrapped instanceof Index<?> )
+            {
+                graphdb.onIndexChange();
+                graphdb.changing( WrappedGraphDatabase.INDEX_CHANGE );
+                ( (Index<T>) wrapped ).add( unwrap( entity ), key, value );
+            }
+            else
+            {
+                throw new UnsupportedOperationException();
+            }
         }
-        else
+        finally
         {
-            throw new UnsupportedOperationException();
+            graphdb.endCall( Operation.INDEX_ADD, start, getName(), key, value );
         }
     }
 
     @Override
     public void remove( T entity, String key, Object value )
     {
-        if ( wrapped instanceof Index<?> )
+        long start = graphdb.startCall();
+        try
         {
-            ( (Index<T>) wrapped ).remove( unwrap( entity ), key, value );
+            if ( wrapped instanceof Index<?> )
+            {
+                graphdb.onIndexChange();
+                graphdb.changing( WrappedGraphDatabase.INDEX_CHANGE );
+                ( (Index<T>) wrapped ).remove( unwrap( entity ), key, value );
+            }
+            else
+            {
+                throw new UnsupportedOperationException();
+            }
         }
-        else
+        finally
         {
-            throw new UnsupportedOperationException();
+            graphdb.endCall( Operation.INDEX_REMOVE, start, getName(), key, value );
         }
     }
 
     @Override
     public void remove( T entity, String key )
     {
-        if ( wrapped instanceof Index<?> )
+        long start = graphdb.startCall();
+        try
         {
-            ( (Index<T>) wrapped ).remove( unwrap( entity ), key );
+            if ( wrapped instanceof Index<?> )
+            {
+                graphdb.onIndexChange();
+                graphdb.changing( WrappedGraphDatabase.INDEX_CHANGE );
+                ( (Index<T>) wrapped ).remove( unwrap( entity ), key );
+            }
+            else
+            {
+                throw new UnsupportedOperationException();
+            }
         }
-        else
+        finally
         {
-            throw new UnsupportedOperationException();
+            graphdb.endCall( Operation.INDEX_REMOVE, start, getName(), key );
         }
     }
 
     @Override
     public void remove( T entity )
     {
-        if ( wrapped instanceof Index<?> )
+        long start = graphdb.startCall();
+        try
         {
-            ( (Index<T>) wrapped ).remove( unwrap( entity ) );
+            if ( wrapped instanceof Index<?> )
+            {
+                graphdb.onIndexChange();
+                graphdb.changing( WrappedGraphDatabase.INDEX_CHANGE );
+                ( (Index<T>) wrapped ).remove( unwrap( entity ) );
+            }
+            else
+            {
+                throw new UnsupportedOperationException();
+            }
         }
-        else
+        finally
         {
-            throw new UnsupportedOperationException();
+            graphdb.endCall( Operation.INDEX_REMOVE, start, getName(), null );
         }
     }
 
@@ -124,6 +165,7 @@ public abstract class WrappedIndex<T extends PropertyContainer, I extends Readab
     {
         if ( wrapped instanceof Index<?> )
         {
+            graphdb.onIndexChange();
             ( (Index<T>) wrapped ).delete();
         }
         else
@@ -135,19 +177,43 @@ public abstract class WrappedIndex<T extends PropertyContainer, I extends Readab
     @Override
     public IndexHits<T> get( String key, Object value )
     {
-        return new Hits( wrapped.get( key, value ) );
+        long start = graphdb.startCall();
+        try
+        {
+            return new Hits( wrapped.get( key, value ), key, value );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.INDEX_GET, start, getName(), key, value );
+        }
     }
 
     @Override
     public IndexHits<T> query( String key, Object queryOrQueryObject )
     {
-        return new Hits( wrapped.query( key, queryOrQueryObject ) );
+        long start = graphdb.startCall();
+        try
+        {
+            return new Hits( wrapped.query( key, queryOrQueryObject ), key, queryOrQueryObject );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.INDEX_QUERY, start, getName(), key, queryOrQueryObject );
+        }
     }
 
     @Override
     public IndexHits<T> query( Object queryOrQueryObject )
     {
-        return new Hits( wrapped.query( queryOrQueryObject ) );
+        long start = graphdb.startCall();
+        try
+        {
+            return new Hits( wrapped.query( queryOrQueryObject ), null, queryOrQueryObject );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.INDEX_QUERY, start, getName(), queryOrQueryObject );
+        }
     }
 
     @Override
@@ -173,7 +239,7 @@ public abstract class WrappedIndex<T extends PropertyContainer, I extends Readab
         @Override
         Node wrap( Node entity )
         {
-            return graphdb.node( entity, false );
+            return graphdb.wrapNode( entity );
         }
     }
 
@@ -194,38 +260,87 @@ public abstract class WrappedIndex<T extends PropertyContainer, I extends Readab
         @Override
         public IndexHits<Relationship> get( String key, Object valueOrNull, Node startNodeOrNull, Node endNodeOrNull )
         {
-            return new Hits( wrapped.get( key, valueOrNull, unwrap( startNodeOrNull ), unwrap( endNodeOrNull ) ) );
+            long start = graphdb.startCall();
+            try
+            {
+                return new Hits( wrapped.get( key, valueOrNull, unwrap( startNodeOrNull ), unwrap( endNodeOrNull ) ),
+                        key, valueOrNull );
+            }
+            finally
+            {
+                graphdb.endCall( Operation.INDEX_GET, start, getName(), key, valueOrNull );
+            }
         }
 
         @Override
         public IndexHits<Relationship> query( String key, Object queryOrQueryObjectOrNull, Node startNodeOrNull,
                 Node endNodeOrNull )
         {
-            return new Hits( wrapped.query( key, queryOrQueryObjectOrNull, unwrap( startNodeOrNull ),
-                    unwrap( endNodeOrNull ) ) );
+            long start = graphdb.startCall();
+            try
+            {
+                return new Hits( wrapped.query( key, queryOrQueryObjectOrNull, unwrap( startNodeOrNull ),
+                        unwrap( endNodeOrNull ) ), key, queryOrQueryObjectOrNull );
+            }
+            finally
+            {
+                graphdb.endCall( Operation.INDEX_QUERY, start, getName(), key, queryOrQueryObjectOrNull );
+            }
         }
 
         @Override
         public IndexHits<Relationship> query( Object queryOrQueryObjectOrNull, Node startNodeOrNull, Node endNodeOrNull )
         {
-            return new Hits(
-                    wrapped.query( queryOrQueryObjectOrNull, unwrap( startNodeOrNull ), unwrap( endNodeOrNull ) ) );
+            long start = graphdb.startCall();
+            try
+            {
+                return new Hits(
+                        wrapped.query( queryOrQueryObjectOrNull, unwrap( startNodeOrNull ), unwrap( endNodeOrNull ) ),
+                        null, queryOrQueryObjectOrNull );
+            }
+            finally
+            {
+                graphdb.endCall( Operation.INDEX_QUERY, start, getName(), queryOrQueryObjectOrNull );
+            }
         }
 
         @Override
         Relationship wrap( Relationship entity )
         {
-            return graphdb.relationship( entity, false );
+            return graphdb.wrapRelationship( entity );
         }
     }
 
     private static abstract class WrappedIndexHits<T> implements IndexHits<T>
     {
         private final IndexHits<T> hits;
-
-        WrappedIndexHits( IndexHits<T> hits )
+        private final CancellationToken token;
+        private final WrappedGraphDatabase graphdb;
+        private final String index;
+        private final Object key, query;
+
+        /**
+         * @param index the name of the index, and <code>key</code> and <code>query</code> what it was asked for, as
+         *            details of slow steps.
+         */
+        WrappedIndexHits( IndexHits<T> hits, CancellationToken token, WrappedGraphDatabase graphdb, String index,
+                Object key, Object query )
         {
             this.hits = hits;
+            this.token = token;
+            this.graphdb = graphdb;
+            this.index = index;
+            this.key = key;
+            this.query = query;
+        }
+
+        private void checkCancelled()
+        {
+            if ( token != null && token.isCancelled() )
+            {
+                hits.close();
+                token.check();
+            }
         }
 
         abstract T wrap( T item );
@@ -257,13 +372,31 @@ public abstract class WrappedIndex<T extends PropertyContainer, I extends Readab
         @Override
         public boolean hasNext()
         {
-            return hits.hasNext();
+            checkCancelled();
+            long start = graphdb.startCall();
+            try
+            {
+                return hits.hasNext();
+            }
+            finally
+            {
+                graphdb.endCall( Operation.INDEX_HIT_STEP, start, index, key, query );
+            }
         }
 
         @Override
         public T next()
         {
-            return wrap( hits.next() );
+            checkCancelled();
+            long start = graphdb.startCall();
+            try
+            {
+                return wrap( hits.next() );
+            }
+            finally
+            {
+                graphdb.endCall( Operation.INDEX_HIT_STEP, start, index, key, query );
+            }
         }
 
         @Override
@@ -293,9 +426,18 @@ public abstract class WrappedIndex<T extends PropertyContainer, I extends Readab
         @Override
         public T getSingle()
         {
-            T single = hits.getSingle();
-            if (single == null) return null;
-            return wrap( single );
+            checkCancelled();
+            long start = graphdb.startCall();
+            try
+            {
+                T single = hits.getSingle();
+                if (single == null) return null;
+                return wrap( single );
+            }
+            finally
+            {
+                graphdb.endCall( Operation.INDEX_HIT_STEP, start, index, key, query );
+            }
         }
 
         @Override
@@ -307,9 +449,10 @@ public abstract class WrappedIndex<T extends PropertyContainer, I extends Readab
 
     class Hits extends WrappedIndexHits<T>
     {
-        Hits( IndexHits<T> hits )
+        Hits( IndexHits<T> hits, Object key, Object query )
         {
-            super( hits );
+            super( hits, graphdb.cancellationToken(), graphdb, getName(), key, query );
+            graphdb.indexQueried( getName() );
         }
 
         @Override
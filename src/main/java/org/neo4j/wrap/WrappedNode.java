@@ -27,6 +27,7 @@ import org.neo4j.graphdb.ReturnableEvaluator;
 import org.neo4j.graphdb.StopEvaluator;
 import org.neo4j.graphdb.Traverser;
 import org.neo4j.graphdb.Traverser.Order;
+import org.neo4j.wrap.LatencyMetrics.Operation;
 
 public abstract class WrappedNode<G extends WrappedGraphDatabase> extends WrappedEntity<G, Node> implements Node
 {
@@ -44,90 +45,240 @@ public abstract class WrappedNode<G extends WrappedGraphDatabase> extends Wrappe
     @Override
     public void delete()
     {
-        actual().delete();
+        long start = graphdb.startCall();
+        try
+        {
+            graphdb.changing( WrappedGraphDatabase.ENTITY_CHANGE );
+            actual().delete();
+            graphdb.entityDeleted( this );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.DELETE_NODE, start, this, null );
+        }
     }
 
     @Override
     public Iterable<Relationship> getRelationships()
     {
-        return graphdb.relationships( actual().getRelationships() );
+        long start = graphdb.startCall();
+        try
+        {
+            return graphdb.timed( Operation.RELATIONSHIP_STEP,
+                    graphdb.relationships( getId(), actual().getRelationships() ), this, null, null );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_RELATIONSHIPS, start, this, null );
+        }
     }
 
     @Override
     public boolean hasRelationship()
     {
-        return actual().hasRelationship();
+        long start = graphdb.startCall();
+        try
+        {
+            return actual().hasRelationship();
+        }
+        finally
+        {
+            graphdb.endCall( Operation.HAS_RELATIONSHIP, start, this, null );
+        }
     }
 
     @Override
     public Iterable<Relationship> getRelationships( RelationshipType... types )
     {
-        return graphdb.relationships( actual().getRelationships( types ) );
+        long start = graphdb.startCall();
+        try
+        {
+            return graphdb.timed( Operation.RELATIONSHIP_STEP,
+                    graphdb.relationships( getId(), actual().getRelationships( types ) ), this, types, null );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_RELATIONSHIPS, start, this, types );
+        }
     }
 
     @Override
     public Iterable<Relationship> getRelationships( Direction direction, RelationshipType... types )
     {
-        return graphdb.relationships( actual().getRelationships( direction, types ) );
+        long start = graphdb.startCall();
+        try
+        {
+            return graphdb.timed( Operation.RELATIONSHIP_STEP,
+                    graphdb.relationships( getId(), actual().getRelationships( direction, types ) ), this, types,
+                    direction );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_RELATIONSHIPS, start, this, types, direction );
+        }
+    }
+
+    /**
+     * Returns a page of the relationships of this node in the given direction, and of the given types if any are
+     * given. Pass <code>null</code> as continuation for the first page, and the continuation of a page to get the
+     * page after it without iterating over the relationships before it again.
+     */
+    public RelationshipPage getRelationshipPage( int pageSize, String continuation, Direction direction,
+            RelationshipType... types )
+    {
+        long start = graphdb.startCall();
+        try
+        {
+            return graphdb.relationshipCursors.page( getId(), pageSize, continuation, direction, types );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_RELATIONSHIP_PAGE, start, this, types, direction );
+        }
     }
 
     @Override
     public boolean hasRelationship( RelationshipType... types )
     {
-        return actual().hasRelationship( types );
+        long start = graphdb.startCall();
+        try
+        {
+            return actual().hasRelationship( types );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.HAS_RELATIONSHIP, start, this, types );
+        }
     }
 
     @Override
     public boolean hasRelationship( Direction direction, RelationshipType... types )
     {
-        return actual().hasRelationship( direction, types );
+        long start = graphdb.startCall();
+        try
+        {
+            return actual().hasRelationship( direction, types );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.HAS_RELATIONSHIP, start, this, types, direction );
+        }
     }
 
     @Override
     public Iterable<Relationship> getRelationships( Direction dir )
     {
-        return graphdb.relationships( actual().getRelationships( dir ) );
+        long start = graphdb.startCall();
+        try
+        {
+            return graphdb.timed( Operation.RELATIONSHIP_STEP,
+                    graphdb.relationships( getId(), actual().getRelationships( dir ) ), this, null, dir );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_RELATIONSHIPS, start, this, null, dir );
+        }
     }
 
     @Override
     public boolean hasRelationship( Direction dir )
     {
-        return actual().hasRelationship( dir );
+        long start = graphdb.startCall();
+        try
+        {
+            return actual().hasRelationship( dir );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.HAS_RELATIONSHIP, start, this, null, dir );
+        }
     }
 
     @Override
     public Iterable<Relationship> getRelationships( RelationshipType type, Direction dir )
     {
-        return graphdb.relationships( actual().getRelationships( type, dir ) );
+        long start = graphdb.startCall();
+        try
+        {
+            return graphdb.timed( Operation.RELATIONSHIP_STEP,
+                    graphdb.relationships( getId(), actual().getRelationships( type, dir ) ), this, type, dir );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_RELATIONSHIPS, start, this, type, dir );
+        }
     }
 
     @Override
     public boolean hasRelationship( RelationshipType type, Direction dir )
     {
-        return actual().hasRelationship( type, dir );
+        long start = graphdb.startCall();
+        try
+        {
+            return actual().hasRelationship( type, dir );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.HAS_RELATIONSHIP, start, this, type, dir );
+        }
     }
 
     @Override
     public Relationship getSingleRelationship( RelationshipType type, Direction dir )
     {
-        Relationship singleRelationship = actual().getSingleRelationship( type, dir );
-        return singleRelationship != null ? graphdb.relationship( singleRelationship, false ) : null;
+        long start = graphdb.startCall();
+        try
+        {
+            Relationship singleRelationship = actual().getSingleRelationship( type, dir );
+            return singleRelationship != null ? graphdb.wrapRelationship( singleRelationship ) : null;
+        }
+        finally
+        {
+            graphdb.endCall( Operation.GET_SINGLE_RELATIONSHIP, start, this, type, dir );
+        }
     }
 
     @Override
     public Relationship createRelationshipTo( Node otherNode, RelationshipType type )
     {
-        return graphdb.relationship( actual().createRelationshipTo( unwrap( otherNode ), type ), true );
+        long start = graphdb.startCall();
+        try
+        {
+            graphdb.relationshipCreate();
+            Relationship relationship;
+            try
+            {
+                relationship = actual().createRelationshipTo( unwrap( otherNode ), type );
+            }
+            catch ( RuntimeException e )
+            {
+                graphdb.relationshipCreateFailed();
+                throw e;
+            }
+            return graphdb.relationship( relationship, true );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.CREATE_RELATIONSHIP, start, this, type );
+        }
     }
 
     @Override
     public Traverser traverse( Order traversalOrder, StopEvaluator stopEvaluator,
             ReturnableEvaluator returnableEvaluator, RelationshipType relationshipType, Direction direction )
     {
-        WrappedTraverser.Evaluator evaluator = new WrappedTraverser.Evaluator( graphdb, stopEvaluator,
-                returnableEvaluator );
-        return new WrappedTraverser( graphdb, actual().traverse( traversalOrder, evaluator, evaluator, relationshipType,
-                direction ) );
+        long start = graphdb.startCall();
+        try
+        {
+            WrappedTraverser.Evaluator evaluator = new WrappedTraverser.Evaluator( graphdb, stopEvaluator,
+                    returnableEvaluator );
+            return new WrappedTraverser( graphdb, actual().traverse( traversalOrder, evaluator, evaluator,
+                    relationshipType, direction ), evaluator, this, relationshipType );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.TRAVERSE, start, this, relationshipType, direction );
+        }
     }
 
     @Override
@@ -135,19 +286,36 @@ public abstract class WrappedNode<G extends WrappedGraphDatabase> extends Wrappe
             ReturnableEvaluator returnableEvaluator, RelationshipType firstRelationshipType, Direction firstDirection,
             RelationshipType secondRelationshipType, Direction secondDirection )
     {
-        WrappedTraverser.Evaluator evaluator = new WrappedTraverser.Evaluator( graphdb, stopEvaluator,
-                returnableEvaluator );
-        return new WrappedTraverser( graphdb, actual().traverse( traversalOrder, evaluator, evaluator,
-                firstRelationshipType, firstDirection, secondRelationshipType, secondDirection ) );
+        long start = graphdb.startCall();
+        try
+        {
+            WrappedTraverser.Evaluator evaluator = new WrappedTraverser.Evaluator( graphdb, stopEvaluator,
+                    returnableEvaluator );
+            return new WrappedTraverser( graphdb, actual().traverse( traversalOrder, evaluator, evaluator,
+                    firstRelationshipType, firstDirection, secondRelationshipType, secondDirection ), evaluator, this,
+                    new RelationshipType[] { firstRelationshipType, secondRelationshipType } );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.TRAVERSE, start, this, firstRelationshipType, secondRelationshipType );
+        }
     }
 
     @Override
     public Traverser traverse( Order traversalOrder, StopEvaluator stopEvaluator,
             ReturnableEvaluator returnableEvaluator, Object... relationshipTypesAndDirections )
     {
-        WrappedTraverser.Evaluator evaluator = new WrappedTraverser.Evaluator( graphdb, stopEvaluator,
-                returnableEvaluator );
-        return new WrappedTraverser( graphdb, actual().traverse( traversalOrder, evaluator, evaluator,
-                relationshipTypesAndDirections ) );
+        long start = graphdb.startCall();
+        try
+        {
+            WrappedTraverser.Evaluator evaluator = new WrappedTraverser.Evaluator( graphdb, stopEvaluator,
+                    returnableEvaluator );
+            return new WrappedTraverser( graphdb, actual().traverse( traversalOrder, evaluator, evaluator,
+                    relationshipTypesAndDirections ), evaluator, this, relationshipTypesAndDirections );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.TRAVERSE, start, this, relationshipTypesAndDirections );
+        }
     }
 }
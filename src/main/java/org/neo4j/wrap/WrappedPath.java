@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.Traversal;
+
+/**
+ * A path that keeps only the ids of its nodes and relationships, and wraps them when they are accessed. The id
+ * accessors never touch the store.
+ * <p>
+ * Paths handed to evaluators are views of the path being evaluated, and only extract ids when more than the end of
+ * the path is inspected.
+ */
+public final class WrappedPath implements Path
+{
+    private final WrappedGraphDatabase graphdb;
+    private Path path;
+    private long[] nodes, relationships;
+
+    WrappedPath( WrappedGraphDatabase graphdb, long[] nodes, long[] relationships )
+    {
+        if ( nodes.length != relationships.length + 1 )
+            throw new IllegalArgumentException( "A path has one node more than it has relationships" );
+        this.graphdb = graphdb;
+        this.nodes = nodes;
+        this.relationships = relationships;
+    }
+
+    private WrappedPath( WrappedGraphDatabase graphdb, Path path )
+    {
+        this.graphdb = graphdb;
+        this.path = path;
+    }
+
+    /**
+     * Returns a view of the given path of the underlying database, valid while that path is.
+     */
+    static WrappedPath view( WrappedGraphDatabase graphdb, Path path )
+    {
+        return new WrappedPath( graphdb, path );
+    }
+
+    /**
+     * Returns a copy of the ids of the given path of the underlying database.
+     */
+    static WrappedPath copy( WrappedGraphDatabase graphdb, Path path )
+    {
+        WrappedPath copy = new WrappedPath( graphdb, path );
+        copy.ids();
+        return copy;
+    }
+
+    private void ids()
+    {
+        if ( nodes != null ) return;
+        long[] nodes = new long[path.length() + 1], relationships = new long[nodes.length - 1];
+        int i = 0;
+        for ( Node node : path.nodes() )
+            nodes[i++] = node.getId();
+        i = 0;
+        for ( Relationship relationship : path.relationships() )
+            relationships[i++] = relationship.getId();
+        this.relationships = relationships;
+        this.nodes = nodes;
+        this.path = null;
+    }
+
+    public long startNodeId()
+    {
+        Path path = this.path;
+        return path != null ? path.startNode().getId() : nodes[0];
+    }
+
+    public long endNodeId()
+    {
+        Path path = this.path;
+        return path != null ? path.endNode().getId() : nodes[nodes.length - 1];
+    }
+
+    /**
+     * Returns the id of the last relationship of this path, or <code>-1</code> if the path has length zero.
+     */
+    public long lastRelationshipId()
+    {
+        Path path = this.path;
+        if ( path != null )
+        {
+            Relationship last = path.lastRelationship();
+            return last == null ? -1 : last.getId();
+        }
+        return relationships.length == 0 ? -1 : relationships[relationships.length - 1];
+    }
+
+    public long nodeId( int index )
+    {
+        ids();
+        return nodes[index];
+    }
+
+    public long relationshipId( int index )
+    {
+        ids();
+        return relationships[index];
+    }
+
+    public long[] nodeIds()
+    {
+        ids();
+        return nodes.clone();
+    }
+
+    public long[] relationshipIds()
+    {
+        ids();
+        return relationships.clone();
+    }
+
+    @Override
+    public int length()
+    {
+        Path path = this.path;
+        return path != null ? path.length() : relationships.length;
+    }
+
+    @Override
+    public Node startNode()
+    {
+        return graphdb.wrapNode( startNodeId() );
+    }
+
+    @Override
+    public Node endNode()
+    {
+        return graphdb.wrapNode( endNodeId() );
+    }
+
+    @Override
+    public Relationship lastRelationship()
+    {
+        long id = lastRelationshipId();
+        return id < 0 ? null : graphdb.wrapRelationship( id );
+    }
+
+    @Override
+    public Iterable<Node> nodes()
+    {
+        ids();
+        return new Iterable<Node>()
+        {
+            @Override
+            public Iterator<Node> iterator()
+            {
+                return new Ids<Node>( nodes )
+                {
+                    @Override
+                    Node wrap( long id )
+                    {
+                        return graphdb.wrapNode( id );
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Relationship> relationships()
+    {
+        ids();
+        return new Iterable<Relationship>()
+        {
+            @Override
+            public Iterator<Relationship> iterator()
+            {
+                return new Ids<Relationship>( relationships )
+                {
+                    @Override
+                    Relationship wrap( long id )
+                    {
+                        return graphdb.wrapRelationship( id );
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Iterator<PropertyContainer> iterator()
+    {
+        ids();
+        return new Iterator<PropertyContainer>()
+        {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return position < nodes.length + relationships.length;
+            }
+
+            @Override
+            public PropertyContainer next()
+            {
+                if ( !hasNext() ) throw new NoSuchElementException();
+                int index = position >> 1;
+                return ( position++ & 1 ) == 0 ? graphdb.wrapNode( nodes[index] )
+                        : graphdb.wrapRelationship( relationships[index] );
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int hashCode()
+    {
+        ids();
+        return Arrays.hashCode( relationships ) * 31 + (int) nodes[0];
+    }
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( this == obj ) return true;
+        if ( obj instanceof WrappedPath )
+        {
+            WrappedPath that = (WrappedPath) obj;
+            this.ids();
+            that.ids();
+            return Arrays.equals( this.nodes, that.nodes ) && Arrays.equals( this.relationships, that.relationships )
+                   && graphdb.equals( that.graphdb );
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Traversal.defaultPathToString( this );
+    }
+
+    private static abstract class Ids<T> implements Iterator<T>
+    {
+        private final long[] ids;
+        private int position;
+
+        Ids( long[] ids )
+        {
+            this.ids = ids;
+        }
+
+        abstract T wrap( long id );
+
+        @Override
+        public boolean hasNext()
+        {
+            return position < ids.length;
+        }
+
+        @Override
+        public T next()
+        {
+            if ( !hasNext() ) throw new NoSuchElementException();
+            return wrap( ids[position++] );
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
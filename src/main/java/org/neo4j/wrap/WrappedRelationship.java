@@ -20,8 +20,10 @@
 package org.neo4j.wrap;
 
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.wrap.LatencyMetrics.Operation;
 
 public abstract class WrappedRelationship<G extends WrappedGraphDatabase> extends WrappedEntity<G, Relationship>
         implements Relationship
@@ -40,45 +42,138 @@ public abstract class WrappedRelationship<G extends WrappedGraphDatabase> extend
     @Override
     public void delete()
     {
-        actual().delete();
+        long start = graphdb.startCall();
+        try
+        {
+            graphdb.changing( WrappedGraphDatabase.ENTITY_CHANGE );
+            actual().delete();
+            graphdb.entityDeleted( this );
+        }
+        finally
+        {
+            graphdb.endCall( Operation.DELETE_RELATIONSHIP, start, this, null );
+        }
+    }
+
+    private volatile long startId = -1;
+    private long endId;
+    private Node startNode, endNode;
+
+    private long startId()
+    {
+        long id = startId;
+        if ( id < 0 )
+        {
+            Relationship actual = actual();
+            endId = actual.getEndNode().getId();
+            startId = id = actual.getStartNode().getId(); // volatile write publishes endId
+        }
+        return id;
+    }
+
+    private long endId()
+    {
+        startId();
+        return endId;
+    }
+
+    /**
+     * Seeds the endpoints and type of this relationship when they are already known, to avoid looking them up.
+     */
+    void resolved( long startId, long endId, int typeId )
+    {
+        this.typeId = typeId;
+        this.endId = endId;
+        this.startId = startId; // volatile write publishes endId and typeId
+    }
+
+    public long getStartNodeId()
+    {
+        return startId();
+    }
+
+    public long getEndNodeId()
+    {
+        return endId();
+    }
+
+    /**
+     * Returns the id of the node at the other end of this relationship, without looking up either node.
+     */
+    public long getOtherNodeId( long nodeId )
+    {
+        long start = startId(), end = endId();
+        if ( nodeId == start ) return end;
+        if ( nodeId == end ) return start;
+        throw new NotFoundException( "Node[" + nodeId + "] not connected to this relationship[" + getId() + "]" );
+    }
+
+    /**
+     * Returns the id of the node at the other end of the given relationship of the underlying database.
+     */
+    static long otherNodeId( Relationship relationship, long nodeId )
+    {
+        long startId = relationship.getStartNode().getId();
+        return startId == nodeId ? relationship.getEndNode().getId() : startId;
     }
 
     @Override
     public Node getStartNode()
     {
-        return graphdb.node( actual().getStartNode(), false );
+        Node node = startNode;
+        if ( node == null ) startNode = node = graphdb.wrapNode( startId() );
+        return node;
     }
 
     @Override
     public Node getEndNode()
     {
-        return graphdb.node( actual().getEndNode(), false );
+        Node node = endNode;
+        if ( node == null ) endNode = node = graphdb.wrapNode( endId() );
+        return node;
     }
 
     @Override
     public Node getOtherNode( Node node )
     {
-        return graphdb.node( actual().getOtherNode( unwrap( node ) ), false );
+        long id = node.getId();
+        if ( id == startId() ) return getEndNode();
+        if ( id == endId() ) return getStartNode();
+        throw new NotFoundException( "Node[" + id + "] not connected to this relationship[" + getId() + "]" );
     }
 
     @Override
     public Node[] getNodes()
     {
-        Node[] nodes = actual().getNodes(), wrapped = new Node[nodes.length];
-        for ( int i = 0; i < wrapped.length; i++ )
-            wrapped[i] = graphdb.node( nodes[i], false );
-        return wrapped;
+        return new Node[] { getStartNode(), getEndNode() };
+    }
+
+    private int typeId = -1;
+
+    /**
+     * Returns the id of the type of this relationship in the {@link RelationshipTypeDictionary} of the database.
+     */
+    public int getTypeId()
+    {
+        int id = typeId;
+        if ( id < 0 ) typeId = id = graphdb.typeDictionary().id( actual().getType() );
+        return id;
     }
 
     @Override
     public RelationshipType getType()
     {
-        return actual().getType();
+        return graphdb.typeDictionary().type( getTypeId() );
     }
 
     @Override
     public boolean isType( RelationshipType type )
     {
-        return actual().isType( type );
+        return getTypeId() == graphdb.typeDictionary().lookup( type );
+    }
+
+    public boolean isType( int typeId )
+    {
+        return getTypeId() == typeId;
     }
 }
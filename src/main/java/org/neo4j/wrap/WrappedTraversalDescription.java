@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.Iterator;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipExpander;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.traversal.BranchOrderingPolicy;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.Evaluator;
+import org.neo4j.graphdb.traversal.PruneEvaluator;
+import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.graphdb.traversal.Traverser;
+import org.neo4j.graphdb.traversal.UniquenessFactory;
+import org.neo4j.helpers.Predicate;
+import org.neo4j.helpers.collection.IterableWrapper;
+import org.neo4j.helpers.collection.IteratorWrapper;
+import org.neo4j.wrap.LatencyMetrics.Operation;
+
+import static org.neo4j.wrap.WrappedEntity.unwrap;
+
+/**
+ * A traversal description that traverses the underlying database and hands out {@link WrappedPath}s. Evaluators,
+ * prune evaluators and filters see {@link WrappedPath} views, and can inspect ids without wrapping any entity.
+ */
+public class WrappedTraversalDescription extends WrappedObject<TraversalDescription> implements TraversalDescription
+{
+    WrappedTraversalDescription( WrappedGraphDatabase graphdb, TraversalDescription description )
+    {
+        super( graphdb, description );
+    }
+
+    private WrappedTraversalDescription wrap( TraversalDescription description )
+    {
+        return new WrappedTraversalDescription( graphdb, description );
+    }
+
+    @Override
+    public WrappedTraversalDescription uniqueness( UniquenessFactory uniqueness )
+    {
+        return wrap( wrapped.uniqueness( uniqueness ) );
+    }
+
+    @Override
+    public WrappedTraversalDescription uniqueness( UniquenessFactory uniqueness, Object parameter )
+    {
+        return wrap( wrapped.uniqueness( uniqueness, parameter ) );
+    }
+
+    @SuppressWarnings( "deprecation" )
+    @Override
+    public WrappedTraversalDescription prune( PruneEvaluator pruning )
+    {
+        return wrap( wrapped.prune( new Pruning( graphdb, pruning ) ) );
+    }
+
+    @SuppressWarnings( "deprecation" )
+    @Override
+    public WrappedTraversalDescription filter( Predicate<Path> filter )
+    {
+        return wrap( wrapped.filter( new Filter( graphdb, filter ) ) );
+    }
+
+    @Override
+    public WrappedTraversalDescription evaluator( Evaluator evaluator )
+    {
+        return wrap( wrapped.evaluator( new PathEvaluator( graphdb, evaluator ) ) );
+    }
+
+    @Override
+    public WrappedTraversalDescription order( BranchOrderingPolicy selector )
+    {
+        return wrap( wrapped.order( selector ) );
+    }
+
+    @Override
+    public WrappedTraversalDescription depthFirst()
+    {
+        return wrap( wrapped.depthFirst() );
+    }
+
+    @Override
+    public WrappedTraversalDescription breadthFirst()
+    {
+        return wrap( wrapped.breadthFirst() );
+    }
+
+    @Override
+    public WrappedTraversalDescription relationships( RelationshipType type )
+    {
+        return wrap( wrapped.relationships( type ) );
+    }
+
+    @Override
+    public WrappedTraversalDescription relationships( RelationshipType type, Direction direction )
+    {
+        return wrap( wrapped.relationships( type, direction ) );
+    }
+
+    @Override
+    public WrappedTraversalDescription expand( RelationshipExpander expander )
+    {
+        return wrap( wrapped.expand( new Expander( graphdb, expander ) ) );
+    }
+
+    @Override
+    public Traverser traverse( Node startNode )
+    {
+        CancellationToken token = graphdb.cancellationToken();
+        TraversalDescription description = token == null ? wrapped : wrapped.evaluator( new Cancellation( token ) );
+        Prefetcher prefetcher = graphdb.prefetcher;
+        if ( prefetcher != null ) description = description.evaluator( new Prefetching( prefetcher ) );
+        return new WrappedPathTraverser( graphdb, description.traverse( unwrap( startNode ) ), token, startNode );
+    }
+
+    private static class WrappedPathTraverser extends WrappedObject<Traverser> implements Traverser
+    {
+        private final CancellationToken token;
+        private final Node start;
+
+        WrappedPathTraverser( WrappedGraphDatabase graphdb, Traverser traverser, CancellationToken token, Node start )
+        {
+            super( graphdb, traverser );
+            this.token = token;
+            this.start = start;
+        }
+
+        @Override
+        public Iterator<Path> iterator()
+        {
+            return new IteratorWrapper<Path, Path>( graphdb.timed( Operation.TRAVERSAL_STEP, wrapped.iterator(), start,
+                    null, null ) )
+            {
+                @Override
+                protected Path underlyingObjectToObject( Path path )
+                {
+                    if ( token != null ) token.check();
+                    return WrappedPath.copy( graphdb, path );
+                }
+            };
+        }
+
+        @Override
+        public Iterable<Node> nodes()
+        {
+            return graphdb.timed( Operation.TRAVERSAL_STEP, graphdb.nodes( wrapped.nodes() ), start, null, null );
+        }
+
+        @Override
+        public Iterable<Relationship> relationships()
+        {
+            return graphdb.timed( Operation.TRAVERSAL_STEP, graphdb.relationships( wrapped.relationships() ), start,
+                    null, null );
+        }
+    }
+
+    /**
+     * Checks the cancellation token at each step of the traversal, without affecting what is traversed.
+     */
+    private static class Cancellation implements Evaluator
+    {
+        private final CancellationToken token;
+
+        Cancellation( CancellationToken token )
+        {
+            this.token = token;
+        }
+
+        @Override
+        public Evaluation evaluate( Path path )
+        {
+            token.check();
+            return Evaluation.INCLUDE_AND_CONTINUE;
+        }
+    }
+
+    /**
+     * Prefetches each node as it is reached, before the traversal expands it, without affecting what is traversed.
+     */
+    private static class Prefetching implements Evaluator
+    {
+        private final Prefetcher prefetcher;
+        private final Prefetcher.Batch batch;
+        private long expanding = -1;
+
+        Prefetching( Prefetcher prefetcher )
+        {
+            this.prefetcher = prefetcher;
+            this.batch = prefetcher.batch();
+        }
+
+        @Override
+        public Evaluation evaluate( Path path )
+        {
+            Node endNode = path.endNode();
+            Relationship last = path.lastRelationship();
+            if ( last != null )
+            {
+                long previousId = WrappedRelationship.otherNodeId( last, endNode.getId() );
+                if ( previousId != expanding )
+                {
+                    batch.flush(); // the nodes reached from the previous node
+                    prefetcher.touch( expanding = previousId );
+                }
+            }
+            batch.add( endNode.getId() );
+            return Evaluation.INCLUDE_AND_CONTINUE;
+        }
+    }
+
+    private static class PathEvaluator extends WrappedObject<Evaluator> implements Evaluator
+    {
+        PathEvaluator( WrappedGraphDatabase graphdb, Evaluator evaluator )
+        {
+            super( graphdb, evaluator );
+        }
+
+        @Override
+        public Evaluation evaluate( Path path )
+        {
+            return wrapped.evaluate( WrappedPath.view( graphdb, path ) );
+        }
+    }
+
+    @SuppressWarnings( "deprecation" )
+    private static class Pruning extends WrappedObject<PruneEvaluator> implements PruneEvaluator
+    {
+        Pruning( WrappedGraphDatabase graphdb, PruneEvaluator pruning )
+        {
+            super( graphdb, pruning );
+        }
+
+        @Override
+        public boolean pruneAfter( Path position )
+        {
+            return wrapped.pruneAfter( WrappedPath.view( graphdb, position ) );
+        }
+    }
+
+    private static class Filter extends WrappedObject<Predicate<Path>> implements Predicate<Path>
+    {
+        Filter( WrappedGraphDatabase graphdb, Predicate<Path> filter )
+        {
+            super( graphdb, filter );
+        }
+
+        @Override
+        public boolean accept( Path path )
+        {
+            return wrapped.accept( WrappedPath.view( graphdb, path ) );
+        }
+    }
+
+    private static class Expander extends WrappedObject<RelationshipExpander> implements RelationshipExpander
+    {
+        Expander( WrappedGraphDatabase graphdb, RelationshipExpander expander )
+        {
+            super( graphdb, expander );
+        }
+
+        @Override
+        public Iterable<Relationship> expand( Node node )
+        {
+            return new IterableWrapper<Relationship, Relationship>( wrapped.expand( graphdb.wrapNode( node ) ) )
+            {
+                @Override
+                protected Relationship underlyingObjectToObject( Relationship relationship )
+                {
+                    return unwrap( relationship );
+                }
+            };
+        }
+
+        @Override
+        public RelationshipExpander reversed()
+        {
+            return new Expander( graphdb, wrapped.reversed() );
+        }
+    }
+}
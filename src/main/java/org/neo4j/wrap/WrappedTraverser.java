@@ -30,12 +30,25 @@ import org.neo4j.graphdb.StopEvaluator;
 import org.neo4j.graphdb.TraversalPosition;
 import org.neo4j.graphdb.Traverser;
 import org.neo4j.helpers.collection.IteratorWrapper;
+import org.neo4j.wrap.LatencyMetrics.Operation;
 
 class WrappedTraverser extends WrappedObject<Traverser> implements Traverser
 {
-    WrappedTraverser( WrappedGraphDatabase graphdb, Traverser traverser )
+    private final CancellationToken token;
+    private final Node start;
+    private final Object types;
+
+    /**
+     * @param start the node the traversal started from and <code>types</code> the relationship types it follows,
+     *            as details of slow traversal steps.
+     */
+    WrappedTraverser( WrappedGraphDatabase graphdb, Traverser traverser, Evaluator evaluator, Node start,
+            Object types )
     {
         super( graphdb, traverser );
+        this.token = evaluator.token;
+        this.start = start;
+        this.types = types;
     }
 
     @Override
@@ -50,7 +63,7 @@ class WrappedTraverser extends WrappedObject<Traverser> implements Traverser
         Collection<Node> all = wrapped.getAllNodes(), wrapped = new ArrayList<Node>( all.size() );
         for ( Node node : all )
         {
-            wrapped.add( graphdb.node( node, false ) );
+            wrapped.add( graphdb.wrapNode( node ) );
         }
         return wrapped;
     }
@@ -58,12 +71,14 @@ class WrappedTraverser extends WrappedObject<Traverser> implements Traverser
     @Override
     public Iterator<Node> iterator()
     {
-        return new IteratorWrapper<Node, Node>( wrapped.iterator() )
+        return new IteratorWrapper<Node, Node>( graphdb.timed( Operation.TRAVERSAL_STEP, wrapped.iterator(), start,
+                types, null ) )
         {
             @Override
             protected Node underlyingObjectToObject( Node object )
             {
-                return graphdb.node( object, false );
+                if ( token != null ) token.check();
+                return graphdb.wrapNode( object );
             }
         };
     }
@@ -73,20 +88,47 @@ class WrappedTraverser extends WrappedObject<Traverser> implements Traverser
         private final WrappedGraphDatabase graphdb;
         private final StopEvaluator stopEvaluator;
         private final ReturnableEvaluator returnableEvaluator;
+        final CancellationToken token;
+        private final Prefetcher prefetcher;
+        private final Prefetcher.Batch batch;
+        private long expanding = -1;
 
         Evaluator( WrappedGraphDatabase graphdb, StopEvaluator stopEvaluator, ReturnableEvaluator returnableEvaluator )
         {
             this.graphdb = graphdb;
             this.stopEvaluator = stopEvaluator;
             this.returnableEvaluator = returnableEvaluator;
+            this.token = graphdb.cancellationToken();
+            this.prefetcher = graphdb.prefetcher;
+            this.batch = prefetcher == null ? null : prefetcher.batch();
         }
 
         @Override
         public boolean isStopNode( TraversalPosition currentPos )
         {
+            if ( token != null ) token.check();
+            if ( prefetcher != null ) prefetch( currentPos );
             return stopEvaluator.isStopNode( new Position( graphdb, currentPos ) );
         }
 
+        /**
+         * The kernel has expanded the previous node when it reaches the current one, and will expand the current node
+         * later on in a breadth first traversal.
+         */
+        private void prefetch( TraversalPosition position )
+        {
+            if ( position.notStartNode() )
+            {
+                long previousId = position.previousNode().getId();
+                if ( previousId != expanding )
+                {
+                    batch.flush(); // the nodes reached from the previous node
+                    prefetcher.touch( expanding = previousId );
+                }
+            }
+            batch.add( position.currentNode().getId() );
+        }
+
         @Override
         public boolean isReturnableNode( TraversalPosition currentPos )
         {
@@ -104,19 +146,19 @@ class WrappedTraverser extends WrappedObject<Traverser> implements Traverser
         @Override
         public Node currentNode()
         {
-            return graphdb.node( wrapped.currentNode(), false );
+            return graphdb.wrapNode( wrapped.currentNode() );
         }
 
         @Override
         public Node previousNode()
         {
-            return graphdb.node( wrapped.previousNode(), false );
+            return graphdb.wrapNode( wrapped.previousNode() );
         }
 
         @Override
         public Relationship lastRelationshipTraversed()
         {
-            return graphdb.relationship( wrapped.lastRelationshipTraversed(), false );
+            return graphdb.wrapRelationship( wrapped.lastRelationshipTraversed() );
         }
 
         @Override
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.PropertyContainer;
+
+/**
+ * The property changes of a transaction that have not been applied to the underlying database yet. Only the last
+ * value set for each entity and key is kept, and removing a property that was only ever set within the transaction
+ * cancels the change. The changes are applied in one pass when the transaction is marked successful.
+ * <p>
+ * A buffer belongs to a single transaction, and thereby to a single thread.
+ */
+final class WriteBuffer
+{
+    static final Object REMOVED = new Object();
+
+    private static final Set<Class<?>> PROPERTY_TYPES = new HashSet<Class<?>>( Arrays.<Class<?>>asList( String.class,
+            Boolean.class, Byte.class, Short.class, Character.class, Integer.class, Long.class, Float.class,
+            Double.class ) );
+
+    /**
+     * Rejects the properties the underlying database would reject, so that a bad value fails when it is set rather
+     * than when the buffer is applied.
+     */
+    static void check( String key, Object value )
+    {
+        if ( key == null || value == null )
+        {
+            throw new IllegalArgumentException( "Null parameter, key=" + key + ", value=" + value );
+        }
+        Class<?> type = value.getClass();
+        if ( type.isArray() ) type = type.getComponentType();
+        if ( !type.isPrimitive() && !PROPERTY_TYPES.contains( type ) )
+        {
+            throw new IllegalArgumentException( "Unknown property type on: " + value + ", " + value.getClass() );
+        }
+    }
+
+    private final Map<WrappedEntity<?, ?>, Map<String, Object>> changes =
+            new LinkedHashMap<WrappedEntity<?, ?>, Map<String, Object>>();
+
+    /**
+     * Returns the buffered value, {@link #REMOVED} if the property is to be removed, or <code>null</code> if there
+     * is no change of the property in the buffer.
+     */
+    Object get( WrappedEntity<?, ?> entity, String key )
+    {
+        Map<String, Object> properties = changes.get( entity );
+        return properties == null ? null : properties.get( key );
+    }
+
+    Map<String, Object> changes( WrappedEntity<?, ?> entity )
+    {
+        return changes.get( entity );
+    }
+
+    void set( WrappedEntity<?, ?> entity, String key, Object value )
+    {
+        Map<String, Object> properties = changes.get( entity );
+        if ( properties == null ) changes.put( entity, properties = new LinkedHashMap<String, Object>( 4 ) );
+        properties.put( key, value );
+    }
+
+    /**
+     * @param stored whether the underlying database has the property, if it doesn't the change is cancelled.
+     */
+    void remove( WrappedEntity<?, ?> entity, String key, boolean stored )
+    {
+        if ( stored )
+        {
+            set( entity, key, REMOVED );
+            return;
+        }
+        Map<String, Object> properties = changes.get( entity );
+        if ( properties == null ) return;
+        properties.remove( key );
+        if ( properties.isEmpty() ) changes.remove( entity );
+    }
+
+    void discard( WrappedEntity<?, ?> entity )
+    {
+        changes.remove( entity );
+    }
+
+    void clear()
+    {
+        changes.clear();
+    }
+
+    /**
+     * Applies the buffered changes to the underlying database and empties the buffer.
+     */
+    void apply()
+    {
+        try
+        {
+            for ( Map.Entry<WrappedEntity<?, ?>, Map<String, Object>> entry : changes.entrySet() )
+            {
+                PropertyContainer entity = entry.getKey().actual();
+                for ( Map.Entry<String, Object> property : entry.getValue().entrySet() )
+                {
+                    if ( property.getValue() == REMOVED )
+                    {
+                        entity.removeProperty( property.getKey() );
+                    }
+                    else
+                    {
+                        entity.setProperty( property.getKey(), property.getValue() );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            changes.clear();
+        }
+    }
+}
@@ -25,20 +25,52 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.kernel.AbstractGraphDatabase;
 import org.neo4j.kernel.HighlyAvailableGraphDatabase;
+import org.neo4j.wrap.Interceptor;
 import org.neo4j.wrap.WrappedGraphDatabase;
 import org.neo4j.wrap.WrappedNode;
 import org.neo4j.wrap.WrappedRelationship;
 
+/**
+ * Wraps every entity by id and looks it up on each access.
+ */
 public class HABugWorkaroundGraphDatabaseWrapper extends WrappedGraphDatabase
 {
-    public HABugWorkaroundGraphDatabaseWrapper( String storeDir, Map<String, String> config )
+    public HABugWorkaroundGraphDatabaseWrapper( String storeDir, Map<String, String> config,
+            Interceptor... interceptors )
+    {
+        this( new HighlyAvailableGraphDatabase( storeDir, config ), interceptors );
+    }
+
+    public HABugWorkaroundGraphDatabaseWrapper( AbstractGraphDatabase graphdb, Interceptor... interceptors )
     {
-        this( new HighlyAvailableGraphDatabase( storeDir, config ) );
+        super( graphdb, interceptors );
     }
 
-    public HABugWorkaroundGraphDatabaseWrapper( AbstractGraphDatabase graphdb )
+    private volatile LookupProfile profile;
+
+    /**
+     * Counts the lookups of entities in the underlying database with the given profile, replacing any previous one.
+     * Pass <code>null</code> to stop counting.
+     */
+    public final void setLookupProfile( LookupProfile profile )
+    {
+        LookupProfile previous = this.profile;
+        this.profile = profile;
+        if ( previous != null && previous != profile ) previous.unregisterMBean();
+    }
+
+    @Override
+    protected final void onTransactionOpened()
     {
-        super( graphdb );
+        LookupProfile profile = this.profile;
+        if ( profile != null ) profile.beginTransaction();
+    }
+
+    @Override
+    protected final void onTransactionClosed()
+    {
+        LookupProfile profile = this.profile;
+        if ( profile != null ) profile.finishTransaction();
     }
 
     @Override
@@ -54,6 +86,18 @@ public class HABugWorkaroundGraphDatabaseWrapper extends WrappedGraphDatabase
         return new LookupRelationship( this, relationship.getId() );
     }
 
+    @Override
+    protected WrappedNode<? extends WrappedGraphDatabase> node( long id )
+    {
+        return new LookupNode( this, id );
+    }
+
+    @Override
+    protected WrappedRelationship<? extends WrappedGraphDatabase> relationship( long id )
+    {
+        return new LookupRelationship( this, id );
+    }
+
     private static class LookupNode extends WrappedNode<HABugWorkaroundGraphDatabaseWrapper>
     {
         private final long id;
@@ -67,6 +111,8 @@ public class HABugWorkaroundGraphDatabaseWrapper extends WrappedGraphDatabase
         @Override
         protected Node actual()
         {
+            LookupProfile profile = graphdb.profile;
+            if ( profile != null ) profile.lookup( true, id );
             return graphdb.graphdb.getNodeById( id );
         }
 
@@ -75,24 +121,6 @@ public class HABugWorkaroundGraphDatabaseWrapper extends WrappedGraphDatabase
         {
             return id;
         }
-
-        @Override
-        public int hashCode()
-        {
-            return (int) ( ( id >>> 32 ) ^ id );
-        }
-
-        @Override
-        public boolean equals( Object obj )
-        {
-            if ( this == obj ) return true;
-            if ( obj instanceof LookupNode )
-            {
-                LookupNode that = (LookupNode) obj;
-                return this.id == that.id && this.graphdb == that.graphdb;
-            }
-            return false;
-        }
     }
 
     private static class LookupRelationship extends WrappedRelationship<HABugWorkaroundGraphDatabaseWrapper>
@@ -108,6 +136,8 @@ public class HABugWorkaroundGraphDatabaseWrapper extends WrappedGraphDatabase
         @Override
         protected Relationship actual()
         {
+            LookupProfile profile = graphdb.profile;
+            if ( profile != null ) profile.lookup( false, id );
             return graphdb.graphdb.getRelationshipById( id );
         }
 
@@ -116,23 +146,5 @@ public class HABugWorkaroundGraphDatabaseWrapper extends WrappedGraphDatabase
         {
             return id;
         }
-
-        @Override
-        public int hashCode()
-        {
-            return (int) ( ( id >>> 32 ) ^ id );
-        }
-
-        @Override
-        public boolean equals( Object obj )
-        {
-            if ( this == obj ) return true;
-            if ( obj instanceof LookupRelationship )
-            {
-                LookupRelationship that = (LookupRelationship) obj;
-                return this.id == that.id && this.graphdb == that.graphdb;
-            }
-            return false;
-        }
     }
 }
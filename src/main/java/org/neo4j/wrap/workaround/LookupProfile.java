@@ -0,0 +1,356 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap.workaround;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts how often the entities of a {@link HABugWorkaroundGraphDatabaseWrapper} are looked up in the underlying
+ * database: in total, per transaction and per entity. Install it with
+ * {@link HABugWorkaroundGraphDatabaseWrapper#setLookupProfile(LookupProfile)}.
+ * <p>
+ * With a sample interval of <code>n</code>, the stack of every <code>n</code>th lookup of each thread is captured to
+ * find the wrapper method that made it and the application code that called that method. Their counts are estimated
+ * by multiplying the samples by the interval. Capturing a stack is expensive, so keep the interval high outside of
+ * profiling sessions, or <code>0</code> to not sample at all.
+ */
+public final class LookupProfile implements LookupProfileMBean
+{
+    private static final int TOP = 20, MAX_CALL_SITES = 1000;
+
+    private final int entityCapacity;
+    private final AtomicLong nodeLookups = new AtomicLong(), relationshipLookups = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong(), transactionLookups = new AtomicLong();
+    private final AtomicLong maxTransactionLookups = new AtomicLong();
+    private final ConcurrentMap<Long, AtomicLong> entities = new ConcurrentHashMap<Long, AtomicLong>();
+    private final AtomicInteger trackedEntities = new AtomicInteger();
+    private final ConcurrentMap<String, AtomicLong> methods = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> callSites = new ConcurrentHashMap<String, AtomicLong>();
+    private final ThreadLocal<long[]> state = new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[3]; // transaction depth, lookups in transaction, lookups since last sample
+        }
+    };
+    private volatile int sampleInterval;
+    private ObjectName objectName;
+
+    /**
+     * @param entityCapacity the number of distinct entities to count lookups of, entities looked up after that many
+     *            have been seen are only counted in the totals.
+     * @param sampleInterval capture the stack of every <code>sampleInterval</code>th lookup of each thread, or
+     *            <code>0</code> to not sample.
+     */
+    public LookupProfile( int entityCapacity, int sampleInterval )
+    {
+        if ( entityCapacity < 0 )
+        {
+            throw new IllegalArgumentException( "Capacity must not be negative: " + entityCapacity );
+        }
+        this.entityCapacity = entityCapacity;
+        setSampleInterval( sampleInterval );
+    }
+
+    public LookupProfile()
+    {
+        this( 10000, 0 );
+    }
+
+    /**
+     * Registers this profile with the platform MBean server under the given name.
+     */
+    public synchronized ObjectName registerMBean( String name ) throws JMException
+    {
+        unregisterMBean();
+        ObjectName objectName = new ObjectName( "org.neo4j.wrap:type=LookupProfile,name=" + ObjectName.quote( name ) );
+        ManagementFactory.getPlatformMBeanServer().registerMBean( this, objectName );
+        this.objectName = objectName;
+        return objectName;
+    }
+
+    public synchronized void unregisterMBean()
+    {
+        if ( objectName == null ) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            if ( server.isRegistered( objectName ) ) server.unregisterMBean( objectName );
+        }
+        catch ( JMException e )
+        {
+            // already gone
+        }
+        objectName = null;
+    }
+
+    void beginTransaction()
+    {
+        long[] thread = state.get();
+        if ( thread[0]++ == 0 ) thread[1] = 0;
+    }
+
+    void finishTransaction()
+    {
+        long[] thread = state.get();
+        if ( thread[0] == 0 || --thread[0] > 0 ) return;
+        long lookups = thread[1];
+        transactions.incrementAndGet();
+        transactionLookups.addAndGet( lookups );
+        for ( long max = maxTransactionLookups.get(); lookups > max; max = maxTransactionLookups.get() )
+        {
+            if ( maxTransactionLookups.compareAndSet( max, lookups ) ) break;
+        }
+    }
+
+    void lookup( boolean node, long id )
+    {
+        ( node ? nodeLookups : relationshipLookups ).incrementAndGet();
+        long[] thread = state.get();
+        if ( thread[0] > 0 ) thread[1]++;
+        Long key = node ? id : ~id;
+        AtomicLong count = entities.get( key );
+        if ( count == null && trackedEntities.get() < entityCapacity )
+        {
+            AtomicLong added = new AtomicLong();
+            count = entities.putIfAbsent( key, added );
+            if ( count == null )
+            {
+                trackedEntities.incrementAndGet();
+                count = added;
+            }
+        }
+        if ( count != null ) count.incrementAndGet();
+        int interval = sampleInterval;
+        if ( interval > 0 && ++thread[2] >= interval )
+        {
+            thread[2] = 0;
+            sample( new Throwable().getStackTrace(), interval );
+        }
+    }
+
+    /**
+     * The method that made the lookup is the outermost of the wrapper frames on top of the stack, and the call site
+     * is the frame below it.
+     */
+    private void sample( StackTraceElement[] stack, int weight )
+    {
+        int outermost = -1;
+        for ( int i = 0; i < stack.length; i++ )
+        {
+            if ( isWrapper( stack[i] ) ) outermost = i;
+            else if ( outermost >= 0 ) break;
+        }
+        if ( outermost < 0 ) return;
+        StackTraceElement method = stack[outermost];
+        String name = simpleName( method.getClassName() ) + "." + method.getMethodName();
+        add( methods, name, weight );
+        if ( outermost + 1 < stack.length && callSites.size() < MAX_CALL_SITES )
+        {
+            add( callSites, name + " from " + stack[outermost + 1], weight );
+        }
+    }
+
+    private static boolean isWrapper( StackTraceElement frame )
+    {
+        String name = frame.getClassName();
+        if ( !name.startsWith( "org.neo4j.wrap." ) ) return false;
+        String simple = simpleName( name );
+        return simple.startsWith( "Wrapped" ) || simple.startsWith( "HABugWorkaround" );
+    }
+
+    private static String simpleName( String className )
+    {
+        String simple = className.substring( className.lastIndexOf( '.' ) + 1 );
+        int nested = simple.indexOf( '$' );
+        return nested < 0 ? simple : simple.substring( 0, nested );
+    }
+
+    private static void add( ConcurrentMap<String, AtomicLong> counts, String key, long amount )
+    {
+        AtomicLong count = counts.get( key );
+        if ( count == null )
+        {
+            AtomicLong added = new AtomicLong();
+            count = counts.putIfAbsent( key, added );
+            if ( count == null ) count = added;
+        }
+        count.addAndGet( amount );
+    }
+
+    private static String[] top( List<Count> counts )
+    {
+        Collections.sort( counts );
+        String[] top = new String[Math.min( TOP, counts.size() )];
+        for ( int i = 0; i < top.length; i++ )
+            top[i] = counts.get( i ).toString();
+        return top;
+    }
+
+    private static String[] top( Map<String, AtomicLong> counts )
+    {
+        List<Count> all = new ArrayList<Count>();
+        for ( Map.Entry<String, AtomicLong> entry : counts.entrySet() )
+            all.add( new Count( entry.getKey(), entry.getValue().get() ) );
+        return top( all );
+    }
+
+    @Override
+    public long getNodeLookups()
+    {
+        return nodeLookups.get();
+    }
+
+    @Override
+    public long getRelationshipLookups()
+    {
+        return relationshipLookups.get();
+    }
+
+    @Override
+    public long getTransactions()
+    {
+        return transactions.get();
+    }
+
+    @Override
+    public double getMeanLookupsPerTransaction()
+    {
+        long count = transactions.get();
+        return count == 0 ? 0 : (double) transactionLookups.get() / count;
+    }
+
+    @Override
+    public long getMaxLookupsPerTransaction()
+    {
+        return maxTransactionLookups.get();
+    }
+
+    @Override
+    public String[] getTopEntities()
+    {
+        List<Count> all = new ArrayList<Count>();
+        for ( Map.Entry<Long, AtomicLong> entry : entities.entrySet() )
+        {
+            long key = entry.getKey();
+            String name = key >= 0 ? "Node[" + key + "]" : "Relationship[" + ~key + "]";
+            all.add( new Count( name, entry.getValue().get() ) );
+        }
+        return top( all );
+    }
+
+    public long lookupsOfNode( long id )
+    {
+        AtomicLong count = entities.get( id );
+        return count == null ? 0 : count.get();
+    }
+
+    public long lookupsOfRelationship( long id )
+    {
+        AtomicLong count = entities.get( ~id );
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public String[] getTopMethods()
+    {
+        return top( methods );
+    }
+
+    @Override
+    public String[] getTopCallSites()
+    {
+        return top( callSites );
+    }
+
+    @Override
+    public int getSampleInterval()
+    {
+        return sampleInterval;
+    }
+
+    @Override
+    public void setSampleInterval( int interval )
+    {
+        if ( interval < 0 ) throw new IllegalArgumentException( "Sample interval must not be negative: " + interval );
+        this.sampleInterval = interval;
+    }
+
+    /**
+     * Clears all counts. Transactions that are open while resetting are counted when they finish.
+     */
+    @Override
+    public void reset()
+    {
+        nodeLookups.set( 0 );
+        relationshipLookups.set( 0 );
+        transactions.set( 0 );
+        transactionLookups.set( 0 );
+        maxTransactionLookups.set( 0 );
+        entities.clear();
+        trackedEntities.set( 0 );
+        methods.clear();
+        callSites.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "LookupProfile[nodeLookups=%d, relationshipLookups=%d, sampleInterval=%d]",
+                getNodeLookups(), getRelationshipLookups(), sampleInterval );
+    }
+
+    private static final class Count implements Comparable<Count>
+    {
+        final String name;
+        final long count;
+
+        Count( String name, long count )
+        {
+            this.name = name;
+            this.count = count;
+        }
+
+        @Override
+        public int compareTo( Count other )
+        {
+            return count > other.count ? -1 : count < other.count ? 1 : name.compareTo( other.name );
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + " " + count;
+        }
+    }
+}
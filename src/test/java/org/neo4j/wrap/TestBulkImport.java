@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBulkImport
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestBulkImport.class );
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static WrappedGraphDatabase graphdb;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void importsNodesAndRelationshipsOnSeveralThreads() throws Exception
+    {
+        final AtomicLong reported = new AtomicLong();
+        BulkImport bulk = graphdb.bulkImport( 4, 50, 1000 );
+        bulk.setNodeIndex( "people", "name" );
+        bulk.setMonitor( new BulkImport.Monitor()
+        {
+            @Override
+            public void progress( String phase, long imported, double perSecond )
+            {
+                if ( phase.equals( "nodes" ) ) reported.incrementAndGet();
+            }
+        } );
+        List<BulkImport.NodeRecord> people = new ArrayList<BulkImport.NodeRecord>();
+        for ( int i = 0; i < 1000; i++ )
+            people.add( new BulkImport.NodeRecord( 1000000 + i, Collections.<String, Object>singletonMap( "name",
+                    "person " + i ) ) );
+        bulk.importNodes( people.iterator() );
+
+        // every person knows the next two, so that batches share nodes
+        List<BulkImport.RelationshipRecord> knows = new ArrayList<BulkImport.RelationshipRecord>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            Map<String, Object> since = Collections.<String, Object>singletonMap( "since", i );
+            knows.add( new BulkImport.RelationshipRecord( 1000000 + i, 1000000 + ( i + 1 ) % 1000, KNOWS, since ) );
+            knows.add( new BulkImport.RelationshipRecord( 1000000 + i, 1000000 + ( i + 2 ) % 1000, KNOWS, since ) );
+        }
+        bulk.importRelationships( knows.iterator() );
+
+        assertEquals( 1000, bulk.importedNodes() );
+        assertEquals( 2000, bulk.importedRelationships() );
+        assertEquals( 20, reported.get() );
+        Node person = graphdb.index().forNodes( "people" ).get( "name", "person 7" ).getSingle();
+        assertEquals( person.getId(), bulk.nodeId( 1000007 ) );
+        int outgoing = 0, incoming = 0;
+        for ( Relationship relationship : person.getRelationships( KNOWS, Direction.OUTGOING ) )
+        {
+            assertEquals( 7, relationship.getProperty( "since" ) );
+            outgoing++;
+        }
+        for ( Relationship relationship : person.getRelationships( KNOWS, Direction.INCOMING ) )
+            incoming++;
+        assertEquals( 2, outgoing );
+        assertEquals( 2, incoming );
+    }
+
+    @Test
+    public void failsOnUnknownExternalIds() throws Exception
+    {
+        BulkImport bulk = new BulkImport( graphdb, 2, 10, 10 );
+        bulk.importNodes( Collections.singletonList( new BulkImport.NodeRecord( 1, null ) ).iterator() );
+        try
+        {
+            bulk.importRelationships( Collections.singletonList(
+                    new BulkImport.RelationshipRecord( 1, 2, KNOWS, null ) ).iterator() );
+            fail( "unknown external id should have failed the import" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+            assertTrue( expected.getMessage().contains( "2" ) );
+        }
+        assertEquals( 0, bulk.importedRelationships() );
+        assertTrue( bulk.nodeId( 1 ) >= 0 );
+        assertEquals( -1, bulk.nodeId( 2 ) );
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestEntityIdCollections
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestEntityIdCollections.class );
+    private static WrappedGraphDatabase graphdb;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void primitiveMapBehavesLikeHashMap()
+    {
+        Random random = new Random( 4711 );
+        LongHashMap<Long> actual = new LongHashMap<Long>( 4 );
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        for ( int i = 0; i < 20000; i++ )
+        {
+            long key = random.nextInt( 512 );
+            switch ( random.nextInt( 3 ) )
+            {
+            case 0:
+                assertEquals( expected.put( key, (long) i ), actual.put( key, (long) i ) );
+                break;
+            case 1:
+                assertEquals( expected.remove( key ), actual.removeEntry( key ) );
+                break;
+            default:
+                assertEquals( expected.get( key ), actual.get( key ) );
+            }
+            assertEquals( expected.size(), actual.size() );
+        }
+    }
+
+    @Test
+    public void cursorRemovalVisitsEveryKeyOnce()
+    {
+        Random random = new Random( 42 );
+        for ( int round = 0; round < 200; round++ )
+        {
+            LongHashSet actual = new LongHashSet( 8 );
+            Set<Long> expected = new HashSet<Long>();
+            for ( int i = random.nextInt( 64 ); i > 0; i-- )
+            {
+                long key = random.nextInt( 1000 );
+                actual.add( key );
+                expected.add( key );
+            }
+            Set<Long> seen = new HashSet<Long>();
+            for ( LongHashSet.Cursor cursor = actual.cursor(); cursor.hasNext(); )
+            {
+                cursor.next();
+                long key = cursor.key();
+                assertTrue( "visited twice: " + key, seen.add( key ) );
+                if ( random.nextBoolean() )
+                {
+                    cursor.remove();
+                    expected.remove( key );
+                }
+            }
+            assertEquals( seen.size() + " seen", expected.size(), actual.size() );
+            for ( long key : expected )
+                assertTrue( actual.contains( key ) );
+        }
+    }
+
+    @Test
+    public void nodeCollectionsWrapIds()
+    {
+        Node first = createNode(), second = createNode();
+        NodeSet nodes = new NodeSet( graphdb );
+        assertTrue( nodes.add( first ) );
+        assertFalse( nodes.add( graphdb.getNodeById( first.getId() ) ) );
+        assertTrue( nodes.add( second.getId() ) );
+        assertTrue( nodes.contains( second ) );
+        assertEquals( 2, nodes.size() );
+        Set<Node> expected = new HashSet<Node>();
+        expected.add( first );
+        expected.add( second );
+        assertEquals( expected, new HashSet<Node>( nodes ) );
+
+        NodeMap<String> names = new NodeMap<String>( graphdb );
+        names.put( first, "first" );
+        names.put( second.getId(), "second" );
+        assertEquals( "first", names.get( first.getId() ) );
+        assertEquals( "second", names.get( second ) );
+        for ( Iterator<Map.Entry<Node, String>> entries = names.entrySet().iterator(); entries.hasNext(); )
+        {
+            Map.Entry<Node, String> entry = entries.next();
+            if ( entry.getKey().equals( first ) ) entries.remove();
+        }
+        assertFalse( names.containsKey( first ) );
+        assertEquals( 1, names.size() );
+    }
+
+    private Node createNode()
+    {
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            Node node = graphdb.createNode();
+            tx.success();
+            return node;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+}
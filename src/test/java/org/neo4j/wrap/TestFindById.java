@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestFindById
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestFindById.class );
+    private static WrappedGraphDatabase graphdb;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void findsExistingAndReturnsNullForMissingEntities()
+    {
+        Node node;
+        Relationship relationship;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            node = graphdb.createNode();
+            relationship = node.createRelationshipTo( graphdb.createNode(), DynamicRelationshipType.withName( "R" ) );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( node, graphdb.findNodeById( node.getId() ) );
+        assertEquals( relationship, graphdb.findRelationshipById( relationship.getId() ) );
+        assertNull( graphdb.findNodeById( -1 ) );
+        assertNull( graphdb.findNodeById( Long.MAX_VALUE ) );
+        assertNull( graphdb.findRelationshipById( relationship.getId() + 1000 ) );
+
+        tx = graphdb.beginTx();
+        try
+        {
+            relationship.delete();
+            graphdb.findRelationshipById( relationship.getId() );
+            tx.failure();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( relationship, graphdb.findRelationshipById( relationship.getId() ) );
+    }
+
+    @Test
+    public void deletedEntitiesAreRememberedUntilTheirIdIsReused()
+    {
+        Node node;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            node = graphdb.createNode();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        tx = graphdb.beginTx();
+        try
+        {
+            graphdb.findNodeById( node.getId() ).delete();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertNull( graphdb.findNodeById( node.getId() ) );
+        MissingIds missing = new MissingIds( 2, TimeUnit.HOURS.toNanos( 1 ) );
+        missing.add( true, 1, missing.generation() );
+        missing.add( true, 2, missing.generation() );
+        missing.add( true, 3, missing.generation() );
+        assertEquals( false, missing.contains( true, 1 ) );
+        assertEquals( true, missing.contains( true, 3 ) );
+        assertEquals( false, missing.contains( false, 3 ) );
+    }
+
+    @Test
+    public void missingIdsExpire() throws Exception
+    {
+        MissingIds missing = new MissingIds( 10, TimeUnit.MILLISECONDS.toNanos( 50 ) );
+        missing.add( true, 1, missing.generation() );
+        assertTrue( missing.contains( true, 1 ) );
+        Thread.sleep( 100 );
+        missing.add( true, 2, missing.generation() );
+        assertFalse( missing.contains( true, 1 ) );
+        assertTrue( missing.contains( true, 2 ) );
+    }
+}
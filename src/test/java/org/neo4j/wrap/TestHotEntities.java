@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestHotEntities
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestHotEntities.class );
+    private static WrappedGraphDatabase graphdb;
+    private static long[] ids;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            ids = new long[50];
+            for ( int i = 0; i < ids.length; i++ )
+            {
+                Node node = graphdb.createNode();
+                node.setProperty( "name", "node " + i );
+                ids[i] = node.getId();
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void reportsTheMostFrequentlyAccessedNodes() throws Exception
+    {
+        HotEntities hot = new HotEntities( 3 );
+        graphdb.setHotEntities( hot );
+        try
+        {
+            long total = 0;
+            for ( int i = 0; i < ids.length; i++ )
+            {
+                // node i is read 1 + i % 10 times, except the first three which are read far more often
+                int reads = i < 3 ? 100 - i * 10 : 1 + i % 10;
+                for ( int read = 0; read < reads; read++ )
+                    graphdb.getNodeById( ids[i] );
+                total += reads;
+            }
+            assertEquals( total, hot.getRecordedAccesses() );
+            assertArrayEquals( new long[] { ids[0], ids[1], ids[2] }, hot.getHottestNodeIds() );
+            assertTrue( hot.estimateNode( ids[0] ) >= 100 );
+            assertEquals( 0, hot.getHottestRelationshipIds().length );
+
+            ObjectName name = hot.registerMBean( "test" );
+            assertArrayEquals( hot.getHottestNodeIds(), (long[]) ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute( name, "HottestNodeIds" ) );
+        }
+        finally
+        {
+            graphdb.setHotEntities( null );
+        }
+        assertFalse( ManagementFactory.getPlatformMBeanServer().queryNames(
+                new ObjectName( "org.neo4j.wrap:type=HotEntities,*" ), null ).iterator().hasNext() );
+    }
+
+    @Test
+    public void pinnedEntitiesAreNotEvictedFromThePropertyCache()
+    {
+        PropertyCache cache = new PropertyCache( 2000 );
+        HotEntities hot = new HotEntities( 1 );
+        hot.setPinning( true );
+        graphdb.setPropertyCache( cache );
+        graphdb.setHotEntities( hot );
+        try
+        {
+            for ( int read = 0; read < 10; read++ )
+                graphdb.getNodeById( ids[0] );
+            assertArrayEquals( new long[] { ids[0] }, hot.getHottestNodeIds() );
+            for ( long id : ids )
+                graphdb.getNodeById( id ).getProperty( "name" );
+            assertTrue( cache.evictions() > 0 );
+            long misses = cache.misses();
+            assertEquals( "node 0", graphdb.getNodeById( ids[0] ).getProperty( "name" ) );
+            assertEquals( misses, cache.misses() );
+        }
+        finally
+        {
+            graphdb.setHotEntities( null );
+            graphdb.setPropertyCache( null );
+        }
+    }
+
+    @Test
+    public void pinnedEntitiesAreReloadedAfterTheirPropertiesChange()
+    {
+        PropertyCache cache = new PropertyCache( 100000 );
+        HotEntities hot = new HotEntities( 1 );
+        hot.setPinning( true );
+        graphdb.setPropertyCache( cache );
+        graphdb.setHotEntities( hot );
+        try
+        {
+            for ( int read = 0; read < 10; read++ )
+                graphdb.getNodeById( ids[1] );
+            assertArrayEquals( new long[] { ids[1] }, hot.getHottestNodeIds() );
+            setName( ids[1], "hub" );
+            long misses = cache.misses();
+            assertEquals( "hub", graphdb.getNodeById( ids[1] ).getProperty( "name" ) );
+            assertEquals( misses, cache.misses() );
+        }
+        finally
+        {
+            graphdb.setHotEntities( null );
+            graphdb.setPropertyCache( null );
+            setName( ids[1], "node 1" );
+        }
+    }
+
+    private static void setName( long id, String name )
+    {
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            graphdb.getNodeById( id ).setProperty( "name", name );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestInterceptors
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestInterceptors.class );
+    private static final List<String> calls = new ArrayList<String>();
+    private static final Recording first = new Recording( "first" ), second = new Recording( "second" );
+    private static WrappedGraphDatabase graphdb;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ), first, second );
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void interceptorsAreInvokedInOrderOnASingleLayer()
+    {
+        calls.clear();
+        Node node;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            node = graphdb.createNode();
+            graphdb.index().forNodes( "interceptors" ).add( node, "key", "value" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( Arrays.asList( "first begin", "second begin", "first create", "second create",
+                "first success", "second success", "first finish", "second finish" ), calls.subList( 0, 8 ) );
+        assertTrue( second.committed.contains( node ) );
+        assertTrue( second.committed.get( 0 ) instanceof WrappedNode<?> );
+
+        calls.clear();
+        graphdb.getNodeById( node.getId() );
+        graphdb.index().forNodes( "interceptors" ).get( "key", "value" ).getSingle();
+        assertEquals( Arrays.asList( "first node " + node.getId(), "second node " + node.getId(),
+                "first query interceptors", "second query interceptors", "first node " + node.getId(),
+                "second node " + node.getId() ), calls );
+    }
+
+    @Test
+    public void interceptorsAreRegisteredWithoutCallingOverridableMethods()
+    {
+        Recording third = new Recording( "third" );
+        Registering wrapper = new Registering( graphdb, third );
+        try
+        {
+            assertTrue( wrapper.registered.isEmpty() );
+        }
+        finally
+        {
+            wrapper.unregisterTransactionEventHandler( third );
+        }
+    }
+
+    private static class Registering extends HABugWorkaroundGraphDatabaseWrapper
+    {
+        final List<TransactionEventHandler<?>> registered = new ArrayList<TransactionEventHandler<?>>();
+
+        Registering( WrappedGraphDatabase graphdb, Interceptor... interceptors )
+        {
+            super( graphdb, interceptors );
+        }
+
+        @Override
+        public <T> TransactionEventHandler<T> registerTransactionEventHandler( TransactionEventHandler<T> handler )
+        {
+            registered.add( handler );
+            return super.registerTransactionEventHandler( handler );
+        }
+    }
+
+    private static class Recording extends Interceptor implements TransactionEventHandler<Void>
+    {
+        private final String name;
+        final List<Node> committed = new ArrayList<Node>();
+
+        Recording( String name )
+        {
+            this.name = name;
+        }
+
+        @Override
+        protected void onBeginTransaction()
+        {
+            calls.add( name + " begin" );
+        }
+
+        @Override
+        protected void onNodeCreate()
+        {
+            calls.add( name + " create" );
+        }
+
+        @Override
+        protected void onSuccessTransaction()
+        {
+            calls.add( name + " success" );
+        }
+
+        @Override
+        protected void onFinishTransaction()
+        {
+            calls.add( name + " finish" );
+        }
+
+        @Override
+        protected void onNodeAccess( long id )
+        {
+            calls.add( name + " node " + id );
+        }
+
+        @Override
+        protected void onIndexQuery( String indexName )
+        {
+            calls.add( name + " query " + indexName );
+        }
+
+        @Override
+        public Void beforeCommit( TransactionData data )
+        {
+            return null;
+        }
+
+        @Override
+        public void afterCommit( TransactionData data, Void state )
+        {
+            for ( Node node : data.createdNodes() )
+                committed.add( node );
+        }
+
+        @Override
+        public void afterRollback( TransactionData data, Void state )
+        {
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ReturnableEvaluator;
+import org.neo4j.graphdb.StopEvaluator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TraversalPosition;
+import org.neo4j.graphdb.Traverser.Order;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.LatencyMetrics.Operation;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLatencyMetrics
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestLatencyMetrics.class );
+    private static final RelationshipType NEXT = DynamicRelationshipType.withName( "NEXT" );
+    private static WrappedGraphDatabase graphdb;
+    private static long first;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            Index<Node> names = graphdb.index().forNodes( "names" );
+            Node previous = null;
+            for ( int i = 0; i < 5; i++ )
+            {
+                Node node = graphdb.createNode();
+                node.setProperty( "name", "node " + i );
+                names.add( node, "name", "node " + i );
+                if ( previous == null ) first = node.getId();
+                else previous.createRelationshipTo( node, NEXT );
+                previous = node;
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void recordsHistogramsPerOperation() throws Exception
+    {
+        LatencyMetrics metrics = new LatencyMetrics();
+        graphdb.setLatencyMetrics( metrics );
+        try
+        {
+            Node node = graphdb.getNodeById( first );
+            for ( int i = 0; i < 100; i++ )
+                node.getProperty( "name" );
+            assertEquals( "node 3", graphdb.index().forNodes( "names" ).get( "name", "node 3" ).getSingle()
+                    .getProperty( "name" ) );
+            int count = 0;
+            for ( Node reached : node.traverse( Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH,
+                    ReturnableEvaluator.ALL, NEXT, Direction.OUTGOING ) )
+                count++;
+            assertEquals( 5, count );
+            for ( Relationship relationship : node.getRelationships( NEXT ) )
+                relationship.getId();
+            for ( Object value : node.getPropertyValues() )
+                assertEquals( "node 0", value );
+
+            assertEquals( 101, metrics.count( Operation.GET_PROPERTY ) );
+            assertEquals( 1, metrics.count( Operation.INDEX_GET ) );
+            assertEquals( 1, metrics.count( Operation.TRAVERSE ) );
+            assertTrue( metrics.count( Operation.TRAVERSAL_STEP ) >= 5 );
+            assertEquals( 1, metrics.count( Operation.INDEX_HIT_STEP ) );
+            assertEquals( 3, metrics.count( Operation.RELATIONSHIP_STEP ) );
+            assertEquals( 1, metrics.count( Operation.GET_PROPERTY_VALUES ) );
+            assertEquals( 0, metrics.count( Operation.SET_PROPERTY ) );
+            double median = metrics.percentileMicros( Operation.GET_PROPERTY, 50 );
+            assertTrue( median > 0 && median <= metrics.maxMicros( Operation.GET_PROPERTY ) );
+
+            ObjectName name = metrics.registerMBean( "test" );
+            try
+            {
+                assertEquals( 101L, ManagementFactory.getPlatformMBeanServer().invoke( name, "getCount",
+                        new Object[] { "GET_PROPERTY" }, new String[] { String.class.getName() } ) );
+                String[] summary = (String[]) ManagementFactory.getPlatformMBeanServer().getAttribute( name,
+                        "Summary" );
+                assertEquals( 8, summary.length );
+            }
+            finally
+            {
+                metrics.unregisterMBean();
+            }
+        }
+        finally
+        {
+            graphdb.setLatencyMetrics( null );
+        }
+    }
+
+    @Test
+    public void samplesCallsAndLogsSlowOnes() throws Exception
+    {
+        LatencyMetrics metrics = new LatencyMetrics( 10, 5 );
+        graphdb.setLatencyMetrics( metrics );
+        try
+        {
+            Node node = graphdb.getNodeById( first );
+            for ( int i = 0; i < 100; i++ )
+                node.hasProperty( "name" );
+            assertEquals( 10, metrics.count( Operation.HAS_PROPERTY ) );
+
+            metrics.setSampleInterval( 1 );
+            StopEvaluator slow = new StopEvaluator()
+            {
+                @Override
+                public boolean isStopNode( TraversalPosition currentPos )
+                {
+                    try
+                    {
+                        Thread.sleep( 10 );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    return false;
+                }
+            };
+            for ( Node reached : node.traverse( Order.DEPTH_FIRST, slow, ReturnableEvaluator.ALL, NEXT,
+                    Direction.OUTGOING ) )
+                reached.getId();
+            assertTrue( metrics.slowCallCount( Operation.TRAVERSAL_STEP ) > 0 );
+            String[] slowCalls = metrics.getSlowCalls();
+            assertTrue( slowCalls.length > 0 );
+            assertTrue( slowCalls[0], slowCalls[0].startsWith( "Slow TRAVERSAL_STEP Node[" + first + "] NEXT" ) );
+
+            metrics.reset();
+            assertEquals( 0, metrics.getSlowCalls().length );
+            assertEquals( 0, metrics.count( Operation.TRAVERSAL_STEP ) );
+        }
+        finally
+        {
+            graphdb.setLatencyMetrics( null );
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestLockForWrite
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestLockForWrite.class );
+    private static WrappedGraphDatabase graphdb;
+    private static long[] accounts;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            accounts = new long[2];
+            for ( int i = 0; i < accounts.length; i++ )
+            {
+                Node account = graphdb.createNode();
+                account.setProperty( "balance", 1000 );
+                accounts[i] = account.getId();
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void transfersInOppositeOrderDoNotDeadlock() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            List<Future<Void>> transfers = new ArrayList<Future<Void>>();
+            for ( int i = 0; i < 4; i++ )
+                transfers.add( executor.submit( transfers( 100, accounts[i % 2], accounts[1 - i % 2] ) ) );
+            for ( Future<Void> transfer : transfers )
+                transfer.get( 60, TimeUnit.SECONDS ); // throws if any transfer deadlocked
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertEquals( 1000, graphdb.getNodeById( accounts[0] ).getProperty( "balance" ) );
+        assertEquals( 1000, graphdb.getNodeById( accounts[1] ).getProperty( "balance" ) );
+    }
+
+    @Test
+    public void lockingChangesNothing() throws Exception
+    {
+        final boolean[] changed = { true };
+        TransactionEventHandler<Void> handler = new TransactionEventHandler<Void>()
+        {
+            @Override
+            public Void beforeCommit( TransactionData data )
+            {
+                changed[0] = data.removedNodeProperties().iterator().hasNext()
+                             || data.assignedNodeProperties().iterator().hasNext();
+                return null;
+            }
+
+            @Override
+            public void afterCommit( TransactionData data, Void state )
+            {
+            }
+
+            @Override
+            public void afterRollback( TransactionData data, Void state )
+            {
+            }
+        };
+        graphdb.registerTransactionEventHandler( handler );
+        try
+        {
+            Transaction tx = graphdb.beginTx();
+            try
+            {
+                graphdb.lockForWrite( accounts );
+                graphdb.createNode();
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+        finally
+        {
+            graphdb.unregisterTransactionEventHandler( handler );
+        }
+        assertFalse( changed[0] );
+    }
+
+    /**
+     * Moves one unit back and forth between the accounts, writing them in the given order after locking both.
+     */
+    private static Callable<Void> transfers( final int count, final long from, final long to )
+    {
+        return new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                for ( int i = 0; i < count; i++ )
+                {
+                    int amount = i % 2 == 0 ? 1 : -1;
+                    Transaction tx = graphdb.beginTx();
+                    try
+                    {
+                        Node debited = graphdb.getNodeById( from ), credited = graphdb.getNodeById( to );
+                        graphdb.lockForWrite( debited, credited );
+                        debited.setProperty( "balance", (Integer) debited.getProperty( "balance" ) - amount );
+                        Thread.yield();
+                        credited.setProperty( "balance", (Integer) credited.getProperty( "balance" ) + amount );
+                        tx.success();
+                    }
+                    finally
+                    {
+                        tx.finish();
+                    }
+                }
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestPropertyCache
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestPropertyCache.class );
+    private static EmbeddedGraphDatabase kernel;
+    private static WrappedGraphDatabase graphdb;
+    private PropertyCache cache;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        kernel = new EmbeddedGraphDatabase( target.graphDbDir( true ).getAbsolutePath() );
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( kernel );
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+        kernel = null;
+    }
+
+    @Before
+    public void installCache()
+    {
+        graphdb.setPropertyCache( cache = new PropertyCache( 1024 * 1024 ) );
+    }
+
+    @After
+    public void removeCache()
+    {
+        graphdb.setPropertyCache( null );
+    }
+
+    @Test
+    public void repeatedReadsAreServedFromCache()
+    {
+        Node node = createNode( "name", "alice" );
+        assertEquals( "alice", node.getProperty( "name" ) );
+        assertEquals( 1, cache.misses() );
+        assertEquals( "alice", node.getProperty( "name" ) );
+        assertTrue( node.hasProperty( "name" ) );
+        assertFalse( node.hasProperty( "age" ) );
+        assertFalse( node.hasProperty( "age" ) );
+        assertEquals( 3, cache.hits() );
+    }
+
+    @Test
+    public void writesThroughWrapperInvalidate()
+    {
+        Node node = createNode( "name", "alice" );
+        assertEquals( "alice", node.getProperty( "name" ) );
+        setProperty( node, "name", "bob" );
+        assertEquals( "bob", node.getProperty( "name" ) );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            node.removeProperty( "name" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertNull( node.getProperty( "name", null ) );
+    }
+
+    @Test
+    public void commitsOfOtherWritersInvalidate()
+    {
+        Node node = createNode( "name", "alice" );
+        assertEquals( "alice", node.getProperty( "name" ) );
+        assertEquals( 1, countKeys( node ) );
+        Transaction tx = kernel.beginTx();
+        try
+        {
+            Node raw = kernel.getNodeById( node.getId() );
+            raw.setProperty( "name", "carol" );
+            raw.setProperty( "age", 42 );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( "carol", node.getProperty( "name" ) );
+        assertEquals( 2, countKeys( node ) );
+    }
+
+    @Test
+    public void uncommittedWritesAreNotCached() throws Exception
+    {
+        final Node node = createNode( "name", "alice" );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            node.setProperty( "name", "bob" );
+            assertEquals( "bob", node.getProperty( "name" ) );
+            Thread reader = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    node.getProperty( "name" );
+                }
+            };
+            reader.start();
+            reader.join();
+            tx.failure();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( "alice", node.getProperty( "name" ) );
+    }
+
+    @Test
+    public void entriesExpireAfterTheirTimeToLive() throws Exception
+    {
+        graphdb.setPropertyCache( cache = new PropertyCache( 1024 * 1024, 50, TimeUnit.MILLISECONDS ) );
+        Node node = createNode( "name", "alice" );
+        assertEquals( "alice", node.getProperty( "name" ) );
+        kernel.unregisterTransactionEventHandler( cache ); // like a transaction pulled from another instance
+        try
+        {
+            Transaction tx = kernel.beginTx();
+            try
+            {
+                kernel.getNodeById( node.getId() ).setProperty( "name", "carol" );
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+            assertEquals( "alice", node.getProperty( "name" ) );
+            Thread.sleep( 100 );
+            assertEquals( "carol", node.getProperty( "name" ) );
+        }
+        finally
+        {
+            kernel.registerTransactionEventHandler( cache );
+        }
+    }
+
+    @Test
+    public void evictsBeyondBudget()
+    {
+        graphdb.setPropertyCache( cache = new PropertyCache( 1024 ) );
+        for ( int i = 0; i < 20; i++ )
+        {
+            createNode( "name", "node" + i ).getProperty( "name" );
+        }
+        assertTrue( cache.bytes() <= 1024 );
+        assertTrue( cache.evictions() > 0 );
+    }
+
+    private Node createNode( String key, Object value )
+    {
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            Node node = graphdb.createNode();
+            node.setProperty( key, value );
+            tx.success();
+            return node;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void setProperty( Node node, String key, Object value )
+    {
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            node.setProperty( key, value );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private static int countKeys( Node node )
+    {
+        int count = 0;
+        for ( @SuppressWarnings( "unused" ) String key : node.getPropertyKeys() )
+            count++;
+        return count;
+    }
+}
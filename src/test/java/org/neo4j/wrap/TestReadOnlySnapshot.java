@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestReadOnlySnapshot
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestReadOnlySnapshot.class );
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" ),
+            LIKES = DynamicRelationshipType.withName( "LIKES" );
+    private static EmbeddedGraphDatabase graphdb;
+    private static long a, b, c;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new EmbeddedGraphDatabase( target.graphDbDir( true ).getAbsolutePath() );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            Node na = graphdb.createNode(), nb = graphdb.createNode(), nc = graphdb.createNode();
+            na.setProperty( "name", "a" );
+            na.setProperty( "scores", new int[] { 1, 2 } );
+            nb.setProperty( "name", "b" );
+            nc.setProperty( "name", "c" );
+            na.createRelationshipTo( nb, KNOWS );
+            na.createRelationshipTo( nc, LIKES );
+            nc.createRelationshipTo( na, KNOWS );
+            a = na.getId();
+            b = nb.getId();
+            c = nc.getId();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void servesRepeatedVisitsFromTheFirstCopy()
+    {
+        ReadOnlySnapshot snapshot = new ReadOnlySnapshot( graphdb, 1024 * 1024 );
+        Node node = snapshot.getNodeById( a );
+        assertEquals( "a", node.getProperty( "name" ) );
+        ( (int[]) node.getProperty( "scores" ) )[0] = 42;
+        assertArrayEquals( new int[] { 1, 2 }, (int[]) node.getProperty( "scores" ) );
+        setName( a, "changed" );
+        assertEquals( "a", snapshot.getNodeById( a ).getProperty( "name" ) );
+        assertEquals( "changed", new ReadOnlySnapshot( graphdb, 1024 * 1024 ).getNodeById( a ).getProperty( "name" ) );
+        setName( a, "a" );
+        assertTrue( snapshot.hits() > 0 );
+    }
+
+    @Test
+    public void filtersRelationshipsByDirectionAndType()
+    {
+        ReadOnlySnapshot snapshot = new ReadOnlySnapshot( graphdb, 1024 * 1024 );
+        Node node = snapshot.getNodeById( a );
+        assertEquals( 3, IteratorUtil.count( node.getRelationships() ) );
+        assertEquals( 2, IteratorUtil.count( node.getRelationships( Direction.OUTGOING ) ) );
+        assertEquals( 2, IteratorUtil.count( node.getRelationships( KNOWS ) ) );
+        Relationship incoming = node.getSingleRelationship( KNOWS, Direction.INCOMING );
+        assertEquals( c, incoming.getStartNode().getId() );
+        assertEquals( a, ( (WrappedRelationship<?>) incoming ).getEndNodeId() );
+        assertEquals( KNOWS.name(), incoming.getType().name() );
+        assertEquals( "b", node.getSingleRelationship( KNOWS, Direction.OUTGOING ).getEndNode().getProperty( "name" ) );
+        assertFalse( snapshot.getNodeById( b ).hasRelationship( Direction.OUTGOING ) );
+    }
+
+    @Test
+    public void rejectsMutationsAndEvictsBeyondItsBudget()
+    {
+        ReadOnlySnapshot snapshot = new ReadOnlySnapshot( graphdb, 200 );
+        try
+        {
+            snapshot.beginTx();
+            fail( "snapshot should not open transactions" );
+        }
+        catch ( UnsupportedOperationException expected )
+        {
+            // ok
+        }
+        try
+        {
+            snapshot.getNodeById( a ).setProperty( "name", "x" );
+            fail( "snapshot should be read only" );
+        }
+        catch ( UnsupportedOperationException expected )
+        {
+            // ok
+        }
+        for ( long id : new long[] { a, b, c } )
+        {
+            snapshot.getNodeById( id ).getProperty( "name" );
+            IteratorUtil.count( snapshot.getNodeById( id ).getRelationships() );
+        }
+        assertTrue( snapshot.evictions() > 0 );
+        assertTrue( snapshot.bytes() <= 200 );
+    }
+
+    @Test
+    public void rejectsIndexChanges()
+    {
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            graphdb.index().forNodes( "names" ).add( graphdb.getNodeById( a ), "name", "a" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        ReadOnlySnapshot snapshot = new ReadOnlySnapshot( graphdb, 1024 * 1024 );
+        final Index<Node> names = snapshot.index().forNodes( "names" );
+        assertEquals( a, names.get( "name", "a" ).getSingle().getId() );
+        final Node node = snapshot.getNodeById( a );
+        final IndexManager index = snapshot.index();
+        for ( Runnable change : new Runnable[] { new Runnable()
+        {
+            public void run()
+            {
+                names.add( node, "name", "x" );
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                names.remove( node );
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                names.delete();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                index.forNodes( "created" );
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                index.getNodeAutoIndexer().startAutoIndexingProperty( "name" );
+            }
+        } } )
+        {
+            try
+            {
+                change.run();
+                fail( "snapshot should be read only" );
+            }
+            catch ( UnsupportedOperationException expected )
+            {
+                // ok
+            }
+        }
+        assertFalse( graphdb.index().existsForNodes( "created" ) );
+    }
+
+    @Test
+    public void doesNotKeepRecordsLargerThanItsBudget()
+    {
+        ReadOnlySnapshot snapshot = new ReadOnlySnapshot( graphdb, 32 );
+        assertEquals( "a", snapshot.getNodeById( a ).getProperty( "name" ) );
+        assertEquals( 3, IteratorUtil.count( snapshot.getNodeById( a ).getRelationships() ) );
+        assertEquals( 0, snapshot.bytes() );
+        assertEquals( 0, snapshot.evictions() );
+    }
+
+    private static void setName( long id, String name )
+    {
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            graphdb.getNodeById( id ).setProperty( "name", name );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+}
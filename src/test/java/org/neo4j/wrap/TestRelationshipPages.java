@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestRelationshipPages
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestRelationshipPages.class );
+    private static WrappedGraphDatabase graphdb;
+    private static WrappedNode<?> hub;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            hub = (WrappedNode<?>) graphdb.createNode();
+            for ( int i = 0; i < 25; i++ )
+            {
+                hub.createRelationshipTo( graphdb.createNode(), i % 5 == 0 ? Types.FOO : Types.BAR );
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void pagesCoverAllRelationshipsOnce()
+    {
+        assertEquals( 25, readAll( 10, Direction.OUTGOING ).size() );
+        assertEquals( 5, readAll( 2, Direction.BOTH, Types.FOO ).size() );
+        assertEquals( 0, readAll( 10, Direction.INCOMING ).size() );
+    }
+
+    @Test
+    public void staleContinuationRescansToLastSeen()
+    {
+        RelationshipPage first = hub.getRelationshipPage( 10, null, Direction.OUTGOING );
+        RelationshipPage second = hub.getRelationshipPage( 10, first.getContinuation(), Direction.OUTGOING );
+        // continuing from the first page again cannot use the open cursor, which has moved on
+        RelationshipPage again = hub.getRelationshipPage( 10, first.getContinuation(), Direction.OUTGOING );
+        assertEquals( second.getRelationships(), again.getRelationships() );
+        RelationshipPage last = hub.getRelationshipPage( 10, second.getContinuation(), Direction.OUTGOING );
+        assertEquals( 5, last.getRelationships().size() );
+        assertFalse( last.hasMore() );
+        assertNull( last.getContinuation() );
+    }
+
+    @Test
+    public void pagesContinueOnOtherThreads() throws Exception
+    {
+        final RelationshipPage first = hub.getRelationshipPage( 10, null, Direction.OUTGOING );
+        final RelationshipPage[] second = new RelationshipPage[1];
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                second[0] = hub.getRelationshipPage( 10, first.getContinuation(), Direction.OUTGOING );
+            }
+        };
+        reader.start();
+        reader.join();
+        assertEquals( 10, second[0].getRelationships().size() );
+        assertFalse( first.getRelationships().contains( second[0].getRelationships().get( 0 ) ) );
+        // the cursor is still open for the thread that opened it
+        assertEquals( second[0].getRelationships(),
+                hub.getRelationshipPage( 10, first.getContinuation(), Direction.OUTGOING ).getRelationships() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void continuationIsBoundToFilter()
+    {
+        RelationshipPage first = hub.getRelationshipPage( 10, null, Direction.OUTGOING );
+        hub.getRelationshipPage( 10, first.getContinuation(), Direction.OUTGOING, Types.FOO );
+    }
+
+    private Set<Relationship> readAll( int pageSize, Direction direction, RelationshipType... types )
+    {
+        Set<Relationship> all = new HashSet<Relationship>();
+        String continuation = null;
+        do
+        {
+            RelationshipPage page = hub.getRelationshipPage( pageSize, continuation, direction, types );
+            assertTrue( page.getRelationships().size() <= pageSize );
+            for ( Relationship relationship : page.getRelationships() )
+                assertTrue( all.add( relationship ) );
+            continuation = page.getContinuation();
+        }
+        while ( continuation != null );
+        return all;
+    }
+
+    enum Types implements RelationshipType
+    {
+        FOO, BAR
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestRelationshipTypes
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestRelationshipTypes.class );
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" ),
+            LIKES = DynamicRelationshipType.withName( "LIKES" );
+    private static EmbeddedGraphDatabase kernel;
+    private static WrappedGraphDatabase graphdb;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        kernel = new EmbeddedGraphDatabase( target.graphDbDir( true ).getAbsolutePath() );
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( kernel );
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+        kernel = null;
+    }
+
+    @Test
+    public void internsTypesWithDenseIds()
+    {
+        RelationshipTypeDictionary dictionary = freshDictionary();
+        RelationshipType knows = dictionary.intern( KNOWS );
+        assertSame( knows, dictionary.intern( "KNOWS" ) );
+        assertSame( knows, dictionary.intern( knows ) );
+        assertEquals( KNOWS.name(), knows.name() );
+        assertTrue( knows.equals( KNOWS ) );
+        for ( int i = 0; i < 100; i++ )
+            dictionary.intern( "TYPE_" + i );
+        assertEquals( 101, dictionary.size() );
+        assertEquals( 0, dictionary.id( KNOWS ) );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( i + 1, dictionary.lookup( "TYPE_" + i ) );
+            assertEquals( "TYPE_" + i, dictionary.type( i + 1 ).name() );
+        }
+        assertEquals( -1, dictionary.lookup( "UNKNOWN" ) );
+        assertEquals( 101, dictionary.size() );
+    }
+
+    @Test
+    public void typeSetsAreBitmapsOverIds()
+    {
+        RelationshipTypeDictionary dictionary = freshDictionary();
+        for ( int i = 0; i < 130; i++ )
+            dictionary.intern( "TYPE_" + i );
+        RelationshipTypeDictionary.TypeSet set = dictionary.typeSet( DynamicRelationshipType.withName( "TYPE_3" ),
+                DynamicRelationshipType.withName( "TYPE_64" ), DynamicRelationshipType.withName( "TYPE_129" ) );
+        for ( int i = 0; i < 130; i++ )
+            assertEquals( "TYPE_" + i, i == 3 || i == 64 || i == 129, set.contains( i ) );
+        assertFalse( set.contains( -1 ) );
+        assertFalse( set.contains( 200 ) );
+        assertTrue( set.contains( DynamicRelationshipType.withName( "TYPE_64" ) ) );
+        assertFalse( set.contains( DynamicRelationshipType.withName( "UNKNOWN" ) ) );
+    }
+
+    @Test
+    public void comparesTypesOfRelationshipsByIntId()
+    {
+        Relationship relationship;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            Node start = graphdb.createNode();
+            relationship = start.createRelationshipTo( graphdb.createNode(), KNOWS );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        WrappedRelationship<?> wrapped = (WrappedRelationship<?>) graphdb.getRelationshipById( relationship.getId() );
+        RelationshipTypeDictionary dictionary = graphdb.typeDictionary();
+        assertTrue( wrapped.isType( dictionary.id( KNOWS ) ) );
+        assertFalse( wrapped.isType( dictionary.id( LIKES ) ) );
+        assertTrue( wrapped.isType( KNOWS ) );
+        assertFalse( wrapped.isType( LIKES ) );
+        assertSame( dictionary.intern( KNOWS ), wrapped.getType() );
+        assertTrue( dictionary.typeSet( LIKES, KNOWS ).contains( wrapped ) );
+        assertFalse( dictionary.typeSet( LIKES ).contains( wrapped ) );
+    }
+
+    @Test
+    public void refreshesTheRelationshipTypesWhenANewTypeIsCommitted() throws Exception
+    {
+        List<String> before = names( graphdb.getRelationshipTypes() );
+        assertFalse( before.contains( "CREATED_ELSEWHERE" ) );
+        Thread other = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Transaction tx = kernel.beginTx();
+                try
+                {
+                    kernel.createNode().createRelationshipTo( kernel.createNode(),
+                            DynamicRelationshipType.withName( "CREATED_ELSEWHERE" ) );
+                    tx.success();
+                }
+                finally
+                {
+                    tx.finish();
+                }
+            }
+        };
+        other.start();
+        other.join();
+        assertTrue( names( graphdb.getRelationshipTypes() ).contains( "CREATED_ELSEWHERE" ) );
+
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            graphdb.createNode().createRelationshipTo( graphdb.createNode(),
+                    DynamicRelationshipType.withName( "CREATED_HERE" ) );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        List<String> after = names( graphdb.getRelationshipTypes() );
+        assertTrue( after.contains( "CREATED_HERE" ) );
+        assertEquals( before.size() + 2, after.size() );
+    }
+
+    private static List<String> names( Iterable<RelationshipType> types )
+    {
+        List<String> names = new ArrayList<String>();
+        for ( RelationshipType type : types )
+            names.add( type.name() );
+        return names;
+    }
+
+    /**
+     * Returns the dictionary of a wrapper of its own, so that its ids start at zero.
+     */
+    private static RelationshipTypeDictionary freshDictionary()
+    {
+        return new HABugWorkaroundGraphDatabaseWrapper( kernel ).typeDictionary();
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestRetryPolicy
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestRetryPolicy.class );
+    private static WrappedGraphDatabase graphdb;
+    private static long first, second;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            first = graphdb.createNode().getId();
+            second = graphdb.createNode().getId();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void retriesDeadlockedWork() throws Exception
+    {
+        final RetryPolicy policy = new RetryPolicy( 5, 1, 10, 0.1 );
+        final CountDownLatch bothLocked = new CountDownLatch( 2 );
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            Future<Integer> forward = executor.submit( lockInOrder( policy, bothLocked, first, second ) );
+            Future<Integer> backward = executor.submit( lockInOrder( policy, bothLocked, second, first ) );
+            int attempts = forward.get( 30, TimeUnit.SECONDS ) + backward.get( 30, TimeUnit.SECONDS );
+            assertTrue( attempts > 2 );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertEquals( 2, policy.getExecutions() );
+        assertEquals( 2, policy.getSuccesses() );
+        assertTrue( policy.getDeadlocks() > 0 );
+        assertEquals( policy.getDeadlocks(), policy.getRetries() );
+        assertEquals( 0, policy.getAborts() );
+    }
+
+    @Test
+    public void doesNotRetryOtherFailures() throws Exception
+    {
+        RetryPolicy policy = new RetryPolicy();
+        final int[] attempts = { 0 };
+        try
+        {
+            graphdb.execute( new TransactionExecutor.UnitOfWork<Void>()
+            {
+                @Override
+                public Void execute( GraphDatabaseService graphdb )
+                {
+                    attempts[0]++;
+                    throw new IllegalArgumentException( "not transient" );
+                }
+            }, policy );
+            fail( "failure should have been thrown" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+            // not retried
+        }
+        assertEquals( 1, attempts[0] );
+        assertEquals( 1, policy.getFailures() );
+        assertEquals( 0, policy.getRetries() );
+    }
+
+    /**
+     * Sets a property of both nodes in the given order, waiting on the first attempt until the other thread has
+     * locked its first node too, so that the two deadlock. Returns the number of attempts.
+     */
+    private static Callable<Integer> lockInOrder( final RetryPolicy policy, final CountDownLatch bothLocked,
+            final long one, final long other )
+    {
+        return new Callable<Integer>()
+        {
+            @Override
+            public Integer call() throws Exception
+            {
+                final int[] attempts = { 0 };
+                graphdb.execute( new TransactionExecutor.UnitOfWork<Void>()
+                {
+                    @Override
+                    public Void execute( GraphDatabaseService graphdb ) throws Exception
+                    {
+                        Node node = graphdb.getNodeById( one );
+                        node.setProperty( "by", other );
+                        if ( attempts[0]++ == 0 )
+                        {
+                            bothLocked.countDown();
+                            bothLocked.await( 10, TimeUnit.SECONDS );
+                        }
+                        graphdb.getNodeById( other ).setProperty( "by", one );
+                        return null;
+                    }
+                }, policy );
+                return attempts[0];
+            }
+        };
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.index.IndexHits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestStreaming
+{
+    private ExecutorService worker;
+
+    @Before
+    public void startWorker()
+    {
+        worker = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void stopWorker() throws Exception
+    {
+        worker.shutdown();
+        assertTrue( worker.awaitTermination( 10, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void deliversNoMoreThanRequested() throws Exception
+    {
+        List<Integer> source = new ArrayList<Integer>();
+        for ( int i = 0; i < 10; i++ )
+            source.add( i );
+        Recorder<Integer> recorder = new Recorder<Integer>( 3 );
+        Streaming.publisher( source, worker, 2 ).subscribe( recorder );
+        assertTrue( recorder.idle( 3 ) );
+        assertEquals( Arrays.asList( 0, 1, 2 ), recorder.items );
+        recorder.subscription.request( Long.MAX_VALUE );
+        assertTrue( recorder.completed.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( source, recorder.items );
+        assertNull( recorder.failure );
+    }
+
+    @Test
+    public void closesHitsWhenCancelled() throws Exception
+    {
+        Hits hits = new Hits( "a", "b", "c" );
+        Streaming.Publisher<String> publisher = Streaming.publisher( hits, worker, 16 );
+        Recorder<String> recorder = new Recorder<String>( 1 );
+        publisher.subscribe( recorder );
+        assertTrue( recorder.idle( 1 ) );
+        recorder.subscription.cancel();
+        worker.submit( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        } ).get();
+        assertTrue( hits.closed );
+        assertEquals( Arrays.asList( "a" ), recorder.items );
+
+        Recorder<String> second = new Recorder<String>( 1 );
+        publisher.subscribe( second );
+        assertTrue( second.failure instanceof IllegalStateException );
+    }
+
+    @Test
+    public void closesHitsWhenTheSubscriberFails() throws Exception
+    {
+        Hits hits = new Hits( "a", "b", "c" );
+        Recorder<String> recorder = new Recorder<String>( Long.MAX_VALUE )
+        {
+            @Override
+            public void onNext( String item )
+            {
+                super.onNext( item );
+                throw new IllegalStateException( "subscriber failed" );
+            }
+        };
+        Streaming.publisher( hits, worker, 16 ).subscribe( recorder );
+        assertTrue( recorder.completed.await( 10, TimeUnit.SECONDS ) );
+        assertTrue( recorder.failure instanceof IllegalStateException );
+        assertTrue( hits.closed );
+        assertEquals( Arrays.asList( "a" ), recorder.items );
+    }
+
+    @Test
+    public void closesHitsWhenTheWorkerRejectsTheNextChunk() throws Exception
+    {
+        Hits hits = new Hits( "a", "b", "c" );
+        final ExecutorService once = Executors.newSingleThreadExecutor();
+        try
+        {
+            Executor rejecting = new Executor()
+            {
+                private final AtomicBoolean used = new AtomicBoolean();
+
+                @Override
+                public void execute( Runnable command )
+                {
+                    if ( !used.compareAndSet( false, true ) ) throw new RejectedExecutionException( "shut down" );
+                    once.execute( command );
+                }
+            };
+            Recorder<String> recorder = new Recorder<String>( Long.MAX_VALUE );
+            Streaming.publisher( hits, rejecting, 2 ).subscribe( recorder );
+            assertTrue( recorder.completed.await( 10, TimeUnit.SECONDS ) );
+            assertTrue( recorder.failure instanceof RejectedExecutionException );
+            assertTrue( hits.closed );
+            assertEquals( Arrays.asList( "a", "b" ), recorder.items );
+        }
+        finally
+        {
+            once.shutdown();
+        }
+    }
+
+    private static class Recorder<T> implements Streaming.Subscriber<T>
+    {
+        private final long initial;
+        final List<T> items = new ArrayList<T>();
+        final CountDownLatch completed = new CountDownLatch( 1 );
+        volatile Streaming.Subscription subscription;
+        volatile Throwable failure;
+
+        Recorder( long initial )
+        {
+            this.initial = initial;
+        }
+
+        boolean idle( int expected ) throws InterruptedException
+        {
+            long wait = System.currentTimeMillis() + 10000;
+            for ( ; System.currentTimeMillis() < wait; Thread.sleep( 10 ) )
+            {
+                synchronized ( items )
+                {
+                    if ( items.size() >= expected ) break;
+                }
+            }
+            Thread.sleep( 50 );
+            synchronized ( items )
+            {
+                return items.size() == expected;
+            }
+        }
+
+        @Override
+        public void onSubscribe( Streaming.Subscription subscription )
+        {
+            this.subscription = subscription;
+            subscription.request( initial );
+        }
+
+        @Override
+        public void onNext( T item )
+        {
+            synchronized ( items )
+            {
+                items.add( item );
+            }
+        }
+
+        @Override
+        public void onError( Throwable failure )
+        {
+            this.failure = failure;
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete()
+        {
+            completed.countDown();
+        }
+    }
+
+    private static class Hits implements IndexHits<String>
+    {
+        private final Iterator<String> items;
+        private final int size;
+        volatile boolean closed;
+
+        Hits( String... items )
+        {
+            this.items = Arrays.asList( items ).iterator();
+            this.size = items.length;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return items.hasNext();
+        }
+
+        @Override
+        public String next()
+        {
+            return items.next();
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return this;
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+
+        @Override
+        public String getSingle()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public float currentScore()
+        {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestTenantQuotas
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestTenantQuotas.class );
+    private static final TenantQuotas quotas = new TenantQuotas( 0.001, 3 );
+    private static WrappedGraphDatabase graphdb;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ), quotas );
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void rejectsCreationsBeyondTheQuotaOfTheBoundTenant()
+    {
+        quotas.setLimit( "big", 0.001, 10 );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            quotas.bindTenant( "small" );
+            Node first = graphdb.createNode(), second = graphdb.createNode();
+            first.createRelationshipTo( second, DynamicRelationshipType.withName( "R" ) );
+            try
+            {
+                graphdb.createNode();
+                fail( "quota of the tenant should be exhausted" );
+            }
+            catch ( QuotaExceededException expected )
+            {
+                assertEquals( "small", expected.getTenant() );
+            }
+            assertEquals( "small", quotas.bindTenant( "big" ) );
+            for ( int i = 0; i < 10; i++ )
+                graphdb.createNode();
+            quotas.bindTenant( null );
+            for ( int i = 0; i < 10; i++ )
+                graphdb.createNode();
+            tx.success();
+        }
+        finally
+        {
+            quotas.bindTenant( null );
+            tx.finish();
+        }
+        assertEquals( 2, quotas.createdNodes( "small" ) );
+        assertEquals( 1, quotas.createdRelationships( "small" ) );
+        assertEquals( 1, quotas.rejected( "small" ) );
+        assertEquals( 10, quotas.createdNodes( "big" ) );
+        assertEquals( 0, quotas.rejected( "big" ) );
+    }
+
+    @Test
+    public void refundsFailedCreationsAndKeepsCountsWhenTheLimitChanges()
+    {
+        quotas.setLimit( "refunded", 0.001, 2 );
+        graphdb.setTransactionLimits( 1, 1 );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            quotas.bindTenant( "refunded" );
+            graphdb.createNode();
+            try
+            {
+                graphdb.createNode();
+                fail( "transaction should be too large" );
+            }
+            catch ( TransactionTooLargeException expected )
+            {
+                // the creation was refunded
+            }
+        }
+        finally
+        {
+            quotas.bindTenant( null );
+            tx.finish();
+            graphdb.setTransactionLimits( Long.MAX_VALUE, Long.MAX_VALUE );
+        }
+        assertEquals( 1, quotas.createdNodes( "refunded" ) );
+        quotas.setLimit( "refunded", 0.001, 3 );
+        assertEquals( 1, quotas.createdNodes( "refunded" ) );
+        tx = graphdb.beginTx();
+        try
+        {
+            quotas.bindTenant( "refunded" );
+            graphdb.createNode();
+            try
+            {
+                graphdb.createNode();
+                fail( "quota of the tenant should be exhausted" );
+            }
+            catch ( QuotaExceededException expected )
+            {
+                assertEquals( "refunded", expected.getTenant() );
+            }
+            tx.success();
+        }
+        finally
+        {
+            quotas.bindTenant( null );
+            tx.finish();
+        }
+        assertEquals( 2, quotas.createdNodes( "refunded" ) );
+        assertEquals( 1, quotas.rejected( "refunded" ) );
+    }
+
+    @Test
+    public void idleTimeDoesNotAccrueBeyondTheBurst() throws Exception
+    {
+        quotas.setLimit( "idle", 4, 5 );
+        Thread.sleep( 500 ); // two more tokens at this rate, had the bucket no cap
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            quotas.bindTenant( "idle" );
+            for ( int i = 0; i < 5; i++ )
+                graphdb.createNode();
+            try
+            {
+                graphdb.createNode();
+                fail( "the burst of the tenant should be exhausted" );
+            }
+            catch ( QuotaExceededException expected )
+            {
+                assertEquals( "idle", expected.getTenant() );
+            }
+            tx.success();
+        }
+        finally
+        {
+            quotas.bindTenant( null );
+            tx.finish();
+        }
+        assertEquals( 5, quotas.createdNodes( "idle" ) );
+    }
+}
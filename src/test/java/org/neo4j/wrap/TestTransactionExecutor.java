@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTransactionExecutor
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestTransactionExecutor.class );
+    private static WrappedGraphDatabase graphdb;
+    private TransactionExecutor executor;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Before
+    public void startExecutor()
+    {
+        executor = new TransactionExecutor( graphdb, 2, 4 );
+    }
+
+    @After
+    public void stopExecutor() throws Exception
+    {
+        executor.shutdown();
+        assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void commitsSuccessfulWorkAndRollsBackFailedWork() throws Exception
+    {
+        List<Future<Long>> created = new ArrayList<Future<Long>>();
+        for ( int i = 0; i < 4; i++ )
+        {
+            created.add( executor.submit( new TransactionExecutor.UnitOfWork<Long>()
+            {
+                @Override
+                public Long execute( GraphDatabaseService graphdb )
+                {
+                    return graphdb.createNode().getId();
+                }
+            } ) );
+        }
+        for ( Future<Long> id : created )
+            assertEquals( id.get(), (Long) graphdb.getNodeById( id.get() ).getId() );
+
+        final AtomicReference<Long> rolledBack = new AtomicReference<Long>();
+        Future<Object> failing = executor.submit( new TransactionExecutor.UnitOfWork<Object>()
+        {
+            @Override
+            public Object execute( GraphDatabaseService graphdb )
+            {
+                rolledBack.set( graphdb.createNode().getId() );
+                throw new IllegalStateException( "failing work" );
+            }
+        } );
+        try
+        {
+            failing.get();
+            fail( "failing work should fail its future" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertTrue( e.getCause() instanceof IllegalStateException );
+        }
+        assertNull( graphdb.findNodeById( rolledBack.get() ) );
+    }
+
+    @Test
+    public void notifiesCallbacksAndRejectsWorkBeyondTheQueue() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch( 1 ), done = new CountDownLatch( 1 );
+        TransactionExecutor.UnitOfWork<Node> blocked = new TransactionExecutor.UnitOfWork<Node>()
+        {
+            @Override
+            public Node execute( GraphDatabaseService graphdb ) throws Exception
+            {
+                release.await();
+                return graphdb.getReferenceNode();
+            }
+        };
+        final AtomicReference<Node> result = new AtomicReference<Node>();
+        executor.submitRead( blocked, new TransactionExecutor.Callback<Node>()
+        {
+            @Override
+            public void completed( Node node )
+            {
+                result.set( node );
+                done.countDown();
+            }
+
+            @Override
+            public void failed( Throwable failure )
+            {
+                done.countDown();
+            }
+        } );
+        boolean rejected = false;
+        for ( int i = 0; i < 10 && !rejected; i++ )
+        {
+            try
+            {
+                executor.submitRead( blocked );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                rejected = true;
+            }
+        }
+        assertTrue( rejected );
+        assertEquals( 4, executor.queueDepth() );
+        release.countDown();
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( graphdb.getReferenceNode(), result.get() );
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestTransactionLimits
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestTransactionLimits.class );
+    private static WrappedGraphDatabase graphdb;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @After
+    public void removeLimits()
+    {
+        graphdb.setTransactionLimits( Long.MAX_VALUE, Long.MAX_VALUE );
+    }
+
+    @Test
+    public void bulkTransactionsAreSplitAtTheSoftLimit() throws Exception
+    {
+        graphdb.setTransactionLimits( 10, 20 );
+        long[] ids = new long[35];
+        Transaction tx = graphdb.beginBulkTx();
+        try
+        {
+            for ( int i = 0; i < ids.length; i++ )
+            {
+                Node node = graphdb.createNode();
+                node.setProperty( "number", i );
+                ids[i] = node.getId();
+            }
+            // the first parts are committed, and visible to other threads, before the transaction finishes
+            assertEquals( 0, readFromOtherThread( ids[0] ) );
+            assertEquals( 29, readFromOtherThread( ids[29] ) );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( 34, graphdb.getNodeById( ids[34] ).getProperty( "number" ) );
+    }
+
+    @Test
+    public void changesPastTheHardLimitAreRejected() throws Exception
+    {
+        graphdb.setTransactionLimits( 5, 10 );
+        long first = -1;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            for ( int i = 0; i < 11; i++ )
+            {
+                Node node = graphdb.createNode();
+                if ( first < 0 ) first = node.getId();
+            }
+            tx.success();
+            fail( "transaction should have been too large" );
+        }
+        catch ( TransactionTooLargeException e )
+        {
+            assertEquals( 10, e.getLimit() );
+        }
+        finally
+        {
+            tx.finish();
+        }
+        try
+        {
+            graphdb.getNodeById( first );
+            fail( "transaction should have been rolled back" );
+        }
+        catch ( NotFoundException expected )
+        {
+            // rolled back
+        }
+    }
+
+    @Test
+    public void repeatedBufferedChangesOfAPropertyCountOnce() throws Exception
+    {
+        graphdb.setTransactionLimits( 3, 3 );
+        graphdb.setWriteBehind( true );
+        Node node;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            node = graphdb.createNode();
+            for ( int i = 0; i < 100; i++ )
+                node.setProperty( "number", i );
+            node.setProperty( "temporary", true );
+            node.removeProperty( "temporary" );
+            node.removeProperty( "missing" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+            graphdb.setWriteBehind( false );
+        }
+        assertEquals( 99, node.getProperty( "number" ) );
+    }
+
+    private static Object readFromOtherThread( final long id ) throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            return executor.submit( new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                {
+                    return graphdb.getNodeById( id ).getProperty( "number" );
+                }
+            } ).get();
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ReturnableEvaluator;
+import org.neo4j.graphdb.StopEvaluator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.Traverser.Order;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.Evaluator;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTraversals
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestTraversals.class );
+    private static WrappedGraphDatabase graphdb;
+    /** A chain 0 -> 1 -> 2 -> 3 -> 4 with a shortcut 0 -> 2 of another type. */
+    private static Node[] chain;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            chain = new Node[5];
+            for ( int i = 0; i < chain.length; i++ )
+            {
+                chain[i] = graphdb.createNode();
+                if ( i > 0 ) chain[i - 1].createRelationshipTo( chain[i], Types.NEXT );
+            }
+            chain[0].createRelationshipTo( chain[2], Types.SKIP );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void traversalFrameworkHandsOutWrappedPaths()
+    {
+        final List<Long> evaluated = new ArrayList<Long>();
+        List<Path> paths = new ArrayList<Path>();
+        for ( Path path : graphdb.traversalDescription().relationships( Types.NEXT, Direction.OUTGOING ).evaluator(
+                Evaluators.toDepth( 2 ) ).evaluator( new Evaluator()
+        {
+            @Override
+            public Evaluation evaluate( Path path )
+            {
+                evaluated.add( ( (WrappedPath) path ).endNodeId() );
+                return Evaluation.INCLUDE_AND_CONTINUE;
+            }
+        } ).traverse( chain[0] ) )
+        {
+            paths.add( path );
+        }
+        assertEquals( 3, paths.size() );
+        assertEquals( Arrays.asList( chain[0].getId(), chain[1].getId(), chain[2].getId() ), evaluated );
+        WrappedPath last = (WrappedPath) paths.get( 2 );
+        assertArrayEquals( new long[] { chain[0].getId(), chain[1].getId(), chain[2].getId() }, last.nodeIds() );
+        assertEquals( chain[2], last.endNode() );
+        assertEquals( chain[1], last.lastRelationship().getStartNode() );
+        Set<Node> nodes = new HashSet<Node>();
+        for ( Node node : last.nodes() )
+            nodes.add( node );
+        assertTrue( nodes.containsAll( Arrays.asList( chain[0], chain[1], chain[2] ) ) );
+    }
+
+    @Test
+    public void prefetcherWarmsNodesAheadOfTheTraversal() throws Exception
+    {
+        Prefetcher prefetcher = new Prefetcher( 2, 16 );
+        graphdb.setPrefetcher( prefetcher );
+        try
+        {
+            assertEquals( 2, IteratorUtil.count( chain[0].getRelationships( Direction.OUTGOING ) ) );
+            for ( long wait = System.currentTimeMillis() + 10000; prefetcher.prefetched() < 2; Thread.sleep( 10 ) )
+            {
+                assertTrue( "prefetching timed out", System.currentTimeMillis() < wait );
+            }
+            IteratorUtil.count( chain[1].getRelationships() );
+            assertEquals( 1, prefetcher.misses() );
+            assertEquals( 1, prefetcher.hits() );
+
+            List<Node> nodes = new ArrayList<Node>();
+            for ( Node node : chain[0].traverse( Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH,
+                    ReturnableEvaluator.ALL, Types.NEXT, Direction.OUTGOING ) )
+            {
+                nodes.add( node );
+            }
+            assertEquals( Arrays.asList( chain ), nodes );
+            assertEquals( chain.length, IteratorUtil.count( graphdb.traversalDescription().relationships( Types.NEXT,
+                    Direction.OUTGOING ).traverse( chain[0] ) ) );
+            // the nodes reached from a node are requested as a batch once the traversal moves on from it
+            assertTrue( prefetcher.requested() >= chain.length - 1 );
+            assertTrue( prefetcher.hits() + prefetcher.misses() > 2 );
+        }
+        finally
+        {
+            graphdb.setPrefetcher( null );
+            prefetcher.shutdown();
+        }
+    }
+
+    @Test
+    public void prefetcherBatchesTheNodesReachedFromOneNode()
+    {
+        Node hub;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            hub = graphdb.createNode();
+            for ( int i = 0; i < 100; i++ )
+                hub.createRelationshipTo( graphdb.createNode(), Types.NEXT );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        Prefetcher prefetcher = new Prefetcher( 1, 4 );
+        graphdb.setPrefetcher( prefetcher );
+        try
+        {
+            assertEquals( 100, IteratorUtil.count( hub.getRelationships( Direction.OUTGOING ) ) );
+            assertEquals( 100, prefetcher.requested() );
+            assertEquals( 0, prefetcher.dropped() );
+            IteratorUtil.count( hub.getRelationships( Direction.OUTGOING ) );
+            assertEquals( 100, prefetcher.requested() );
+        }
+        finally
+        {
+            graphdb.setPrefetcher( null );
+        }
+    }
+
+    @Test
+    public void parallelBreadthFirstVisitsEachNodeOnceByDepth() throws Exception
+    {
+        Node hub;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            hub = graphdb.createNode();
+            for ( int i = 0; i < 300; i++ )
+            {
+                Node spoke = graphdb.createNode();
+                hub.createRelationshipTo( spoke, Types.NEXT );
+                spoke.createRelationshipTo( graphdb.createNode(), Types.NEXT );
+                spoke.createRelationshipTo( hub, Types.SKIP );
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            final ConcurrentMap<Long, Integer> depths = new ConcurrentHashMap<Long, Integer>();
+            ParallelBreadthFirst.Visitor visitor = new ParallelBreadthFirst.Visitor()
+            {
+                @Override
+                public boolean visit( long nodeId, int depth )
+                {
+                    assertNull( depths.put( nodeId, depth ) );
+                    return true;
+                }
+            };
+            ParallelBreadthFirst bfs = new ParallelBreadthFirst( graphdb, executor, 4 );
+            assertEquals( 601, bfs.relationships( Direction.OUTGOING, Types.NEXT ).expand( hub, visitor ) );
+            assertEquals( 301, bfs.maxDepth( 1 ).relationships( Direction.BOTH ).expand( hub,
+                    new ParallelBreadthFirst.Visitor()
+                    {
+                        @Override
+                        public boolean visit( long nodeId, int depth )
+                        {
+                            return true;
+                        }
+                    } ) );
+            depths.clear();
+            assertEquals( 3, bfs.relationships( Direction.OUTGOING ).maxDepth( 1 ).expand( chain[0], visitor ) );
+            assertEquals( Integer.valueOf( 1 ), depths.get( chain[2].getId() ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shortestPathFindsSingleAndAllPaths()
+    {
+        ShortestPath shortestPath = new ShortestPath( graphdb ).relationships( Direction.OUTGOING );
+        WrappedPath path = shortestPath.findSinglePath( chain[0], chain[4] );
+        assertArrayEquals( new long[] { chain[0].getId(), chain[2].getId(), chain[3].getId(), chain[4].getId() },
+                path.nodeIds() );
+        assertEquals( chain[4], path.endNode() );
+        assertTrue( path.relationships().iterator().next().isType( Types.SKIP ) );
+        assertEquals( 4, shortestPath.relationships( Direction.OUTGOING, Types.NEXT ).findSinglePath( chain[0],
+                chain[4] ).length() );
+        assertNull( shortestPath.maxDepth( 2 ).findSinglePath( chain[0], chain[4] ) );
+        assertNull( shortestPath.findSinglePath( chain[4], chain[0] ) );
+        assertEquals( 3, new ShortestPath( graphdb ).findSinglePath( chain[4], chain[0] ).length() );
+
+        Node top, left, right, bottom;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            top = graphdb.createNode();
+            left = graphdb.createNode();
+            right = graphdb.createNode();
+            bottom = graphdb.createNode();
+            top.createRelationshipTo( left, Types.NEXT );
+            top.createRelationshipTo( right, Types.NEXT );
+            left.createRelationshipTo( bottom, Types.NEXT );
+            right.createRelationshipTo( bottom, Types.NEXT );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        Set<Node> middles = new HashSet<Node>();
+        List<WrappedPath> paths = shortestPath.findAllPaths( top, bottom );
+        assertEquals( 2, paths.size() );
+        for ( WrappedPath diamond : paths )
+        {
+            assertEquals( 2, diamond.length() );
+            middles.add( graphdb.getNodeById( diamond.nodeId( 1 ) ) );
+        }
+        assertEquals( new HashSet<Node>( Arrays.asList( left, right ) ), middles );
+        assertEquals( 0, shortestPath.findAllPaths( top, top ).get( 0 ).length() );
+    }
+
+    @Test
+    public void shortestPathThrowsWhenItRunsOutOfTime()
+    {
+        Node hub, isolated;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            hub = graphdb.createNode();
+            isolated = graphdb.createNode();
+            for ( int i = 0; i < 300; i++ )
+                hub.createRelationshipTo( graphdb.createNode(), Types.NEXT );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        ShortestPath shortestPath = new ShortestPath( graphdb );
+        assertNull( shortestPath.findSinglePath( hub, isolated ) );
+        try
+        {
+            shortestPath.timeBudget( 1, TimeUnit.NANOSECONDS ).findSinglePath( hub, isolated );
+            fail( "search should run out of time" );
+        }
+        catch ( OperationCancelledException expected )
+        {
+            // not the same as finding no path
+        }
+    }
+
+    @Test
+    public void cancelledTokenStopsTraversalsAndIndexHits()
+    {
+        Index<Node> index = graphdb.index().forNodes( "cancellation" );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            for ( Node node : chain )
+                index.add( node, "key", "value" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        IndexHits<Node> hits = index.get( "key", "value" );
+        CancellationToken token = new CancellationToken();
+        CancellationToken previous = graphdb.bindCancellationToken( token );
+        try
+        {
+            Iterator<Path> paths = graphdb.traversalDescription().traverse( chain[0] ).iterator();
+            Iterator<Node> nodes = chain[0].traverse( Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH,
+                    ReturnableEvaluator.ALL, Types.NEXT, Direction.OUTGOING ).iterator();
+            IndexHits<Node> cancelledHits = index.get( "key", "value" );
+            assertTrue( paths.hasNext() );
+            paths.next();
+            nodes.next();
+            cancelledHits.next();
+            token.cancel();
+            assertCancelled( paths );
+            assertCancelled( nodes );
+            assertCancelled( cancelledHits );
+        }
+        finally
+        {
+            graphdb.bindCancellationToken( previous );
+        }
+        assertEquals( chain.length, IteratorUtil.count( (Iterator<Node>) hits ) );
+
+        graphdb.setDefaultTimeBudget( 1, TimeUnit.NANOSECONDS );
+        try
+        {
+            // the start of the traversal is evaluated eagerly, the budget may run out before it returns
+            assertCancelled( graphdb.traversalDescription().traverse( chain[0] ).iterator() );
+        }
+        catch ( OperationCancelledException expected )
+        {
+            // ok
+        }
+        finally
+        {
+            graphdb.setDefaultTimeBudget( 0, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    @Test
+    public void allNodesTakeTheirTimeBudgetWhenIterated() throws Exception
+    {
+        graphdb.setDefaultTimeBudget( 50, TimeUnit.MILLISECONDS );
+        try
+        {
+            Iterable<Node> nodes = graphdb.getAllNodes();
+            Thread.sleep( 100 );
+            assertTrue( IteratorUtil.count( nodes ) >= chain.length );
+            graphdb.setDefaultTimeBudget( 1, TimeUnit.NANOSECONDS );
+            assertCancelled( nodes.iterator() );
+        }
+        finally
+        {
+            graphdb.setDefaultTimeBudget( 0, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    private static void assertCancelled( Iterator<?> iterator )
+    {
+        try
+        {
+            while ( iterator.hasNext() )
+                iterator.next();
+            fail( "expected the iteration to be cancelled" );
+        }
+        catch ( OperationCancelledException expected )
+        {
+            // ok
+        }
+    }
+
+    enum Types implements RelationshipType
+    {
+        NEXT, SKIP
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+import org.neo4j.wrap.workaround.LookupProfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestWrappedRelationship
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestWrappedRelationship.class );
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static HABugWorkaroundGraphDatabaseWrapper graphdb;
+    private static long start, end, unrelated, relationship;
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            Node startNode = graphdb.createNode(), endNode = graphdb.createNode();
+            relationship = startNode.createRelationshipTo( endNode, KNOWS ).getId();
+            start = startNode.getId();
+            end = endNode.getId();
+            unrelated = graphdb.createNode().getId();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Test
+    public void resolvesEndpointsOnceAndReusesNodeWrappers()
+    {
+        LookupProfile profile = new LookupProfile();
+        graphdb.setLookupProfile( profile );
+        try
+        {
+            WrappedRelationship<?> wrapped = (WrappedRelationship<?>) graphdb.getRelationshipById( relationship );
+            for ( int i = 0; i < 3; i++ )
+            {
+                assertEquals( start, wrapped.getStartNodeId() );
+                assertEquals( end, wrapped.getEndNodeId() );
+                assertEquals( end, wrapped.getOtherNodeId( start ) );
+                assertEquals( start, wrapped.getOtherNodeId( end ) );
+            }
+            Node startNode = wrapped.getStartNode(), endNode = wrapped.getEndNode();
+            assertSame( startNode, wrapped.getStartNode() );
+            assertSame( endNode, wrapped.getEndNode() );
+            assertSame( endNode, wrapped.getOtherNode( startNode ) );
+            assertSame( startNode, wrapped.getOtherNode( endNode ) );
+            assertEquals( 1, profile.lookupsOfRelationship( relationship ) );
+            assertEquals( 0, profile.getNodeLookups() );
+        }
+        finally
+        {
+            graphdb.setLookupProfile( null );
+        }
+    }
+
+    @Test
+    public void resolvedRelationshipsFindTheOtherNodeWithoutLookups()
+    {
+        LookupProfile profile = new LookupProfile();
+        graphdb.setLookupProfile( profile );
+        try
+        {
+            WrappedRelationship<?> wrapped = (WrappedRelationship<?>) graphdb.getRelationshipById( relationship );
+            wrapped.resolved( start, end, graphdb.typeDictionary().id( KNOWS ) );
+            assertEquals( end, wrapped.getOtherNode( graphdb.getNodeById( start ) ).getId() );
+            assertEquals( start, wrapped.getOtherNode( graphdb.getNodeById( end ) ).getId() );
+            assertEquals( KNOWS.name(), wrapped.getType().name() );
+            assertEquals( 0, profile.getRelationshipLookups() );
+            assertEquals( 0, profile.getNodeLookups() );
+        }
+        finally
+        {
+            graphdb.setLookupProfile( null );
+        }
+    }
+
+    @Test
+    public void rejectsUnrelatedNodes()
+    {
+        Relationship wrapped = graphdb.getRelationshipById( relationship );
+        try
+        {
+            wrapped.getOtherNode( graphdb.getNodeById( unrelated ) );
+            fail( "node is not connected to the relationship" );
+        }
+        catch ( NotFoundException expected )
+        {
+            // ok
+        }
+        try
+        {
+            ( (WrappedRelationship<?>) wrapped ).getOtherNodeId( unrelated );
+            fail( "node is not connected to the relationship" );
+        }
+        catch ( NotFoundException expected )
+        {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.wrap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.workaround.HABugWorkaroundGraphDatabaseWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestWriteBehind
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestWriteBehind.class );
+    private static WrappedGraphDatabase graphdb;
+    private final List<String> changes = new ArrayList<String>();
+    private final TransactionEventHandler<Void> recorder = new TransactionEventHandler<Void>()
+    {
+        @Override
+        public Void beforeCommit( TransactionData data )
+        {
+            for ( PropertyEntry<Node> entry : data.assignedNodeProperties() )
+                changes.add( "set " + entry.key() + "=" + entry.value() );
+            for ( PropertyEntry<Node> entry : data.removedNodeProperties() )
+                changes.add( "remove " + entry.key() );
+            return null;
+        }
+
+        @Override
+        public void afterCommit( TransactionData data, Void state )
+        {
+        }
+
+        @Override
+        public void afterRollback( TransactionData data, Void state )
+        {
+        }
+    };
+
+    @BeforeClass
+    public static void startGraphDB() throws Exception
+    {
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
+                .getAbsolutePath() ) );
+        graphdb.setWriteBehind( true );
+    }
+
+    @AfterClass
+    public static void stopGraphDB() throws Exception
+    {
+        if ( graphdb != null ) graphdb.shutdown();
+        graphdb = null;
+    }
+
+    @Before
+    public void registerRecorder()
+    {
+        graphdb.registerTransactionEventHandler( recorder );
+    }
+
+    @After
+    public void unregisterRecorder()
+    {
+        graphdb.unregisterTransactionEventHandler( recorder );
+    }
+
+    @Test
+    public void coalescesRepeatedChangesAndAppliesThemOnSuccess()
+    {
+        Node node;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            node = graphdb.createNode();
+            node.setProperty( "stored", "yes" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        changes.clear();
+
+        tx = graphdb.beginTx();
+        try
+        {
+            for ( int i = 1; i <= 3; i++ )
+                node.setProperty( "count", i );
+            assertEquals( 3, node.getProperty( "count" ) );
+            node.setProperty( "temporary", "value" );
+            assertEquals( "value", node.removeProperty( "temporary" ) );
+            assertFalse( node.hasProperty( "temporary" ) );
+            assertEquals( "yes", node.removeProperty( "stored" ) );
+            assertEquals( "gone", node.getProperty( "stored", "gone" ) );
+            try
+            {
+                node.getProperty( "stored" );
+                fail( "removed property should not be found" );
+            }
+            catch ( NotFoundException expected )
+            {
+                // ok
+            }
+            assertEquals( Arrays.asList( "count" ), IteratorUtil.asCollection( node.getPropertyKeys() ) );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( 2, changes.size() );
+        assertTrue( changes.containsAll( Arrays.asList( "set count=3", "remove stored" ) ) );
+        assertEquals( 3, node.getProperty( "count" ) );
+        assertFalse( node.hasProperty( "stored" ) );
+    }
+
+    @Test
+    public void discardsChangesOfFailedTransactions()
+    {
+        Node node;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            node = graphdb.createNode();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        tx = graphdb.beginTx();
+        try
+        {
+            node.setProperty( "name", "discarded" );
+            assertTrue( node.hasProperty( "name" ) );
+            tx.failure();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertFalse( node.hasProperty( "name" ) );
+
+        tx = graphdb.beginTx();
+        try
+        {
+            tx.success();
+            node.setProperty( "name", "after success" );
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( "after success", node.getProperty( "name" ) );
+    }
+
+    @Test
+    public void rejectsUnsupportedValuesWhenTheyAreSet()
+    {
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            Node node = graphdb.createNode();
+            node.setProperty( "numbers", new int[] { 1, 2 } );
+            node.setProperty( "names", new String[] { "a", "b" } );
+            try
+            {
+                node.setProperty( "list", Arrays.asList( 1, 2 ) );
+                fail( "a list is not a valid property value" );
+            }
+            catch ( IllegalArgumentException expected )
+            {
+                // ok
+            }
+            assertFalse( node.hasProperty( "list" ) );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+}
@@ -38,6 +38,7 @@ import org.neo4j.graphdb.index.RelationshipIndex;
 import org.neo4j.helpers.collection.IterableWrapper;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.test.TargetDirectory;
+import org.neo4j.wrap.TransactionNotAllowedException;
 
 import scala.actors.threadpool.Arrays;
 
@@ -53,13 +54,14 @@ public class TestHABugWorkaroundGraphDatabaseWrapper
 {
     private static final TargetDirectory target = TargetDirectory
         .forTest( TestHABugWorkaroundGraphDatabaseWrapper.class );
+    private static EmbeddedGraphDatabase embedded;
     private static GraphDatabaseService graphdb;
 
     @BeforeClass
     public static void startGraphDB() throws Exception
     {
-        graphdb = new HABugWorkaroundGraphDatabaseWrapper( new EmbeddedGraphDatabase( target.graphDbDir( true )
-            .getAbsolutePath() ) );
+        embedded = new EmbeddedGraphDatabase( target.graphDbDir( true ).getAbsolutePath() );
+        graphdb = new HABugWorkaroundGraphDatabaseWrapper( embedded );
     }
 
     @AfterClass
@@ -67,6 +69,7 @@ public class TestHABugWorkaroundGraphDatabaseWrapper
     {
         if ( graphdb != null ) graphdb.shutdown();
         graphdb = null;
+        embedded = null;
     }
 
     @Test
@@ -243,6 +246,81 @@ public class TestHABugWorkaroundGraphDatabaseWrapper
         assertEquals( rel, node1.getSingleRelationship( TestTypes.TEST, Direction.OUTGOING ) );
     }
 
+    @Test
+    public void canProfileLookups() throws Exception
+    {
+        Node node = createNode();
+        LookupProfile profile = new LookupProfile( 100, 1 );
+        ( (HABugWorkaroundGraphDatabaseWrapper) graphdb ).setLookupProfile( profile );
+        try
+        {
+            Transaction tx = graphdb.beginTx();
+            try
+            {
+                node.setProperty( "name", "profiled" );
+                node.setProperty( "size", 1 );
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+            assertEquals( "profiled", node.getProperty( "name" ) );
+
+            assertEquals( 1, profile.getTransactions() );
+            assertEquals( 2, profile.getMaxLookupsPerTransaction() );
+            assertEquals( 3, profile.getNodeLookups() );
+            assertEquals( 3, profile.lookupsOfNode( node.getId() ) );
+            assertEquals( "Node[" + node.getId() + "] 3", profile.getTopEntities()[0] );
+            assertEquals( "WrappedNode.setProperty 2", profile.getTopMethods()[0] );
+            assertEquals( "WrappedNode.getProperty 1", profile.getTopMethods()[1] );
+            assertTrue( profile.getTopCallSites()[0], profile.getTopCallSites()[0].contains( "canProfileLookups" ) );
+        }
+        finally
+        {
+            ( (HABugWorkaroundGraphDatabaseWrapper) graphdb ).setLookupProfile( null );
+        }
+    }
+
+    @Test
+    public void profilesTransactionsRegardlessOfTheHooks() throws Exception
+    {
+        Node node = createNode();
+        HABugWorkaroundGraphDatabaseWrapper rejecting = new HABugWorkaroundGraphDatabaseWrapper( embedded )
+        {
+            @Override
+            protected void onBeginTransaction() throws TransactionNotAllowedException
+            {
+                throw new TransactionNotAllowedException();
+            }
+
+            @Override
+            protected void onFinishTransaction()
+            {
+                // does not call the overridden method
+            }
+        };
+        LookupProfile profile = new LookupProfile( 100, 0 );
+        rejecting.setLookupProfile( profile );
+        Node wrapped = rejecting.getNodeById( node.getId() );
+        Transaction tx = rejecting.beginTx();
+        try
+        {
+            wrapped.getProperty( "name", null );
+        }
+        finally
+        {
+            tx.finish();
+        }
+        long lookups = profile.getMaxLookupsPerTransaction();
+        wrapped.getProperty( "name", null );
+        wrapped.getProperty( "name", null );
+
+        assertEquals( 1, profile.getTransactions() );
+        assertTrue( lookups > 0 );
+        assertEquals( lookups, profile.getMaxLookupsPerTransaction() );
+    }
+
     private <T extends PropertyContainer> void indexRemove( Index<T> nodeIndex, T node )
     {
         Transaction tx;